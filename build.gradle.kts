@@ -5,6 +5,7 @@ plugins {
     `maven-publish`
     signing
     id("com.vanniktech.maven.publish") version "0.32.0"
+    id("me.champeau.jmh") version "0.7.2"
 }
 
 group = "dev.ethantmcgee"
@@ -27,6 +28,35 @@ java {
     targetCompatibility = JavaVersion.VERSION_1_8
 }
 
+tasks.test {
+    useJUnitPlatform()
+}
+
+// classes shared between the packages of this library, not part of its API
+tasks.javadoc {
+    exclude("de/adesso/softauthn/internal/**")
+}
+
+// benchmarks live in src/jmh/java and are run with ./gradlew jmh, e.g.
+// ./gradlew jmh -PjmhIncludes=SignatureCounter -PjmhThreads=16
+configurations.named("jmhImplementation") {
+    extendsFrom(configurations.implementation.get())
+}
+
+jmh {
+    jmhVersion.set("1.37")
+    benchmarkMode.set(listOf("thrpt", "avgt"))
+    timeUnit.set("us")
+    fork.set(1)
+    warmupIterations.set(3)
+    iterations.set(5)
+    profilers.add("gc")
+    resultFormat.set("JSON")
+    (findProperty("jmhIncludes") as String?)?.let { includes.add(it) }
+    (findProperty("jmhThreads") as String?)?.let { threads.set(it.toInt()) }
+    (findProperty("jmhJvmArgs") as String?)?.let { jvmArgsAppend.addAll(it.split(" ")) }
+}
+
 mavenPublishing {
     publishToMavenCentral(SonatypeHost.CENTRAL_PORTAL)
 
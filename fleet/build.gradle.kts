@@ -0,0 +1,33 @@
+plugins {
+    `java-library`
+    id("me.champeau.jmh")
+}
+
+group = "dev.ethantmcgee"
+version = "0.1.7"
+
+repositories {
+    mavenCentral()
+}
+
+dependencies {
+    api(project(":"))
+}
+
+// compiled for Java 8 like the library itself; virtual threads are used reflectively when the runtime has them
+java {
+    sourceCompatibility = JavaVersion.VERSION_1_8
+    targetCompatibility = JavaVersion.VERSION_1_8
+}
+
+// ./gradlew :fleet:jmh runs FleetBenchmark, a complete fleet per invocation
+configurations.named("jmhImplementation") {
+    extendsFrom(configurations.implementation.get())
+}
+
+jmh {
+    jmhVersion.set("1.37")
+    fork.set(1)
+    profilers.add("gc")
+    resultFormat.set("JSON")
+}
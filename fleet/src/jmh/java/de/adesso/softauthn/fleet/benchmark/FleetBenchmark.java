@@ -0,0 +1,126 @@
+package de.adesso.softauthn.fleet.benchmark;
+
+import com.yubico.webauthn.data.AuthenticatorAttestationResponse;
+import com.yubico.webauthn.data.AuthenticatorSelectionCriteria;
+import com.yubico.webauthn.data.ByteArray;
+import com.yubico.webauthn.data.COSEAlgorithmIdentifier;
+import com.yubico.webauthn.data.ClientRegistrationExtensionOutputs;
+import com.yubico.webauthn.data.PublicKeyCredential;
+import com.yubico.webauthn.data.PublicKeyCredentialCreationOptions;
+import com.yubico.webauthn.data.PublicKeyCredentialDescriptor;
+import com.yubico.webauthn.data.PublicKeyCredentialParameters;
+import com.yubico.webauthn.data.PublicKeyCredentialRequestOptions;
+import com.yubico.webauthn.data.RelyingPartyIdentity;
+import com.yubico.webauthn.data.ResidentKeyRequirement;
+import com.yubico.webauthn.data.UserVerificationRequirement;
+import de.adesso.softauthn.Authenticators;
+import de.adesso.softauthn.fleet.Fleet;
+import de.adesso.softauthn.fleet.FleetReport;
+import de.adesso.softauthn.fleet.VirtualUser;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Runs a fleet of users that each register a credential and log in with it, on virtual threads and on the
+ * platform thread pool.
+ * <p>Every user runs on a new virtual thread, so this measures what the authenticator's per-thread state
+ * (signatures, digests, ciphers and buffers) costs when it cannot be reused across users. The GC profiler's allocation
+ * rate per operation shows it most directly. Virtual threads need Java 21, on older JDKs the virtual thread variant
+ * fails.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class FleetBenchmark {
+
+    private static final RelyingPartyIdentity RP = RelyingPartyIdentity.builder()
+            .id("example.com")
+            .name("Example")
+            .build();
+
+    @Param({"false", "true"})
+    public boolean virtualThreads;
+
+    @Param({"10000"})
+    public int users;
+
+    private Fleet fleet;
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Ceremonies {
+        public long ceremoniesPerSecond;
+    }
+
+    @Setup
+    public void setup() {
+        fleet = Fleet.builder()
+                .users(users)
+                .preset(Authenticators::yubikey5Nfc)
+                .virtualThreads(virtualThreads)
+                .build();
+    }
+
+    @Benchmark
+    public FleetReport registerAndLogin(Ceremonies ceremonies) throws InterruptedException {
+        FleetReport report = fleet.run(FleetBenchmark::registerAndLogin);
+        if (report.isVirtualThreads() != virtualThreads) {
+            throw new IllegalStateException("Virtual threads are not available on this JDK");
+        }
+        if (report.getFailedUsers() > 0) {
+            throw new IllegalStateException(report.getFailedUsers() + " users failed", report.getFailures().get(0));
+        }
+        long count = report.getOperations().values().stream()
+                .mapToLong(FleetReport.OperationStatistics::getCount)
+                .sum();
+        ceremonies.ceremoniesPerSecond = (long) (count * report.getUsersPerSecond() / users);
+        return report;
+    }
+
+    private static void registerAndLogin(VirtualUser user) throws Exception {
+        PublicKeyCredential<AuthenticatorAttestationResponse, ClientRegistrationExtensionOutputs> credential =
+                user.measure("register", () -> user.getCredentials().create(creationOptions(user)));
+        user.measure("login", () -> user.getCredentials().get(requestOptions(credential.getId())));
+    }
+
+    private static PublicKeyCredentialCreationOptions creationOptions(VirtualUser user) {
+        return PublicKeyCredentialCreationOptions.builder()
+                .rp(RP)
+                .user(user.getUserIdentity())
+                .challenge(challenge())
+                .pubKeyCredParams(Collections.singletonList(
+                        PublicKeyCredentialParameters.builder().alg(COSEAlgorithmIdentifier.ES256).build()))
+                .authenticatorSelection(AuthenticatorSelectionCriteria.builder()
+                        .residentKey(ResidentKeyRequirement.DISCOURAGED)
+                        .userVerification(UserVerificationRequirement.PREFERRED)
+                        .build())
+                .build();
+    }
+
+    private static PublicKeyCredentialRequestOptions requestOptions(ByteArray credentialId) {
+        return PublicKeyCredentialRequestOptions.builder()
+                .challenge(challenge())
+                .rpId(RP.getId())
+                .allowCredentials(Collections.singletonList(PublicKeyCredentialDescriptor.builder().id(credentialId).build()))
+                .userVerification(UserVerificationRequirement.PREFERRED)
+                .build();
+    }
+
+    private static ByteArray challenge() {
+        byte[] challenge = new byte[32];
+        ThreadLocalRandom.current().nextBytes(challenge);
+        return new ByteArray(challenge);
+    }
+}
@@ -0,0 +1,226 @@
+package de.adesso.softauthn.fleet;
+
+import de.adesso.softauthn.Authenticator;
+import de.adesso.softauthn.Origin;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntFunction;
+
+/**
+ * Runs a {@link VirtualUserScript script} for a large number of {@link VirtualUser simulated users}, each with
+ * their own authenticator and credentials container, and reports throughput and latency.
+ * <p>Scripts run on virtual threads if the JDK provides them (Java 21 or later) and on a thread pool with one thread
+ * per processor otherwise, unless a custom executor is configured. Users are created right before their script runs
+ * and at most {@link FleetBuilder#concurrency(int) concurrency} scripts are in flight at once, so memory use does
+ * not grow with the number of users.
+ * <pre>{@code
+ * FleetReport report = Fleet.builder()
+ *         .users(100_000)
+ *         .preset(Authenticators::platform)
+ *         .build()
+ *         .run(user -> {
+ *             PublicKeyCredential<...> credential = user.measure("register",
+ *                     () -> user.getCredentials().create(startRegistration(user.getUserIdentity())));
+ *             finishRegistration(credential);
+ *             user.measure("login", () -> user.getCredentials().get(startAssertion(user.getUserIdentity())));
+ *         });
+ * System.out.println(report);
+ * }</pre>
+ */
+public final class Fleet {
+
+    private static final int MAX_POOL_CONCURRENCY = Runtime.getRuntime().availableProcessors();
+    // bounds memory when there is no pool to bound the number of live users
+    static final int DEFAULT_CONCURRENCY = 10_000;
+    private static final int MAX_REPORTED_FAILURES = 10;
+
+    private final int users;
+    private final IntFunction<? extends Authenticator> authenticators;
+    private final Origin origin;
+    private final int concurrency;
+    private final Executor executor;
+    private final boolean virtualThreads;
+
+    Fleet(int users, IntFunction<? extends Authenticator> authenticators, Origin origin, int concurrency,
+          Executor executor, boolean virtualThreads) {
+        this.users = users;
+        this.authenticators = authenticators;
+        this.origin = origin;
+        this.concurrency = concurrency;
+        this.executor = executor;
+        this.virtualThreads = virtualThreads;
+    }
+
+    /**
+     * Creates a new builder that can be used to configure fleets.
+     *
+     * @return a new {@link FleetBuilder}.
+     */
+    public static FleetBuilder builder() {
+        return new FleetBuilder();
+    }
+
+    /**
+     * Runs the script once for every user of this fleet and waits until all of them have finished.
+     * A fleet can be run any number of times, every run starts with new users.
+     *
+     * @param script The script to run for every user.
+     * @return The report of this run.
+     * @throws InterruptedException if the calling thread is interrupted while waiting for the users.
+     */
+    public FleetReport run(VirtualUserScript script) throws InterruptedException {
+        Executor executor = this.executor;
+        ExecutorService owned = null;
+        boolean onVirtualThreads = false;
+        int limit = concurrency;
+        if (executor == null) {
+            owned = virtualThreads ? newVirtualThreadExecutor() : null;
+            if (owned != null) {
+                onVirtualThreads = true;
+            } else {
+                int threads = limit > 0 ? limit : Math.min(users, MAX_POOL_CONCURRENCY);
+                owned = Executors.newFixedThreadPool(Math.max(threads, 1), new FleetThreadFactory());
+                limit = threads;
+            }
+            executor = owned;
+        }
+        if (limit <= 0) {
+            limit = Math.min(users, DEFAULT_CONCURRENCY);
+        }
+        limit = Math.max(limit, 1);
+
+        Run run = new Run(origin, authenticators, script);
+        Semaphore inFlight = new Semaphore(limit);
+        long start = System.nanoTime();
+        try {
+            for (int i = 0; i < users; i++) {
+                inFlight.acquire();
+                int index = i;
+                try {
+                    executor.execute(() -> {
+                        try {
+                            run.runUser(index);
+                        } finally {
+                            inFlight.release();
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    inFlight.release();
+                    run.recordFailure(e);
+                }
+            }
+            // every permit is back once the last user has finished
+            inFlight.acquire(limit);
+        } catch (InterruptedException e) {
+            if (owned != null) {
+                owned.shutdownNow();
+                owned = null;
+            }
+            throw e;
+        } finally {
+            if (owned != null) {
+                owned.shutdown();
+            }
+        }
+        return run.report(users, System.nanoTime() - start, onVirtualThreads);
+    }
+
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // before Java 21 (or Java 19/20 without --enable-preview)
+            return null;
+        }
+    }
+
+    /**
+     * The state of a single {@link #run(VirtualUserScript) run}, shared by its users.
+     */
+    static final class Run {
+        private final Origin origin;
+        private final IntFunction<? extends Authenticator> authenticators;
+        private final VirtualUserScript script;
+        private final Map<String, Operation> operations = new ConcurrentHashMap<>();
+        private final LongAdder failedUsers = new LongAdder();
+        private final List<Throwable> failures = new ArrayList<>();
+
+        private Run(Origin origin, IntFunction<? extends Authenticator> authenticators, VirtualUserScript script) {
+            this.origin = origin;
+            this.authenticators = authenticators;
+            this.script = script;
+        }
+
+        Origin origin() {
+            return origin;
+        }
+
+        void recordLatency(String operation, long nanos) {
+            operations.computeIfAbsent(operation, name -> new Operation()).latencies.record(nanos);
+        }
+
+        void recordError(String operation) {
+            operations.computeIfAbsent(operation, name -> new Operation()).errors.increment();
+        }
+
+        private void runUser(int index) {
+            try {
+                script.run(new VirtualUser(index, authenticators.apply(index), this));
+            } catch (VirtualMachineError e) {
+                recordFailure(e);
+                throw e;
+            } catch (Throwable e) {
+                recordFailure(e);
+            }
+        }
+
+        private void recordFailure(Throwable e) {
+            failedUsers.increment();
+            synchronized (failures) {
+                if (failures.size() < MAX_REPORTED_FAILURES) {
+                    failures.add(e);
+                }
+            }
+        }
+
+        private FleetReport report(int users, long wallNanos, boolean virtualThreads) {
+            Map<String, FleetReport.OperationStatistics> statistics = new LinkedHashMap<>();
+            new TreeMap<>(operations).forEach((name, operation) -> statistics.put(name,
+                    new FleetReport.OperationStatistics(name, operation.latencies, operation.errors.sum())));
+            List<Throwable> failures;
+            synchronized (this.failures) {
+                failures = new ArrayList<>(this.failures);
+            }
+            return new FleetReport(users, failedUsers.sum(), wallNanos, virtualThreads, statistics, failures);
+        }
+    }
+
+    private static final class Operation {
+        private final LatencyHistogram latencies = new LatencyHistogram();
+        private final LongAdder errors = new LongAdder();
+    }
+
+    private static final class FleetThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable task) {
+            Thread thread = new Thread(task, "softauthn-fleet-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package de.adesso.softauthn.fleet;
+
+import de.adesso.softauthn.Authenticator;
+import de.adesso.softauthn.Authenticators;
+import de.adesso.softauthn.Origin;
+import de.adesso.softauthn.authenticator.WebAuthnAuthenticatorBuilder;
+
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+
+/**
+ * Builder class for {@link Fleet}.
+ */
+public class FleetBuilder {
+    private int users = 1;
+    private IntFunction<? extends Authenticator> authenticators = index -> Authenticators.yubikey5Nfc().build();
+    private Origin origin = new Origin("https", "example.com", -1, null);
+    private int concurrency = 0;
+    private Executor executor = null;
+    private boolean virtualThreads = true;
+
+    /**
+     * Set the number of simulated users.
+     *
+     * @param users the number of users. Default: 1.
+     * @return this.
+     */
+    public FleetBuilder users(int users) {
+        if (users < 0) {
+            throw new IllegalArgumentException("users must not be negative");
+        }
+        this.users = users;
+        return this;
+    }
+
+    /**
+     * Give every user an authenticator built from the given preset, e.g. {@code Authenticators::platform}.
+     *
+     * @param preset supplies a new authenticator configuration for every user. Default: {@link Authenticators#yubikey5Nfc()}.
+     * @return this.
+     * @see Authenticators
+     */
+    public FleetBuilder preset(Supplier<WebAuthnAuthenticatorBuilder> preset) {
+        Objects.requireNonNull(preset);
+        this.authenticators = index -> preset.get().build();
+        return this;
+    }
+
+    /**
+     * Set a function that creates the authenticator of each user, for fleets that mix different authenticators.
+     * It is called lazily with the index of the user, possibly from several threads at once.
+     *
+     * @param authenticators creates the authenticator of the user with the given index.
+     * @return this.
+     */
+    public FleetBuilder authenticators(IntFunction<? extends Authenticator> authenticators) {
+        this.authenticators = Objects.requireNonNull(authenticators);
+        return this;
+    }
+
+    /**
+     * Set the origin of the users' credentials containers.
+     *
+     * @param origin the origin. Default: {@code https://example.com}.
+     * @return this.
+     */
+    public FleetBuilder origin(Origin origin) {
+        this.origin = Objects.requireNonNull(origin);
+        return this;
+    }
+
+    /**
+     * Set how many users may run their script at the same time.
+     *
+     * @param concurrency the maximum number of users in flight, or 0 for the default: the number of processors
+     *                    on a thread pool, otherwise 10000.
+     * @return this.
+     */
+    public FleetBuilder concurrency(int concurrency) {
+        if (concurrency < 0) {
+            throw new IllegalArgumentException("concurrency must not be negative");
+        }
+        this.concurrency = concurrency;
+        return this;
+    }
+
+    /**
+     * Set whether scripts should run on virtual threads when the JDK supports them. If disabled or unsupported,
+     * a thread pool is used instead.
+     *
+     * @param virtualThreads whether to use virtual threads. Default: true.
+     * @return this.
+     */
+    public FleetBuilder virtualThreads(boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+        return this;
+    }
+
+    /**
+     * Run the scripts on a custom executor instead of virtual threads or the default pool.
+     * The executor is not shut down by the fleet.
+     *
+     * @param executor the executor, or {@code null} for the default. Default: {@code null}.
+     * @return this.
+     */
+    public FleetBuilder executor(Executor executor) {
+        this.executor = executor;
+        return this;
+    }
+
+    /**
+     * Build the fleet.
+     *
+     * @return a new {@link Fleet}.
+     */
+    public Fleet build() {
+        return new Fleet(users, authenticators, origin, concurrency, executor, virtualThreads);
+    }
+}
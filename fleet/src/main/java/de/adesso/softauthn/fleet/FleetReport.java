@@ -0,0 +1,214 @@
+package de.adesso.softauthn.fleet;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The aggregate result of a {@link Fleet#run(VirtualUserScript) fleet run}: how many users completed their script,
+ * the overall throughput, and throughput and latency per {@link VirtualUser#measure measured operation}.
+ */
+public final class FleetReport {
+
+    private final int users;
+    private final long failedUsers;
+    private final long wallNanos;
+    private final boolean virtualThreads;
+    private final Map<String, OperationStatistics> operations;
+    private final List<Throwable> failures;
+
+    FleetReport(int users, long failedUsers, long wallNanos, boolean virtualThreads,
+                Map<String, OperationStatistics> operations, List<Throwable> failures) {
+        this.users = users;
+        this.failedUsers = failedUsers;
+        this.wallNanos = wallNanos;
+        this.virtualThreads = virtualThreads;
+        this.operations = Collections.unmodifiableMap(operations);
+        this.failures = Collections.unmodifiableList(failures);
+    }
+
+    /**
+     * Returns the number of users that ran their script.
+     *
+     * @return The number of users.
+     */
+    public int getUsers() {
+        return users;
+    }
+
+    /**
+     * Returns the number of users whose script threw an exception.
+     *
+     * @return The number of failed users.
+     */
+    public long getFailedUsers() {
+        return failedUsers;
+    }
+
+    /**
+     * Returns the wall clock time of the run.
+     *
+     * @param unit The unit to return the duration in.
+     * @return The duration of the run.
+     */
+    public long getDuration(TimeUnit unit) {
+        return unit.convert(wallNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Returns the number of users that completed their script per second of wall clock time.
+     *
+     * @return The user throughput.
+     */
+    public double getUsersPerSecond() {
+        return perSecond(users - failedUsers);
+    }
+
+    /**
+     * Returns whether the scripts ran on virtual threads.
+     *
+     * @return {@code true} for virtual threads, {@code false} for a thread pool or a custom executor.
+     */
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    /**
+     * Returns the statistics of every measured operation, by name and in order of name.
+     *
+     * @return The operation statistics.
+     */
+    public Map<String, OperationStatistics> getOperations() {
+        return operations;
+    }
+
+    /**
+     * Returns the exceptions of the first failed users (at most 10), to help find out why they failed.
+     *
+     * @return Some of the exceptions thrown by scripts.
+     */
+    public List<Throwable> getFailures() {
+        return failures;
+    }
+
+    private double perSecond(long count) {
+        return wallNanos == 0 ? 0 : count * 1e9 / wallNanos;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder report = new StringBuilder();
+        report.append(String.format(Locale.ROOT, "%d users (%d failed) in %.3f s on %s, %.1f users/s%n",
+                users, failedUsers, wallNanos / 1e9, virtualThreads ? "virtual threads" : "platform threads",
+                getUsersPerSecond()));
+        report.append(String.format(Locale.ROOT, "%-16s %10s %8s %12s %10s %10s %10s %10s %10s%n",
+                "operation", "count", "errors", "ops/s", "mean ms", "p50 ms", "p90 ms", "p99 ms", "max ms"));
+        for (OperationStatistics operation : operations.values()) {
+            report.append(String.format(Locale.ROOT, "%-16s %10d %8d %12.1f %10.3f %10.3f %10.3f %10.3f %10.3f%n",
+                    operation.name, operation.count, operation.errors, perSecond(operation.count),
+                    operation.meanNanos / 1e6, operation.p50Nanos / 1e6, operation.p90Nanos / 1e6,
+                    operation.p99Nanos / 1e6, operation.maxNanos / 1e6));
+        }
+        return report.toString();
+    }
+
+    /**
+     * Throughput and latency of one kind of {@link VirtualUser#measure measured operation}, over all users.
+     * Percentiles are accurate to 6.25%.
+     */
+    public static final class OperationStatistics {
+        private final String name;
+        private final long count;
+        private final long errors;
+        private final double meanNanos;
+        private final long p50Nanos;
+        private final long p90Nanos;
+        private final long p99Nanos;
+        private final long maxNanos;
+
+        OperationStatistics(String name, LatencyHistogram latencies, long errors) {
+            this.name = name;
+            this.count = latencies.count();
+            this.errors = errors;
+            this.meanNanos = latencies.mean();
+            this.p50Nanos = latencies.percentile(50);
+            this.p90Nanos = latencies.percentile(90);
+            this.p99Nanos = latencies.percentile(99);
+            this.maxNanos = latencies.max();
+        }
+
+        /**
+         * Returns the name of the operation.
+         *
+         * @return The name.
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Returns how often the operation completed successfully.
+         *
+         * @return The number of successful operations.
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * Returns how often the operation threw an exception.
+         *
+         * @return The number of failed operations.
+         */
+        public long getErrors() {
+            return errors;
+        }
+
+        /**
+         * Returns the mean latency of successful operations.
+         *
+         * @return The mean latency in nanoseconds.
+         */
+        public double getMeanNanos() {
+            return meanNanos;
+        }
+
+        /**
+         * Returns the median latency of successful operations.
+         *
+         * @return The median latency in nanoseconds.
+         */
+        public long getP50Nanos() {
+            return p50Nanos;
+        }
+
+        /**
+         * Returns the 90th percentile of the latency of successful operations.
+         *
+         * @return The 90th percentile in nanoseconds.
+         */
+        public long getP90Nanos() {
+            return p90Nanos;
+        }
+
+        /**
+         * Returns the 99th percentile of the latency of successful operations.
+         *
+         * @return The 99th percentile in nanoseconds.
+         */
+        public long getP99Nanos() {
+            return p99Nanos;
+        }
+
+        /**
+         * Returns the highest latency of a successful operation.
+         *
+         * @return The maximum latency in nanoseconds.
+         */
+        public long getMaxNanos() {
+            return maxNanos;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package de.adesso.softauthn.fleet;
+
+import com.yubico.webauthn.data.ByteArray;
+import com.yubico.webauthn.data.UserIdentity;
+import de.adesso.softauthn.Authenticator;
+import de.adesso.softauthn.CredentialsContainer;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.concurrent.Callable;
+
+/**
+ * A simulated user of a {@link Fleet}, with its own {@link Authenticator} and {@link CredentialsContainer}.
+ * <p>Virtual users are created lazily, right before their script runs, and can be garbage collected as soon as it
+ * has finished. Instances are confined to the thread running their script.
+ */
+public final class VirtualUser {
+
+    private final int index;
+    private final Authenticator authenticator;
+    private final CredentialsContainer credentials;
+    private final Fleet.Run run;
+    private UserIdentity identity;
+
+    VirtualUser(int index, Authenticator authenticator, Fleet.Run run) {
+        this.index = index;
+        this.authenticator = authenticator;
+        this.credentials = new CredentialsContainer(run.origin(), Collections.singletonList(authenticator));
+        this.run = run;
+    }
+
+    /**
+     * Get the index of this user within the fleet, from 0 (inclusive) to the number of users (exclusive).
+     *
+     * @return The index.
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * Get a user entity for this user that is unique within the fleet: its name is {@code user<index>} and its
+     * user handle is the index as a 16 byte big-endian number. Relying Parties that assign their own user handles
+     * don't need to use this.
+     *
+     * @return The user entity.
+     */
+    public UserIdentity getUserIdentity() {
+        if (identity == null) {
+            identity = UserIdentity.builder()
+                    .name("user" + index)
+                    .displayName("User " + index)
+                    .id(new ByteArray(ByteBuffer.allocate(16).putLong(8, index).array()))
+                    .build();
+        }
+        return identity;
+    }
+
+    /**
+     * Get the authenticator of this user.
+     *
+     * @return The authenticator.
+     */
+    public Authenticator getAuthenticator() {
+        return authenticator;
+    }
+
+    /**
+     * Get the credentials container of this user, which only knows this user's {@link #getAuthenticator() authenticator}.
+     *
+     * @return The credentials container.
+     */
+    public CredentialsContainer getCredentials() {
+        return credentials;
+    }
+
+    /**
+     * Runs an operation and records its latency under the given name. Operations that throw are counted as errors
+     * of that name instead.
+     *
+     * @param operation The name of the operation, e.g. {@code "register"} or {@code "login"}.
+     * @param action The operation.
+     * @param <T> The result type of the operation.
+     * @return The result of the operation.
+     * @throws Exception if the operation throws.
+     */
+    public <T> T measure(String operation, Callable<T> action) throws Exception {
+        long start = System.nanoTime();
+        T result;
+        try {
+            result = action.call();
+        } catch (Exception | Error e) {
+            run.recordError(operation);
+            throw e;
+        }
+        run.recordLatency(operation, System.nanoTime() - start);
+        return result;
+    }
+}
@@ -0,0 +1,18 @@
+package de.adesso.softauthn.fleet;
+
+/**
+ * The ceremonies a single virtual user performs during a {@link Fleet#run(VirtualUserScript) fleet run},
+ * typically registering a credential with the Relying Party and then logging in with it one or more times.
+ */
+@FunctionalInterface
+public interface VirtualUserScript {
+
+    /**
+     * Runs the script for one virtual user. Operations that should show up in the
+     * {@link FleetReport report} are wrapped in {@link VirtualUser#measure}.
+     *
+     * @param user The virtual user, with its own authenticator and credentials container.
+     * @throws Exception if the script fails. The user is counted as failed, the other users are not affected.
+     */
+    void run(VirtualUser user) throws Exception;
+}
@@ -1,2 +1,4 @@
 rootProject.name = "softauthn"
 
+// optional virtual user fleet runner, see fleet/build.gradle.kts
+include("fleet")
@@ -0,0 +1,52 @@
+package de.adesso.softauthn.benchmark;
+
+import de.adesso.softauthn.AttestationObject;
+import de.adesso.softauthn.authenticator.WebAuthnAuthenticator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Collections;
+import java.util.Random;
+
+/**
+ * Benchmarks encoding an {@link AttestationObject}, comparing the direct encoder with a round trip through a
+ * {@code CBORObject} map (what every registration used to do), and the anonymization applied for
+ * {@code attestation: "none"}.
+ */
+@State(Scope.Thread)
+public class AttestationObjectBenchmark {
+
+    @Param({"ES256", "EdDSA"})
+    public String algorithm;
+
+    private AttestationObject attestationObject;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        WebAuthnAuthenticator authenticator = WebAuthnAuthenticator.builder()
+                .aaguid(Fixtures.randomBytes(random, 16).getBytes())
+                .build();
+        attestationObject = authenticator.makeAttestationObject(Fixtures.randomBytes(random, 32).getBytes(),
+                Fixtures.RP, Fixtures.user(0), false, true, Fixtures.parameters(algorithm),
+                Collections.emptySet(), false, null);
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return attestationObject.encode();
+    }
+
+    @Benchmark
+    public byte[] encodeCBORObject() {
+        return attestationObject.toCBOR().EncodeToBytes();
+    }
+
+    @Benchmark
+    public AttestationObject withoutAttestation() {
+        return attestationObject.withoutAttestation();
+    }
+}
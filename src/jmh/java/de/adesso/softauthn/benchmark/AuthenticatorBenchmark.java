@@ -0,0 +1,80 @@
+package de.adesso.softauthn.benchmark;
+
+import com.upokecenter.cbor.CBORObject;
+import com.yubico.webauthn.data.AuthenticatorAttestationResponse;
+import com.yubico.webauthn.data.COSEAlgorithmIdentifier;
+import com.yubico.webauthn.data.ClientRegistrationExtensionOutputs;
+import com.yubico.webauthn.data.PublicKeyCredential;
+import com.yubico.webauthn.data.PublicKeyCredentialDescriptor;
+import com.yubico.webauthn.data.PublicKeyCredentialParameters;
+import com.yubico.webauthn.data.UserIdentity;
+import de.adesso.softauthn.AuthenticatorAssertionData;
+import de.adesso.softauthn.CredentialsContainer;
+import de.adesso.softauthn.authenticator.WebAuthnAuthenticator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Benchmarks {@link WebAuthnAuthenticator#makeCredential} and {@link WebAuthnAuthenticator#getAssertion} per algorithm,
+ * for resident and non-resident credentials.
+ * <p>Assertions are requested with an allow list, so they measure the credential lookup by ID: a store lookup for
+ * resident credentials, decoding the credential ID for non-resident ones (serialized or wrapped,
+ * see {@code wrapCredentialIds}).
+ * <p>The GC profiler's {@code gc.alloc.rate.norm} is the number of bytes allocated per assertion.
+ */
+@State(Scope.Thread)
+public class AuthenticatorBenchmark {
+
+    @Param({"ES256", "EdDSA"})
+    public String algorithm;
+
+    @Param({"false", "true"})
+    public boolean residentKey;
+
+    @Param({"false", "true"})
+    public boolean wrapCredentialIds;
+
+    private WebAuthnAuthenticator authenticator;
+    private byte[] clientDataHash;
+    private UserIdentity user;
+    private List<PublicKeyCredentialParameters> parameters;
+    private List<PublicKeyCredentialDescriptor> allowList;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        byte[] wrappingKey = new byte[32];
+        random.nextBytes(wrappingKey);
+        authenticator = WebAuthnAuthenticator.builder()
+                .supportAlgorithms(COSEAlgorithmIdentifier.valueOf(algorithm))
+                .credentialWrappingKey(wrapCredentialIds ? wrappingKey : null)
+                .build();
+        clientDataHash = Fixtures.randomBytes(random, 32).getBytes();
+        user = Fixtures.user(0);
+        parameters = Fixtures.parameters(algorithm);
+
+        CredentialsContainer container = new CredentialsContainer(Fixtures.ORIGIN, Collections.singletonList(authenticator));
+        PublicKeyCredential<AuthenticatorAttestationResponse, ClientRegistrationExtensionOutputs> credential = container.create(
+                Fixtures.creationOptions(Fixtures.randomBytes(random, 32), user, algorithm, residentKey));
+        allowList = Fixtures.allowList(credential.getId());
+    }
+
+    @Benchmark
+    public CBORObject makeCredential() {
+        // the same user every time, resident credentials replace each other instead of filling the store
+        return authenticator.makeCredential(clientDataHash, Fixtures.RP, user, residentKey, true,
+                parameters, Collections.emptySet(), false, null);
+    }
+
+    @Benchmark
+    public AuthenticatorAssertionData getAssertion() {
+        return authenticator.getAssertion(Fixtures.RP.getId(), clientDataHash, allowList, true, null);
+    }
+}
@@ -0,0 +1,124 @@
+package de.adesso.softauthn.benchmark;
+
+import com.yubico.webauthn.data.COSEAlgorithmIdentifier;
+import com.yubico.webauthn.data.PublicKeyCredentialDescriptor;
+import de.adesso.softauthn.AttestationObject;
+import de.adesso.softauthn.AuthenticatorAssertionData;
+import de.adesso.softauthn.Authenticators;
+import de.adesso.softauthn.authenticator.GetAssertionRequest;
+import de.adesso.softauthn.authenticator.MakeCredentialRequest;
+import de.adesso.softauthn.authenticator.WebAuthnAuthenticator;
+import de.adesso.softauthn.counter.NoSignatureCounter;
+import de.adesso.softauthn.store.MappedCredentialStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Benchmarks {@link WebAuthnAuthenticator#makeAttestationObjects} and {@link WebAuthnAuthenticator#getAssertions}
+ * against calling the single-request methods in a loop, for credentials of {@code batchSize} users.
+ * Scores are per batch.
+ * <p>{@code lookup} selects how the parallel lookup stage of {@code getAssertions} finds the credentials:
+ * by decoding non-resident credential IDs ({@code decode}), from the credential source cache ({@code cache})
+ * or as resident credentials in a {@link MappedCredentialStore} ({@code mapped}). The latter two show how well
+ * the cache and the store scale when they are used from many threads at once.
+ */
+@State(Scope.Thread)
+public class BatchBenchmark {
+
+    @Param({"ES256", "EdDSA"})
+    public String algorithm;
+
+    @Param({"16", "256"})
+    public int batchSize;
+
+    @Param({"decode", "cache", "mapped"})
+    public String lookup;
+
+    private Path file;
+    private MappedCredentialStore store;
+    private WebAuthnAuthenticator authenticator;
+    private List<MakeCredentialRequest> credentialRequests;
+    private List<GetAssertionRequest> assertionRequests;
+
+    @Setup
+    public void setup() throws IOException {
+        Random random = new Random(42);
+        boolean resident = lookup.equals("mapped");
+        // without signature counters, repeated registrations don't accumulate state
+        if (resident) {
+            file = Files.createTempFile("softauthn-batch", ".bin");
+            Files.delete(file);
+            store = MappedCredentialStore.open(file, batchSize);
+            authenticator = WebAuthnAuthenticator.builder()
+                    .supportAlgorithms(COSEAlgorithmIdentifier.valueOf(algorithm))
+                    .credentialStore(store)
+                    .signatureCounter(new NoSignatureCounter())
+                    .build();
+        } else {
+            authenticator = Authenticators.u2f()
+                    .supportAlgorithms(COSEAlgorithmIdentifier.valueOf(algorithm))
+                    .credentialSourceCacheSize(lookup.equals("cache") ? batchSize : 0)
+                    .build();
+        }
+        credentialRequests = new ArrayList<>(batchSize);
+        for (int i = 0; i < batchSize; i++) {
+            credentialRequests.add(new MakeCredentialRequest(Fixtures.randomBytes(random, 32).getBytes(), Fixtures.RP,
+                    Fixtures.user(i), resident, false, Fixtures.parameters(algorithm), Collections.emptySet()));
+        }
+        List<AttestationObject> attestationObjects = authenticator.makeAttestationObjects(credentialRequests);
+        assertionRequests = new ArrayList<>(batchSize);
+        for (AttestationObject attestationObject : attestationObjects) {
+            List<PublicKeyCredentialDescriptor> allowList = Fixtures.allowList(attestationObject.getCredentialId());
+            assertionRequests.add(new GetAssertionRequest(Fixtures.RP.getId(), Fixtures.randomBytes(random, 32).getBytes(),
+                    allowList, false));
+        }
+    }
+
+    @TearDown
+    public void deleteStore() throws IOException {
+        if (store != null) {
+            store.close();
+            Files.delete(file);
+        }
+    }
+
+    @Benchmark
+    public void makeAttestationObjectLoop(Blackhole blackhole) {
+        for (MakeCredentialRequest request : credentialRequests) {
+            blackhole.consume(authenticator.makeAttestationObject(request.getHash(), request.getRpEntity(),
+                    request.getUserEntity(), request.isRequireResidentKey(), request.isRequireUserVerification(),
+                    request.getCredTypesAndPubKeyAlgs(), request.getExcludeCredentials(), false, null));
+        }
+    }
+
+    @Benchmark
+    public List<AttestationObject> makeAttestationObjects() {
+        return authenticator.makeAttestationObjects(credentialRequests);
+    }
+
+    @Benchmark
+    public void getAssertionLoop(Blackhole blackhole) {
+        for (GetAssertionRequest request : assertionRequests) {
+            blackhole.consume(authenticator.getAssertion(request.getRpId(), request.getHash(),
+                    request.getAllowedCredentialDescriptorList(), request.isRequireUserVerification(), null));
+        }
+    }
+
+    @Benchmark
+    public List<AuthenticatorAssertionData> getAssertions() {
+        return authenticator.getAssertions(assertionRequests);
+    }
+}
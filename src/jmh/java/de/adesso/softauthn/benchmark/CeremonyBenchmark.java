@@ -0,0 +1,156 @@
+package de.adesso.softauthn.benchmark;
+
+import com.yubico.webauthn.AssertionRequest;
+import com.yubico.webauthn.AssertionResult;
+import com.yubico.webauthn.FinishAssertionOptions;
+import com.yubico.webauthn.FinishRegistrationOptions;
+import com.yubico.webauthn.RegisteredCredential;
+import com.yubico.webauthn.RegistrationResult;
+import com.yubico.webauthn.RelyingParty;
+import com.yubico.webauthn.StartAssertionOptions;
+import com.yubico.webauthn.StartRegistrationOptions;
+import com.yubico.webauthn.data.AuthenticatorAssertionResponse;
+import com.yubico.webauthn.data.AuthenticatorAttestationResponse;
+import com.yubico.webauthn.data.AuthenticatorSelectionCriteria;
+import com.yubico.webauthn.data.ClientAssertionExtensionOutputs;
+import com.yubico.webauthn.data.ClientRegistrationExtensionOutputs;
+import com.yubico.webauthn.data.PublicKeyCredential;
+import com.yubico.webauthn.data.PublicKeyCredentialCreationOptions;
+import com.yubico.webauthn.data.ResidentKeyRequirement;
+import com.yubico.webauthn.data.UserIdentity;
+import com.yubico.webauthn.exception.AssertionFailedException;
+import com.yubico.webauthn.exception.RegistrationFailedException;
+import de.adesso.softauthn.Authenticators;
+import de.adesso.softauthn.CredentialsContainer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Collections;
+
+/**
+ * Benchmarks complete registration and authentication ceremonies against an in-process
+ * {@link RelyingParty} of java-webauthn-server, backed by an {@link InMemoryCredentialRepository}.
+ * <p>Every ceremony is measured as a whole and split into its client side (softauthn) and its server side
+ * (verification by the relying party), so the results show which of the two limits a load test:
+ * <ul>
+ *     <li>{@code registration}: {@code startRegistration}, {@link CredentialsContainer#create}, {@code finishRegistration}
+ *     for a new user every time</li>
+ *     <li>{@code registrationClient} / {@code registrationServer}: only {@code create} or {@code finishRegistration}
+ *     with fixed options and response</li>
+ *     <li>{@code authentication}: {@code startAssertion}, {@link CredentialsContainer#get}, {@code finishAssertion}</li>
+ *     <li>{@code authenticationClient} / {@code authenticationServer}: only {@code get} or {@code finishAssertion}
+ *     with a fixed request and response</li>
+ * </ul>
+ */
+@State(Scope.Thread)
+public class CeremonyBenchmark {
+
+    private static final AuthenticatorSelectionCriteria SELECTION = AuthenticatorSelectionCriteria.builder()
+            .residentKey(ResidentKeyRequirement.DISCOURAGED)
+            .build();
+
+    private InMemoryCredentialRepository repository;
+    private RelyingParty relyingParty;
+    private CredentialsContainer container;
+    private int nextUser;
+
+    private PublicKeyCredentialCreationOptions creationOptions;
+    private PublicKeyCredential<AuthenticatorAttestationResponse, ClientRegistrationExtensionOutputs> attestation;
+    private AssertionRequest assertionRequest;
+    private PublicKeyCredential<AuthenticatorAssertionResponse, ClientAssertionExtensionOutputs> assertion;
+
+    @Setup
+    public void setup() throws RegistrationFailedException {
+        repository = new InMemoryCredentialRepository();
+        relyingParty = RelyingParty.builder()
+                .identity(Fixtures.RP)
+                .credentialRepository(repository)
+                .origins(Collections.singleton(Fixtures.ORIGIN.serialized()))
+                .build();
+        container = new CredentialsContainer(Fixtures.ORIGIN, Collections.singletonList(Authenticators.yubikey5Nfc().build()));
+
+        creationOptions = relyingParty.startRegistration(StartRegistrationOptions.builder()
+                .user(nextUser())
+                .authenticatorSelection(SELECTION)
+                .build());
+        attestation = container.create(creationOptions);
+        register(creationOptions, attestation);
+
+        assertionRequest = relyingParty.startAssertion(StartAssertionOptions.builder()
+                .username(creationOptions.getUser().getName())
+                .build());
+        assertion = container.get(assertionRequest.getPublicKeyCredentialRequestOptions());
+    }
+
+    @Benchmark
+    public RegistrationResult registration() throws RegistrationFailedException {
+        PublicKeyCredentialCreationOptions options = relyingParty.startRegistration(StartRegistrationOptions.builder()
+                .user(nextUser())
+                .authenticatorSelection(SELECTION)
+                .build());
+        return register(options, container.create(options));
+    }
+
+    @Benchmark
+    public PublicKeyCredential<AuthenticatorAttestationResponse, ClientRegistrationExtensionOutputs> registrationClient() {
+        return container.create(creationOptions);
+    }
+
+    @Benchmark
+    public RegistrationResult registrationServer() throws RegistrationFailedException {
+        return relyingParty.finishRegistration(FinishRegistrationOptions.builder()
+                .request(creationOptions)
+                .response(attestation)
+                .build());
+    }
+
+    @Benchmark
+    public AssertionResult authentication() throws AssertionFailedException {
+        AssertionRequest request = relyingParty.startAssertion(StartAssertionOptions.builder()
+                .username(creationOptions.getUser().getName())
+                .build());
+        AssertionResult result = relyingParty.finishAssertion(FinishAssertionOptions.builder()
+                .request(request)
+                .response(container.get(request.getPublicKeyCredentialRequestOptions()))
+                .build());
+        repository.updateSignatureCount(result.getCredential().getCredentialId(), result.getSignatureCount());
+        return result;
+    }
+
+    @Benchmark
+    public PublicKeyCredential<AuthenticatorAssertionResponse, ClientAssertionExtensionOutputs> authenticationClient() {
+        return container.get(assertionRequest.getPublicKeyCredentialRequestOptions());
+    }
+
+    @Benchmark
+    public AssertionResult authenticationServer() throws AssertionFailedException {
+        // the stored signature count of this credential is never updated, so the same response can be verified again
+        return relyingParty.finishAssertion(FinishAssertionOptions.builder()
+                .request(assertionRequest)
+                .response(assertion)
+                .build());
+    }
+
+    private UserIdentity nextUser() {
+        return Fixtures.user(nextUser++);
+    }
+
+    private RegistrationResult register(
+            PublicKeyCredentialCreationOptions options,
+            PublicKeyCredential<AuthenticatorAttestationResponse, ClientRegistrationExtensionOutputs> credential
+    ) throws RegistrationFailedException {
+        RegistrationResult result = relyingParty.finishRegistration(FinishRegistrationOptions.builder()
+                .request(options)
+                .response(credential)
+                .build());
+        repository.add(options.getUser().getName(), RegisteredCredential.builder()
+                .credentialId(result.getKeyId().getId())
+                .userHandle(options.getUser().getId())
+                .publicKeyCose(result.getPublicKeyCose())
+                .signatureCount(result.getSignatureCount())
+                .build());
+        return result;
+    }
+}
@@ -0,0 +1,108 @@
+package de.adesso.softauthn.benchmark;
+
+import com.yubico.webauthn.data.ByteArray;
+import de.adesso.softauthn.counter.ConcurrentSignatureCounter;
+import de.adesso.softauthn.counter.SignatureCounter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.infra.ThreadParams;
+
+/**
+ * Benchmarks the {@link ConcurrentSignatureCounter thread-safe counters} when a single counter is shared by
+ * several threads, as it is by a concurrent authenticator.
+ * <p>The {@code increment} methods sweep the number of threads from 1 to 64 in powers of two, so a single run
+ * shows how each counter scales ({@code -PjmhThreads} overrides all of them with one thread count).
+ * Every thread cycles through its own range of credential IDs, so contention is on the counter's internal
+ * structure rather than on individual counts.
+ */
+@State(Scope.Benchmark)
+public class ConcurrentSignatureCounterBenchmark {
+
+    @Param({"atomic-global", "concurrent-per-credential", "synchronized-per-credential"})
+    public String counter;
+
+    @Param({"100000"})
+    public int credentials;
+
+    private SignatureCounter signatureCounter;
+    private ByteArray[] credentialIds;
+
+    @Setup
+    public void setup() {
+        signatureCounter = SignatureCounterBenchmark.create(counter);
+        credentialIds = SignatureCounterBenchmark.credentialIds(credentials);
+        for (ByteArray credentialId : credentialIds) {
+            signatureCounter.initialize(credentialId);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int start;
+        private int length;
+        private int next;
+
+        @Setup
+        public void setup(ConcurrentSignatureCounterBenchmark benchmark, ThreadParams threads) {
+            length = Math.max(1, benchmark.credentials / threads.getThreadCount());
+            start = (threads.getThreadIndex() * length) % benchmark.credentials;
+            length = Math.min(length, benchmark.credentials - start);
+        }
+
+        int next() {
+            int index = start + next;
+            next = next + 1 == length ? 0 : next + 1;
+            return index;
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public int increment01Threads(Cursor cursor) {
+        return increment(cursor);
+    }
+
+    @Benchmark
+    @Threads(2)
+    public int increment02Threads(Cursor cursor) {
+        return increment(cursor);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public int increment04Threads(Cursor cursor) {
+        return increment(cursor);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public int increment08Threads(Cursor cursor) {
+        return increment(cursor);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public int increment16Threads(Cursor cursor) {
+        return increment(cursor);
+    }
+
+    @Benchmark
+    @Threads(32)
+    public int increment32Threads(Cursor cursor) {
+        return increment(cursor);
+    }
+
+    @Benchmark
+    @Threads(64)
+    public int increment64Threads(Cursor cursor) {
+        return increment(cursor);
+    }
+
+    private int increment(Cursor cursor) {
+        return signatureCounter.increment(credentialIds[cursor.next()]);
+    }
+}
@@ -0,0 +1,62 @@
+package de.adesso.softauthn.benchmark;
+
+import com.yubico.webauthn.data.AuthenticatorAttestationResponse;
+import com.yubico.webauthn.data.ByteArray;
+import com.yubico.webauthn.data.ClientRegistrationExtensionOutputs;
+import com.yubico.webauthn.data.PublicKeyCredential;
+import de.adesso.softauthn.CompactPublicKeyCredentialSource;
+import de.adesso.softauthn.CredentialsContainer;
+import de.adesso.softauthn.PublicKeyCredentialSource;
+import de.adesso.softauthn.authenticator.WebAuthnAuthenticator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Collections;
+import java.util.Optional;
+import java.util.Random;
+
+/**
+ * Benchmarks encoding and decoding of {@link PublicKeyCredentialSource}s, which happens for every non-resident
+ * credential that is created or used without a credential wrapping key, and the conversion to the
+ * {@link CompactPublicKeyCredentialSource compact representation}.
+ */
+@State(Scope.Thread)
+public class CredentialSourceBenchmark {
+
+    @Param({"ES256", "EdDSA"})
+    public String algorithm;
+
+    private ByteArray serialized;
+    private PublicKeyCredentialSource source;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        WebAuthnAuthenticator authenticator = WebAuthnAuthenticator.builder().build();
+        CredentialsContainer container = new CredentialsContainer(Fixtures.ORIGIN, Collections.singletonList(authenticator));
+        // without a wrapping key, the ID of a non-resident credential is the serialized source
+        PublicKeyCredential<AuthenticatorAttestationResponse, ClientRegistrationExtensionOutputs> credential = container.create(
+                Fixtures.creationOptions(Fixtures.randomBytes(random, 32), Fixtures.user(0), algorithm, false));
+        serialized = credential.getId();
+        source = PublicKeyCredentialSource.deserialize(serialized)
+                .orElseThrow(() -> new IllegalStateException("credential id is not a serialized source"));
+    }
+
+    @Benchmark
+    public byte[] serialize() {
+        return source.serialize();
+    }
+
+    @Benchmark
+    public Optional<PublicKeyCredentialSource> deserialize() {
+        return PublicKeyCredentialSource.deserialize(serialized);
+    }
+
+    @Benchmark
+    public Optional<CompactPublicKeyCredentialSource> compact() {
+        return CompactPublicKeyCredentialSource.of(source);
+    }
+}
@@ -0,0 +1,170 @@
+package de.adesso.softauthn.benchmark;
+
+import COSE.AlgorithmID;
+import com.yubico.webauthn.data.ByteArray;
+import com.yubico.webauthn.data.PublicKeyCredentialType;
+import de.adesso.softauthn.CompactPublicKeyCredentialSource;
+import de.adesso.softauthn.PublicKeyCredentialSource;
+import de.adesso.softauthn.store.ConcurrentCredentialStore;
+import de.adesso.softauthn.store.CredentialStore;
+import de.adesso.softauthn.store.InMemoryCredentialStore;
+import de.adesso.softauthn.store.MappedCredentialStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * Benchmarks the lookups that authenticators do in their {@link CredentialStore} during every ceremony,
+ * for each store implementation and for a linear scan over a list, which is how resident credentials were looked up
+ * before the stores existed.
+ * <p>The credentials are spread evenly over 100 RP IDs.
+ */
+@State(Scope.Thread)
+public class CredentialStoreBenchmark {
+
+    private static final int RP_COUNT = 100;
+
+    @Param({"linear", "in-memory", "concurrent", "mapped"})
+    public String store;
+
+    @Param({"1000", "100000"})
+    public int credentials;
+
+    private CredentialStore credentialStore;
+    private Path file;
+    private List<PublicKeyCredentialSource> sources;
+    private int next;
+
+    @Setup
+    public void setup() throws IOException {
+        switch (store) {
+            case "linear":
+                credentialStore = new LinearCredentialStore();
+                break;
+            case "in-memory":
+                credentialStore = new InMemoryCredentialStore();
+                break;
+            case "concurrent":
+                credentialStore = new ConcurrentCredentialStore();
+                break;
+            case "mapped":
+                file = Files.createTempFile("softauthn-store", ".bin");
+                Files.delete(file);
+                credentialStore = MappedCredentialStore.open(file, credentials);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown store " + store);
+        }
+        sources = createSources(credentials, new Random(42));
+        for (PublicKeyCredentialSource source : sources) {
+            credentialStore.put(source);
+        }
+        Collections.shuffle(sources, new Random(42));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        if (credentialStore instanceof MappedCredentialStore) {
+            ((MappedCredentialStore) credentialStore).close();
+            Files.delete(file);
+        }
+    }
+
+    @Benchmark
+    public Optional<PublicKeyCredentialSource> findById() {
+        return credentialStore.findById(nextSource().getId());
+    }
+
+    @Benchmark
+    public Set<PublicKeyCredentialSource> findByRpId() {
+        return credentialStore.findByRpId(nextSource().getRpId());
+    }
+
+    @Benchmark
+    public Optional<PublicKeyCredentialSource> put() {
+        // replaces the stored source of the same user, so the size of the store doesn't change
+        return credentialStore.put(nextSource());
+    }
+
+    private PublicKeyCredentialSource nextSource() {
+        PublicKeyCredentialSource source = sources.get(next);
+        next = next + 1 == sources.size() ? 0 : next + 1;
+        return source;
+    }
+
+    static List<PublicKeyCredentialSource> createSources(int count, Random random) {
+        List<PublicKeyCredentialSource> sources = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            // lookups don't use the key, so any 32 bytes will do
+            PublicKeyCredentialSource source = new CompactPublicKeyCredentialSource(
+                    PublicKeyCredentialType.PUBLIC_KEY, AlgorithmID.ECDSA_256, Fixtures.randomBytes(random, 32).getBytes(),
+                    "rp" + (i % RP_COUNT) + ".example.com", Fixtures.userHandle(i));
+            source.setId(Fixtures.randomBytes(random, 32));
+            sources.add(source);
+        }
+        return sources;
+    }
+
+    /**
+     * The baseline: all sources in one list that is scanned for every lookup.
+     */
+    static final class LinearCredentialStore implements CredentialStore {
+
+        private final List<PublicKeyCredentialSource> sources = new ArrayList<>();
+
+        @Override
+        public Optional<PublicKeyCredentialSource> put(PublicKeyCredentialSource source) {
+            Optional<PublicKeyCredentialSource> replaced = find(source.getRpId(), source.getUserHandle());
+            replaced.ifPresent(sources::remove);
+            sources.add(source);
+            return replaced;
+        }
+
+        @Override
+        public Optional<PublicKeyCredentialSource> findById(ByteArray credentialId) {
+            return sources.stream().filter(source -> source.getId().equals(credentialId)).findFirst();
+        }
+
+        @Override
+        public Optional<PublicKeyCredentialSource> find(String rpId, ByteArray userHandle) {
+            return sources.stream()
+                    .filter(source -> source.getRpId().equals(rpId) && Objects.equals(source.getUserHandle(), userHandle))
+                    .findFirst();
+        }
+
+        @Override
+        public Set<PublicKeyCredentialSource> findByRpId(String rpId) {
+            Set<PublicKeyCredentialSource> matching = sources.stream()
+                    .filter(source -> source.getRpId().equals(rpId))
+                    .collect(Collectors.toCollection(LinkedHashSet::new));
+            return Collections.unmodifiableSet(matching);
+        }
+
+        @Override
+        public int size() {
+            return sources.size();
+        }
+
+        @Override
+        public void forEach(Consumer<? super PublicKeyCredentialSource> action) {
+            sources.forEach(action);
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package de.adesso.softauthn.benchmark;
+
+import com.yubico.webauthn.data.AuthenticatorAssertionResponse;
+import com.yubico.webauthn.data.AuthenticatorAttestationResponse;
+import com.yubico.webauthn.data.ByteArray;
+import com.yubico.webauthn.data.ClientAssertionExtensionOutputs;
+import com.yubico.webauthn.data.COSEAlgorithmIdentifier;
+import com.yubico.webauthn.data.ClientRegistrationExtensionOutputs;
+import com.yubico.webauthn.data.PublicKeyCredential;
+import com.yubico.webauthn.data.PublicKeyCredentialCreationOptions;
+import com.yubico.webauthn.data.PublicKeyCredentialRequestOptions;
+import de.adesso.softauthn.Authenticator;
+import de.adesso.softauthn.Authenticators;
+import de.adesso.softauthn.CredentialsContainer;
+import de.adesso.softauthn.authenticator.WebAuthnAuthenticator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Benchmarks complete ceremonies through {@link CredentialsContainer#create} and {@link CredentialsContainer#get},
+ * including client data collection, the authenticator operation and building the response objects.
+ * <p>With more than one {@code authenticators}, the container also holds authenticators that only support another
+ * algorithm, ahead of the one that can fulfil the requests, which measures how requests are routed.
+ */
+@State(Scope.Thread)
+public class CredentialsContainerBenchmark {
+
+    @Param({"ES256", "EdDSA"})
+    public String algorithm;
+
+    @Param({"false", "true"})
+    public boolean residentKey;
+
+    @Param({"1", "8"})
+    public int authenticators;
+
+    private CredentialsContainer container;
+    private PublicKeyCredentialCreationOptions creationOptions;
+    private PublicKeyCredentialRequestOptions requestOptions;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        COSEAlgorithmIdentifier otherAlgorithm = "ES256".equals(algorithm)
+                ? COSEAlgorithmIdentifier.EdDSA
+                : COSEAlgorithmIdentifier.ES256;
+        List<Authenticator> available = new ArrayList<>(authenticators);
+        for (int i = 1; i < authenticators; i++) {
+            available.add(WebAuthnAuthenticator.builder().supportAlgorithms(otherAlgorithm).build());
+        }
+        available.add(Authenticators.yubikey5Nfc().build());
+        container = new CredentialsContainer(Fixtures.ORIGIN, available);
+        ByteArray challenge = Fixtures.randomBytes(random, 32);
+        creationOptions = Fixtures.creationOptions(challenge, Fixtures.user(0), algorithm, residentKey);
+        PublicKeyCredential<AuthenticatorAttestationResponse, ClientRegistrationExtensionOutputs> credential
+                = container.create(creationOptions);
+        requestOptions = Fixtures.requestOptions(challenge, credential.getId());
+    }
+
+    @Benchmark
+    public PublicKeyCredential<AuthenticatorAttestationResponse, ClientRegistrationExtensionOutputs> create() {
+        return container.create(creationOptions);
+    }
+
+    @Benchmark
+    public PublicKeyCredential<AuthenticatorAssertionResponse, ClientAssertionExtensionOutputs> get() {
+        return container.get(requestOptions);
+    }
+}
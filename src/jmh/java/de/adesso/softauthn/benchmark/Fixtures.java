@@ -0,0 +1,86 @@
+package de.adesso.softauthn.benchmark;
+
+import com.yubico.webauthn.data.AuthenticatorSelectionCriteria;
+import com.yubico.webauthn.data.ByteArray;
+import com.yubico.webauthn.data.COSEAlgorithmIdentifier;
+import com.yubico.webauthn.data.PublicKeyCredentialCreationOptions;
+import com.yubico.webauthn.data.PublicKeyCredentialDescriptor;
+import com.yubico.webauthn.data.PublicKeyCredentialParameters;
+import com.yubico.webauthn.data.PublicKeyCredentialRequestOptions;
+import com.yubico.webauthn.data.RelyingPartyIdentity;
+import com.yubico.webauthn.data.ResidentKeyRequirement;
+import com.yubico.webauthn.data.UserIdentity;
+import com.yubico.webauthn.data.UserVerificationRequirement;
+import de.adesso.softauthn.Origin;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Shared request data for the benchmarks.
+ */
+final class Fixtures {
+
+    static final Origin ORIGIN = new Origin("https", "example.com", -1, null);
+    static final RelyingPartyIdentity RP = RelyingPartyIdentity.builder()
+            .id("example.com")
+            .name("Example")
+            .build();
+
+    private Fixtures() {
+    }
+
+    static UserIdentity user(int index) {
+        return UserIdentity.builder()
+                .name("user" + index)
+                .displayName("User " + index)
+                .id(userHandle(index))
+                .build();
+    }
+
+    static ByteArray userHandle(int index) {
+        return new ByteArray(ByteBuffer.allocate(16).putLong(0x736f667461757468L).putLong(index).array());
+    }
+
+    static List<PublicKeyCredentialParameters> parameters(String algorithm) {
+        return Collections.singletonList(PublicKeyCredentialParameters.builder()
+                .alg(COSEAlgorithmIdentifier.valueOf(algorithm))
+                .build());
+    }
+
+    static PublicKeyCredentialCreationOptions creationOptions(
+            ByteArray challenge, UserIdentity user, String algorithm, boolean residentKey
+    ) {
+        return PublicKeyCredentialCreationOptions.builder()
+                .rp(RP)
+                .user(user)
+                .challenge(challenge)
+                .pubKeyCredParams(parameters(algorithm))
+                .authenticatorSelection(AuthenticatorSelectionCriteria.builder()
+                        .residentKey(residentKey ? ResidentKeyRequirement.REQUIRED : ResidentKeyRequirement.DISCOURAGED)
+                        .userVerification(UserVerificationRequirement.PREFERRED)
+                        .build())
+                .build();
+    }
+
+    static PublicKeyCredentialRequestOptions requestOptions(ByteArray challenge, ByteArray credentialId) {
+        return PublicKeyCredentialRequestOptions.builder()
+                .challenge(challenge)
+                .rpId(RP.getId())
+                .allowCredentials(allowList(credentialId))
+                .userVerification(UserVerificationRequirement.PREFERRED)
+                .build();
+    }
+
+    static List<PublicKeyCredentialDescriptor> allowList(ByteArray credentialId) {
+        return Collections.singletonList(PublicKeyCredentialDescriptor.builder().id(credentialId).build());
+    }
+
+    static ByteArray randomBytes(Random random, int length) {
+        byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        return new ByteArray(bytes);
+    }
+}
@@ -0,0 +1,142 @@
+package de.adesso.softauthn.benchmark;
+
+import COSE.AlgorithmID;
+import com.yubico.webauthn.data.AuthenticatorAttestationResponse;
+import com.yubico.webauthn.data.ByteArray;
+import com.yubico.webauthn.data.ClientRegistrationExtensionOutputs;
+import com.yubico.webauthn.data.PublicKeyCredential;
+import de.adesso.softauthn.CompactPublicKeyCredentialSource;
+import de.adesso.softauthn.CredentialsContainer;
+import de.adesso.softauthn.PublicKeyCredentialSource;
+import de.adesso.softauthn.authenticator.WebAuthnAuthenticator;
+import de.adesso.softauthn.counter.SignatureCounter;
+import de.adesso.softauthn.store.CredentialStore;
+import de.adesso.softauthn.store.InMemoryCredentialStore;
+import de.adesso.softauthn.store.MappedCredentialStore;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Random;
+
+/**
+ * Measures the heap that an authenticator retains per resident credential: the credential source,
+ * its entries in the {@link CredentialStore} and its count in the {@link SignatureCounter}.
+ * <p>Every invocation fills a new store and counter and reports the growth of the used heap after a full GC
+ * as the {@code bytesPerCredential} counter. The allocation rate reported by the GC profiler is not useful here,
+ * because it includes all garbage produced while creating the credentials.
+ * <p>The 10 million credential runs need a heap of several gigabytes for the compact representation and
+ * considerably more for the full one, pass it with e.g. {@code -PjmhJvmArgs=-Xmx32g}. Combinations that do not fit
+ * fail with an {@link OutOfMemoryError} without aborting the remaining benchmarks.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+public class FootprintBenchmark {
+
+    @Param({"in-memory", "mapped"})
+    public String store;
+
+    @Param({"full", "compact"})
+    public String representation;
+
+    @Param({"per-credential", "compact-per-credential"})
+    public String counter;
+
+    @Param({"100000", "1000000", "10000000"})
+    public int credentials;
+
+    private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    private ByteArray template;
+    private Path file;
+    private CredentialStore credentialStore;
+    private SignatureCounter signatureCounter;
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Footprint {
+        public long bytesPerCredential;
+    }
+
+    @Setup
+    public void setup() {
+        WebAuthnAuthenticator authenticator = WebAuthnAuthenticator.builder().build();
+        CredentialsContainer container = new CredentialsContainer(Fixtures.ORIGIN, Collections.singletonList(authenticator));
+        PublicKeyCredential<AuthenticatorAttestationResponse, ClientRegistrationExtensionOutputs> credential = container.create(
+                Fixtures.creationOptions(Fixtures.randomBytes(new Random(42), 32), Fixtures.user(0), "ES256", false));
+        // a serialized source, every credential gets its own copy of the decoded key
+        template = credential.getId();
+    }
+
+    @Setup(Level.Invocation)
+    public void createStore(Footprint footprint) throws IOException {
+        footprint.bytesPerCredential = 0;
+        if (store.equals("mapped")) {
+            file = Files.createTempFile("softauthn-footprint", ".bin");
+            Files.delete(file);
+            credentialStore = MappedCredentialStore.open(file, credentials);
+        } else {
+            credentialStore = new InMemoryCredentialStore();
+        }
+        signatureCounter = SignatureCounterBenchmark.create(counter);
+    }
+
+    @TearDown(Level.Invocation)
+    public void deleteStore() throws IOException {
+        if (credentialStore instanceof MappedCredentialStore) {
+            ((MappedCredentialStore) credentialStore).close();
+            Files.delete(file);
+        }
+        credentialStore = null;
+        signatureCounter = null;
+    }
+
+    @Benchmark
+    public CredentialStore populate(Footprint footprint) {
+        long before = usedHeap();
+        Random random = new Random(42);
+        for (int i = 0; i < credentials; i++) {
+            PublicKeyCredentialSource decoded = PublicKeyCredentialSource.deserialize(template)
+                    .orElseThrow(IllegalStateException::new);
+            PublicKeyCredentialSource source;
+            if (representation.equals("compact")) {
+                byte[] privateKey = CompactPublicKeyCredentialSource.of(decoded)
+                        .orElseThrow(IllegalStateException::new)
+                        .getPrivateKeyBytes();
+                source = new CompactPublicKeyCredentialSource(
+                        decoded.getType(), AlgorithmID.ECDSA_256, privateKey, "example.com", Fixtures.userHandle(i));
+            } else {
+                source = new PublicKeyCredentialSource(
+                        decoded.getType(), decoded.getKey(), "example.com", Fixtures.userHandle(i));
+            }
+            source.setId(Fixtures.randomBytes(random, 32));
+            credentialStore.put(source);
+            signatureCounter.initialize(source.getId());
+        }
+        footprint.bytesPerCredential = (usedHeap() - before) / credentials;
+        return credentialStore;
+    }
+
+    private long usedHeap() {
+        for (int i = 0; i < 3; i++) {
+            memory.gc();
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+}
@@ -0,0 +1,77 @@
+package de.adesso.softauthn.benchmark;
+
+import com.yubico.webauthn.CredentialRepository;
+import com.yubico.webauthn.RegisteredCredential;
+import com.yubico.webauthn.data.ByteArray;
+import com.yubico.webauthn.data.PublicKeyCredentialDescriptor;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * A thread-safe {@link CredentialRepository} for the relying party in {@link CeremonyBenchmark}, so that the server side
+ * of a ceremony is not dominated by database access.
+ */
+final class InMemoryCredentialRepository implements CredentialRepository {
+
+    private final Map<String, ByteArray> userHandles = new ConcurrentHashMap<>();
+    private final Map<ByteArray, String> usernames = new ConcurrentHashMap<>();
+    private final Map<ByteArray, RegisteredCredential> credentials = new ConcurrentHashMap<>();
+    private final Map<ByteArray, Set<ByteArray>> credentialIdsByUser = new ConcurrentHashMap<>();
+
+    void add(String username, RegisteredCredential credential) {
+        userHandles.put(username, credential.getUserHandle());
+        usernames.put(credential.getUserHandle(), username);
+        credentials.put(credential.getCredentialId(), credential);
+        credentialIdsByUser.computeIfAbsent(credential.getUserHandle(), userHandle -> ConcurrentHashMap.newKeySet())
+                .add(credential.getCredentialId());
+    }
+
+    void updateSignatureCount(ByteArray credentialId, long signatureCount) {
+        credentials.computeIfPresent(credentialId, (id, credential) -> RegisteredCredential.builder()
+                .credentialId(id)
+                .userHandle(credential.getUserHandle())
+                .publicKeyCose(credential.getPublicKeyCose())
+                .signatureCount(signatureCount)
+                .build());
+    }
+
+    @Override
+    public Set<PublicKeyCredentialDescriptor> getCredentialIdsForUsername(String username) {
+        ByteArray userHandle = userHandles.get(username);
+        if (userHandle == null) {
+            return Collections.emptySet();
+        }
+        return credentialIdsByUser.getOrDefault(userHandle, Collections.emptySet()).stream()
+                .map(id -> PublicKeyCredentialDescriptor.builder().id(id).build())
+                .collect(Collectors.toSet());
+    }
+
+    @Override
+    public Optional<ByteArray> getUserHandleForUsername(String username) {
+        return Optional.ofNullable(userHandles.get(username));
+    }
+
+    @Override
+    public Optional<String> getUsernameForUserHandle(ByteArray userHandle) {
+        return Optional.ofNullable(usernames.get(userHandle));
+    }
+
+    @Override
+    public Optional<RegisteredCredential> lookup(ByteArray credentialId, ByteArray userHandle) {
+        RegisteredCredential credential = credentials.get(credentialId);
+        return credential != null && credential.getUserHandle().equals(userHandle)
+                ? Optional.of(credential)
+                : Optional.empty();
+    }
+
+    @Override
+    public Set<RegisteredCredential> lookupAll(ByteArray credentialId) {
+        RegisteredCredential credential = credentials.get(credentialId);
+        return credential == null ? Collections.emptySet() : Collections.singleton(credential);
+    }
+}
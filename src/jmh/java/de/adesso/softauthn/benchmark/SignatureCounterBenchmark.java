@@ -0,0 +1,86 @@
+package de.adesso.softauthn.benchmark;
+
+import com.yubico.webauthn.data.ByteArray;
+import de.adesso.softauthn.counter.AtomicGlobalSignatureCounter;
+import de.adesso.softauthn.counter.CompactPerCredentialSignatureCounter;
+import de.adesso.softauthn.counter.ConcurrentPerCredentialSignatureCounter;
+import de.adesso.softauthn.counter.GlobalSignatureCounter;
+import de.adesso.softauthn.counter.NoSignatureCounter;
+import de.adesso.softauthn.counter.PerCredentialSignatureCounter;
+import de.adesso.softauthn.counter.SignatureCounter;
+import de.adesso.softauthn.counter.SynchronizedSignatureCounter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+
+/**
+ * Benchmarks {@link SignatureCounter#increment(ByteArray)} of every counter implementation on a single thread,
+ * cycling through a fixed set of credential IDs.
+ *
+ * @see ConcurrentSignatureCounterBenchmark
+ */
+@State(Scope.Thread)
+public class SignatureCounterBenchmark {
+
+    @Param({"none", "global", "atomic-global", "per-credential", "concurrent-per-credential",
+            "compact-per-credential", "synchronized-per-credential"})
+    public String counter;
+
+    @Param({"1000", "1000000"})
+    public int credentials;
+
+    private SignatureCounter signatureCounter;
+    private ByteArray[] credentialIds;
+    private int next;
+
+    @Setup
+    public void setup() {
+        signatureCounter = create(counter);
+        credentialIds = credentialIds(credentials);
+        for (ByteArray credentialId : credentialIds) {
+            signatureCounter.initialize(credentialId);
+        }
+    }
+
+    @Benchmark
+    public int increment() {
+        ByteArray credentialId = credentialIds[next];
+        next = next + 1 == credentialIds.length ? 0 : next + 1;
+        return signatureCounter.increment(credentialId);
+    }
+
+    static SignatureCounter create(String counter) {
+        switch (counter) {
+            case "none":
+                return new NoSignatureCounter();
+            case "global":
+                return new GlobalSignatureCounter();
+            case "atomic-global":
+                return new AtomicGlobalSignatureCounter();
+            case "per-credential":
+                return new PerCredentialSignatureCounter();
+            case "concurrent-per-credential":
+                return new ConcurrentPerCredentialSignatureCounter();
+            case "compact-per-credential":
+                return new CompactPerCredentialSignatureCounter();
+            case "synchronized-per-credential":
+                return new SynchronizedSignatureCounter(new PerCredentialSignatureCounter());
+            default:
+                throw new IllegalArgumentException("Unknown counter " + counter);
+        }
+    }
+
+    static ByteArray[] credentialIds(int count) {
+        Random random = new Random(42);
+        ByteArray[] credentialIds = new ByteArray[count];
+        for (int i = 0; i < count; i++) {
+            // the size of resident credential IDs
+            credentialIds[i] = Fixtures.randomBytes(random, 32);
+        }
+        return credentialIds;
+    }
+}
@@ -0,0 +1,255 @@
+package de.adesso.softauthn;
+
+import com.upokecenter.cbor.CBORObject;
+import com.yubico.webauthn.data.ByteArray;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * An <a href="https://www.w3.org/TR/2021/REC-webauthn-2-20210408/#attestation-object">attestation object</a>
+ * created by an authenticator, see {@link Authenticator#makeAttestationObject}.
+ * <p>Unlike a {@link CBORObject} map, this class keeps the authenticator data as raw bytes, locates the
+ * attested credential data in it only once, and encodes itself straight to CBOR bytes.
+ * The encoding uses the CTAP2 canonical order of the members ({@code fmt}, {@code attStmt}, {@code authData}).
+ * <p>Instances are immutable.
+ */
+public final class AttestationObject {
+
+    private static final int AAGUID_OFFSET = 32 + 1 + 4;
+    private static final int AAGUID_LENGTH = 16;
+    private static final int CREDENTIAL_ID_OFFSET = AAGUID_OFFSET + AAGUID_LENGTH + 2;
+    private static final int ATTESTED_CREDENTIAL_DATA_FLAG = 0x40;
+
+    private static final String NONE = "none";
+
+    // CBOR map header and text string keys
+    private static final int MAP_OF_THREE = 0xA3;
+    private static final byte[] FMT = cborText("fmt");
+    private static final byte[] ATT_STMT = cborText("attStmt");
+    private static final byte[] AUTH_DATA = cborText("authData");
+    private static final byte[] FMT_NONE = cborText(NONE);
+    private static final byte[] EMPTY_MAP = {(byte) 0xA0};
+
+    private final String format;
+    // null for the empty map, which is used by most formats
+    private final CBORObject attestationStatement;
+    private final byte[] authenticatorData;
+    private final int credentialIdLength;
+
+    /**
+     * Creates an attestation object.
+     *
+     * @param format The <a href="https://www.w3.org/TR/2021/REC-webauthn-2-20210408/#attestation-statement-format-identifier">attestation statement format identifier</a>.
+     * @param attestationStatement The attestation statement, a CBOR map, or {@code null} for an empty map.
+     * @param authenticatorData The <a href="https://www.w3.org/TR/2021/REC-webauthn-2-20210408/#authenticator-data">authenticator data</a>.
+     *                          It is not copied and must not be modified afterwards.
+     * @throws IllegalArgumentException If the authenticator data is too short.
+     */
+    public AttestationObject(String format, CBORObject attestationStatement, byte[] authenticatorData) {
+        this.format = Objects.requireNonNull(format);
+        this.attestationStatement = attestationStatement == null || attestationStatement.size() == 0
+                ? null : attestationStatement;
+        this.authenticatorData = Objects.requireNonNull(authenticatorData);
+        if (authenticatorData.length < AAGUID_OFFSET) {
+            throw new IllegalArgumentException("authenticator data is too short");
+        }
+        if ((authenticatorData[32] & ATTESTED_CREDENTIAL_DATA_FLAG) != 0) {
+            if (authenticatorData.length < CREDENTIAL_ID_OFFSET) {
+                throw new IllegalArgumentException("attested credential data is too short");
+            }
+            this.credentialIdLength = ((authenticatorData[CREDENTIAL_ID_OFFSET - 2] & 0xFF) << 8)
+                    | (authenticatorData[CREDENTIAL_ID_OFFSET - 1] & 0xFF);
+            if (authenticatorData.length < CREDENTIAL_ID_OFFSET + credentialIdLength) {
+                throw new IllegalArgumentException("attested credential data is too short");
+            }
+        } else {
+            this.credentialIdLength = -1;
+        }
+    }
+
+    /**
+     * Converts an attestation object in its CBOR map form, as returned by {@link Authenticator#makeCredential}.
+     *
+     * @param attestationObject The attestation object.
+     * @return the converted attestation object.
+     * @throws IllegalArgumentException If the map does not contain a format and authenticator data.
+     */
+    public static AttestationObject fromCBOR(CBORObject attestationObject) {
+        CBORObject format = attestationObject.get("fmt");
+        CBORObject authenticatorData = attestationObject.get("authData");
+        if (format == null || authenticatorData == null) {
+            throw new IllegalArgumentException("Not an attestation object");
+        }
+        return new AttestationObject(format.AsString(), attestationObject.get("attStmt"), authenticatorData.GetByteString());
+    }
+
+    /**
+     * Returns the attestation statement format identifier.
+     *
+     * @return the format.
+     */
+    public String getFormat() {
+        return format;
+    }
+
+    /**
+     * Returns the attestation statement.
+     *
+     * @return a CBOR map with the attestation statement, which may be empty.
+     */
+    public CBORObject getAttestationStatement() {
+        return attestationStatement == null ? CBORObject.NewMap() : attestationStatement;
+    }
+
+    /**
+     * Returns the authenticator data.
+     *
+     * @return a copy of the authenticator data.
+     */
+    public byte[] getAuthenticatorData() {
+        return authenticatorData.clone();
+    }
+
+    /**
+     * Returns the AAGUID from the attested credential data.
+     *
+     * @return a copy of the AAGUID.
+     * @throws IllegalStateException If the authenticator data does not contain attested credential data.
+     */
+    public byte[] getAaguid() {
+        requireAttestedCredentialData();
+        return Arrays.copyOfRange(authenticatorData, AAGUID_OFFSET, AAGUID_OFFSET + AAGUID_LENGTH);
+    }
+
+    /**
+     * Returns the credential ID from the attested credential data.
+     *
+     * @return the credential ID.
+     * @throws IllegalStateException If the authenticator data does not contain attested credential data.
+     */
+    public ByteArray getCredentialId() {
+        requireAttestedCredentialData();
+        return new ByteArray(Arrays.copyOfRange(authenticatorData, CREDENTIAL_ID_OFFSET, CREDENTIAL_ID_OFFSET + credentialIdLength));
+    }
+
+    /**
+     * Returns whether this attestation object may identify the authenticator, i.e. whether it is not
+     * a {@code none} attestation with an all-zero AAGUID.
+     * <p>Self attestation ({@code packed} without a certificate chain) with an all-zero AAGUID is not considered
+     * identifying either.
+     *
+     * @return whether the attestation is identifying.
+     */
+    public boolean isIdentifying() {
+        if (credentialIdLength >= 0) {
+            for (int i = AAGUID_OFFSET; i < AAGUID_OFFSET + AAGUID_LENGTH; i++) {
+                if (authenticatorData[i] != 0) {
+                    return true;
+                }
+            }
+        }
+        if (format.equals(NONE)) {
+            return attestationStatement != null;
+        }
+        return !format.equals("packed") || (attestationStatement != null && attestationStatement.get("x5c") != null);
+    }
+
+    /**
+     * Returns an attestation object without any identifying information: a {@code none} attestation with an empty
+     * attestation statement and an all-zero AAGUID, as required if the Relying Party requested
+     * {@link com.yubico.webauthn.data.AttestationConveyancePreference#NONE no attestation}.
+     *
+     * @return the anonymized attestation object, or this object if it is already anonymous.
+     */
+    public AttestationObject withoutAttestation() {
+        if (format.equals(NONE) && !isIdentifying()) {
+            return this;
+        }
+        byte[] anonymized = authenticatorData;
+        if (credentialIdLength >= 0) {
+            anonymized = authenticatorData.clone();
+            Arrays.fill(anonymized, AAGUID_OFFSET, AAGUID_OFFSET + AAGUID_LENGTH, (byte) 0);
+        }
+        return new AttestationObject(NONE, null, anonymized);
+    }
+
+    /**
+     * Encodes this attestation object as a CBOR map.
+     *
+     * @return the encoded attestation object.
+     */
+    public byte[] encode() {
+        byte[] format = this.format.equals(NONE) ? FMT_NONE : cborText(this.format);
+        byte[] attestationStatement = this.attestationStatement == null ? EMPTY_MAP : this.attestationStatement.EncodeToBytes();
+        int authenticatorDataHeaderLength = headerLength(authenticatorData.length);
+        byte[] encoded = new byte[1 + FMT.length + format.length + ATT_STMT.length + attestationStatement.length
+                + AUTH_DATA.length + authenticatorDataHeaderLength + authenticatorData.length];
+        encoded[0] = (byte) MAP_OF_THREE;
+        int position = put(encoded, 1, FMT);
+        position = put(encoded, position, format);
+        position = put(encoded, position, ATT_STMT);
+        position = put(encoded, position, attestationStatement);
+        position = put(encoded, position, AUTH_DATA);
+        position = putHeader(encoded, position, 2, authenticatorData.length);
+        put(encoded, position, authenticatorData);
+        return encoded;
+    }
+
+    /**
+     * Converts this attestation object to its CBOR map form.
+     *
+     * @return a new CBOR map.
+     */
+    public CBORObject toCBOR() {
+        return CBORObject.NewMap()
+                .Add("fmt", format)
+                .Add("attStmt", getAttestationStatement())
+                .Add("authData", authenticatorData.clone());
+    }
+
+    private void requireAttestedCredentialData() {
+        if (credentialIdLength < 0) {
+            throw new IllegalStateException("Authenticator data does not contain attested credential data");
+        }
+    }
+
+    private static int put(byte[] target, int position, byte[] bytes) {
+        System.arraycopy(bytes, 0, target, position, bytes.length);
+        return position + bytes.length;
+    }
+
+    private static int headerLength(int length) {
+        return length < 24 ? 1 : length < 0x100 ? 2 : length < 0x10000 ? 3 : 5;
+    }
+
+    // writes the initial byte(s) of a CBOR data item with the given major type and length
+    private static int putHeader(byte[] target, int position, int majorType, int length) {
+        int type = majorType << 5;
+        if (length < 24) {
+            target[position++] = (byte) (type | length);
+        } else if (length < 0x100) {
+            target[position++] = (byte) (type | 24);
+            target[position++] = (byte) length;
+        } else if (length < 0x10000) {
+            target[position++] = (byte) (type | 25);
+            target[position++] = (byte) (length >> 8);
+            target[position++] = (byte) length;
+        } else {
+            target[position++] = (byte) (type | 26);
+            target[position++] = (byte) (length >> 24);
+            target[position++] = (byte) (length >> 16);
+            target[position++] = (byte) (length >> 8);
+            target[position++] = (byte) length;
+        }
+        return position;
+    }
+
+    private static byte[] cborText(String text) {
+        byte[] utf8 = text.getBytes(StandardCharsets.UTF_8);
+        byte[] encoded = new byte[headerLength(utf8.length) + utf8.length];
+        put(encoded, putHeader(encoded, 0, 3, utf8.length), utf8);
+        return encoded;
+    }
+}
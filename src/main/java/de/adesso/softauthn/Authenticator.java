@@ -2,12 +2,15 @@ package de.adesso.softauthn;
 
 import com.upokecenter.cbor.CBORObject;
 import com.yubico.webauthn.data.AuthenticatorAttachment;
+import com.yubico.webauthn.data.ByteArray;
+import com.yubico.webauthn.data.COSEAlgorithmIdentifier;
 import com.yubico.webauthn.data.PublicKeyCredentialDescriptor;
 import com.yubico.webauthn.data.PublicKeyCredentialParameters;
 import com.yubico.webauthn.data.RelyingPartyIdentity;
 import com.yubico.webauthn.data.UserIdentity;
 import de.adesso.softauthn.authenticator.WebAuthnAuthenticator;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Set;
@@ -64,6 +67,35 @@ public interface Authenticator {
             Set<PublicKeyCredentialDescriptor> excludeCredentials, boolean enterpriseAttestationPossible, byte[] extensions
     ) throws IllegalArgumentException, UnsupportedOperationException, IllegalStateException;
 
+    /**
+     * Does the same as {@link #makeCredential}, but returns the attestation object as an {@link AttestationObject},
+     * which can be encoded without building a CBOR object tree. This is the method that {@link CredentialsContainer} calls.
+     *
+     * @implSpec The default implementation converts the result of {@link #makeCredential}.
+     * Implementations can override this method to create the attestation object directly.
+     * @param hash See {@link #makeCredential}.
+     * @param rpEntity See {@link #makeCredential}.
+     * @param userEntity See {@link #makeCredential}.
+     * @param requireResidentKey See {@link #makeCredential}.
+     * @param requireUserVerification See {@link #makeCredential}.
+     * @param credTypesAndPubKeyAlgs See {@link #makeCredential}.
+     * @param excludeCredentials See {@link #makeCredential}.
+     * @param enterpriseAttestationPossible See {@link #makeCredential}.
+     * @param extensions See {@link #makeCredential}.
+     * @return The attestation object created by the authenticator for the request.
+     * @throws IllegalArgumentException If the parameters are malformed in any way.
+     * @throws UnsupportedOperationException If some requirement was requested that this authenticator does not support.
+     * @throws IllegalStateException If the current state of this authenticator prevents it from fulfilling the request.
+     */
+    default AttestationObject makeAttestationObject(
+            byte[] hash, RelyingPartyIdentity rpEntity, UserIdentity userEntity, boolean requireResidentKey,
+            boolean requireUserVerification, List<PublicKeyCredentialParameters> credTypesAndPubKeyAlgs,
+            Set<PublicKeyCredentialDescriptor> excludeCredentials, boolean enterpriseAttestationPossible, byte[] extensions
+    ) throws IllegalArgumentException, UnsupportedOperationException, IllegalStateException {
+        return AttestationObject.fromCBOR(makeCredential(hash, rpEntity, userEntity, requireResidentKey,
+                requireUserVerification, credTypesAndPubKeyAlgs, excludeCredentials, enterpriseAttestationPossible, extensions));
+    }
+
     /**
      * Method that will be called by a client platform to create an assertion for an existing credential.
      *
@@ -86,6 +118,21 @@ public interface Authenticator {
             boolean requireUserVerification, byte[] extensions
     ) throws IllegalArgumentException, NoSuchElementException;
 
+    /**
+     * Returns whether this authenticator can create an assertion with the given credential for the given RP.
+     * Clients use this to skip authenticators that don't have any of the credentials allowed by the Relying Party,
+     * instead of asking them for an assertion that fails.
+     *
+     * @implSpec The default implementation returns {@code true}, which means that the authenticator does not know
+     * and is asked for an assertion regardless.
+     * @param rpId The <a href="https://www.w3.org/TR/2021/REC-webauthn-2-20210408/#rp-id">RP ID</a> of the request.
+     * @param credentialId The ID of a credential that the Relying Party allows.
+     * @return {@code false} if this authenticator certainly cannot use the credential for the RP.
+     */
+    default boolean hasCredential(String rpId, ByteArray credentialId) {
+        return true;
+    }
+
     /**
      * Returns this authenticator's <a href="https://www.w3.org/TR/2021/REC-webauthn-2-20210408/#sctn-authenticator-attachment-modality">attachment</a>.
      *
@@ -109,4 +156,16 @@ public interface Authenticator {
      * @see <a href="https://www.w3.org/TR/2021/REC-webauthn-2-20210408/#sctn-authentication-factor-capability">Authentication Factor Capability</a>
      */
     boolean supportsUserVerification();
+
+    /**
+     * Returns the algorithms this authenticator can create credentials for. Clients can use this to skip
+     * authenticators that cannot fulfil a request instead of asking them.
+     *
+     * @implSpec The default implementation returns an empty set, which means the supported algorithms are unknown
+     * and the authenticator is asked regardless of the algorithms requested.
+     * @return The supported algorithms, or an empty set if they are unknown.
+     */
+    default Set<COSEAlgorithmIdentifier> getSupportedAlgorithms() {
+        return Collections.emptySet();
+    }
 }
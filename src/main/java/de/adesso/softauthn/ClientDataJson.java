@@ -0,0 +1,192 @@
+package de.adesso.softauthn;
+
+import de.adesso.softauthn.internal.InstancePool;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * A writer for <a href="https://www.w3.org/TR/2021/REC-webauthn-2-20210408/#dictionary-client-data">client data</a>
+ * JSON, which writes the members straight into a reusable buffer instead of building and serializing a JSON tree.
+ * <p>The output is byte-for-byte the same as that of Jackson's default serialization of an object node with the same
+ * members: strings are UTF-8 encoded, {@code "} and {@code \} are escaped, as well as control characters, which use
+ * the short escapes {@code \b \t \n \f \r} where possible and <code>&#92;u00XX</code> (upper case hex) otherwise.
+ * Characters outside the Basic Multilingual Plane are written as escaped surrogate pairs.
+ * <p>Instances are not thread-safe, use {@link #acquire()} to obtain one for the current thread and
+ * {@link #release(ClientDataJson)} to hand it back.
+ */
+final class ClientDataJson {
+
+    private static final byte[] TYPE = ascii("{\"type\":\"");
+    private static final byte[] CHALLENGE = ascii("\",\"challenge\":\"");
+    private static final byte[] CHALLENGE_END = ascii("\",");
+    private static final byte[] CROSS_ORIGIN_TRUE = ascii(",\"crossOrigin\":true}");
+    private static final byte[] CROSS_ORIGIN_FALSE = ascii(",\"crossOrigin\":false}");
+    private static final byte[] QUOTE = ascii("\"");
+    private static final byte[] NAME_END = ascii("\":\"");
+    private static final byte[] HEX = ascii("0123456789ABCDEF");
+
+    private static final InstancePool<ClientDataJson> WRITERS = InstancePool.withInitial(ClientDataJson::new);
+
+    // created on the first hash, writers that only encode members never need one
+    private MessageDigest sha256;
+    private byte[] buffer = new byte[256];
+    private int length;
+
+    private ClientDataJson() {
+    }
+
+    /**
+     * Returns a writer that the current thread can use until it {@link #release releases} it.
+     */
+    static ClientDataJson acquire() {
+        return WRITERS.acquire();
+    }
+
+    /**
+     * Hands back a writer obtained from {@link #acquire()}.
+     */
+    static void release(ClientDataJson writer) {
+        WRITERS.release(writer);
+    }
+
+    /**
+     * Encodes a single string member, e.g. {@code "origin":"https://example.com"}, so that it can be
+     * {@link #write written} without escaping its value again.
+     */
+    static byte[] member(String name, String value) {
+        ClientDataJson json = new ClientDataJson();
+        json.append(QUOTE);
+        json.appendEscaped(name);
+        json.append(NAME_END);
+        json.appendEscaped(value);
+        json.append(QUOTE);
+        return json.toByteArray();
+    }
+
+    /**
+     * Replaces the content of the buffer with the client data JSON for the given values.
+     *
+     * @param originMember The encoded origin member, see {@link #member(String, String)}.
+     * @return this.
+     */
+    ClientDataJson write(String type, String challenge, byte[] originMember, boolean crossOrigin) {
+        length = 0;
+        append(TYPE);
+        appendEscaped(type);
+        append(CHALLENGE);
+        appendEscaped(challenge);
+        append(CHALLENGE_END);
+        append(originMember);
+        append(crossOrigin ? CROSS_ORIGIN_TRUE : CROSS_ORIGIN_FALSE);
+        return this;
+    }
+
+    /**
+     * Returns a copy of the JSON that was written last.
+     */
+    byte[] toByteArray() {
+        return Arrays.copyOf(buffer, length);
+    }
+
+    /**
+     * Returns the SHA-256 hash of the JSON that was written last, computed directly from the buffer.
+     */
+    byte[] hash() {
+        if (sha256 == null) {
+            try {
+                sha256 = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new RuntimeException("Required algorithm unavailable", e);
+            }
+        }
+        sha256.update(buffer, 0, length);
+        return sha256.digest();
+    }
+
+    private void append(byte[] bytes) {
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buffer, length, bytes.length);
+        length += bytes.length;
+    }
+
+    private void appendEscaped(String value) {
+        // worst case: 6 bytes per char for escaped control characters and surrogates
+        ensureCapacity(value.length() * 6);
+        byte[] buffer = this.buffer;
+        int length = this.length;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                if (c >= 0x20 && c != '"' && c != '\\') {
+                    buffer[length++] = (byte) c;
+                } else {
+                    length = appendEscape(buffer, length, c);
+                }
+            } else if (c < 0x800) {
+                buffer[length++] = (byte) (0xC0 | (c >> 6));
+                buffer[length++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                // like Jackson's UTF-8 generator, surrogates are escaped individually instead of encoding the code point
+                length = appendUnicodeEscape(buffer, length, c);
+            } else {
+                buffer[length++] = (byte) (0xE0 | (c >> 12));
+                buffer[length++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buffer[length++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        this.length = length;
+    }
+
+    private static int appendEscape(byte[] buffer, int length, char c) {
+        byte escape;
+        switch (c) {
+            case '"':
+            case '\\':
+                escape = (byte) c;
+                break;
+            case '\b':
+                escape = 'b';
+                break;
+            case '\t':
+                escape = 't';
+                break;
+            case '\n':
+                escape = 'n';
+                break;
+            case '\f':
+                escape = 'f';
+                break;
+            case '\r':
+                escape = 'r';
+                break;
+            default:
+                return appendUnicodeEscape(buffer, length, c);
+        }
+        buffer[length++] = '\\';
+        buffer[length++] = escape;
+        return length;
+    }
+
+    private static int appendUnicodeEscape(byte[] buffer, int length, char c) {
+        buffer[length++] = '\\';
+        buffer[length++] = 'u';
+        buffer[length++] = HEX[c >> 12];
+        buffer[length++] = HEX[(c >> 8) & 0xF];
+        buffer[length++] = HEX[(c >> 4) & 0xF];
+        buffer[length++] = HEX[c & 0xF];
+        return length;
+    }
+
+    private void ensureCapacity(int additional) {
+        if (length + additional > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + additional));
+        }
+    }
+
+    private static byte[] ascii(String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+}
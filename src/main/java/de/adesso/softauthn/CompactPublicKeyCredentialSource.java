@@ -0,0 +1,195 @@
+package de.adesso.softauthn;
+
+import COSE.AlgorithmID;
+import COSE.CoseException;
+import COSE.KeyKeys;
+import COSE.OneKey;
+import com.upokecenter.cbor.CBORObject;
+import com.yubico.webauthn.data.ByteArray;
+import com.yubico.webauthn.data.PublicKeyCredentialType;
+import de.adesso.softauthn.internal.InstancePool;
+import net.i2p.crypto.eddsa.EdDSAPrivateKey;
+import net.i2p.crypto.eddsa.spec.EdDSANamedCurveTable;
+import net.i2p.crypto.eddsa.spec.EdDSAPrivateKeySpec;
+
+import java.math.BigInteger;
+import java.security.AlgorithmParameters;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.ECParameterSpec;
+import java.security.spec.ECPrivateKeySpec;
+import java.util.Optional;
+
+/**
+ * A {@link PublicKeyCredentialSource} with a compact in-memory representation, meant for authenticators that
+ * hold a very large number of credentials.
+ * <p>Instead of a COSE {@link OneKey}, which is a tree of CBOR objects, this class only keeps the raw private key
+ * (the EC private scalar or the EdDSA seed) together with its algorithm, and the user handle as a plain byte array.
+ * The RP ID is kept as given, so callers that create many credentials should pass the same string instance for all
+ * credentials of a relying party.
+ * The {@link #getKey() COSE key} and the {@link #getPrivateKey() JCA key} are created on demand and are not retained.
+ * <p>Only ES256 and EdDSA (Ed25519) keys are supported.
+ */
+public final class CompactPublicKeyCredentialSource extends PublicKeyCredentialSource {
+
+  private static final int PRIVATE_KEY_LENGTH = 32;
+
+  private static final ECParameterSpec P256;
+  private static final InstancePool<KeyFactory> EC_KEY_FACTORY = InstancePool.withInitial(() -> {
+    try {
+      return KeyFactory.getInstance("EC");
+    } catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException("EC keys are not supported", e);
+    }
+  });
+
+  static {
+    try {
+      AlgorithmParameters parameters = AlgorithmParameters.getInstance("EC");
+      parameters.init(new ECGenParameterSpec("secp256r1"));
+      P256 = parameters.getParameterSpec(ECParameterSpec.class);
+    } catch (GeneralSecurityException e) {
+      throw new ExceptionInInitializerError(e);
+    }
+  }
+
+  private final AlgorithmID algorithm;
+  private final byte[] privateKey;
+  private final byte[] userHandle;
+
+  /**
+   * Creates a compact credential source from raw key material.
+   * <p>Note that the credential id must be {@link #setId(ByteArray) set} after creation.
+   *
+   * @param type Type of credential.
+   * @param algorithm The algorithm of the key, either {@link AlgorithmID#ECDSA_256} or {@link AlgorithmID#EDDSA}.
+   * @param privateKey The 32 byte private key: the big-endian private scalar for ES256 or the seed for EdDSA.
+   * @param rpId The <a href="https://www.w3.org/TR/2021/REC-webauthn-2-20210408/#relying-party-identifier">relying party identifier</a>
+   * @param userHandle The user handle of the user this credential belongs to.
+   */
+  public CompactPublicKeyCredentialSource(
+          PublicKeyCredentialType type, AlgorithmID algorithm, byte[] privateKey, String rpId, ByteArray userHandle
+  ) {
+    super(type, null, rpId, null);
+    if (algorithm != AlgorithmID.ECDSA_256 && algorithm != AlgorithmID.EDDSA) {
+      throw new IllegalArgumentException("Unsupported algorithm " + algorithm);
+    }
+    if (privateKey.length != PRIVATE_KEY_LENGTH) {
+      throw new IllegalArgumentException("private key must be " + PRIVATE_KEY_LENGTH + " bytes");
+    }
+    this.algorithm = algorithm;
+    this.privateKey = privateKey.clone();
+    this.userHandle = userHandle == null ? null : userHandle.getBytes();
+  }
+
+  /**
+   * Converts the given credential source to its compact representation.
+   * The credential id is carried over.
+   *
+   * @param source The credential source.
+   * @return An optional containing the compact credential source, or the empty optional if the key of the given
+   * source is not supported by this representation.
+   */
+  public static Optional<CompactPublicKeyCredentialSource> of(PublicKeyCredentialSource source) {
+    if (source instanceof CompactPublicKeyCredentialSource) {
+      return Optional.of((CompactPublicKeyCredentialSource) source);
+    }
+    OneKey key = source.getKey();
+    AlgorithmID algorithm;
+    try {
+      algorithm = source.getAlgorithm();
+    } catch (CoseException e) {
+      return Optional.empty();
+    }
+    CBORObject d;
+    if (algorithm == AlgorithmID.ECDSA_256) {
+      d = key.get(KeyKeys.EC2_D);
+    } else if (algorithm == AlgorithmID.EDDSA) {
+      d = key.get(KeyKeys.OKP_D);
+    } else {
+      return Optional.empty();
+    }
+    if (d == null) {
+      return Optional.empty();
+    }
+    byte[] encoded = d.GetByteString();
+    if (encoded.length > PRIVATE_KEY_LENGTH) {
+      return Optional.empty();
+    }
+    // EC scalars may be encoded without leading zeroes
+    byte[] privateKey = new byte[PRIVATE_KEY_LENGTH];
+    System.arraycopy(encoded, 0, privateKey, PRIVATE_KEY_LENGTH - encoded.length, encoded.length);
+    CompactPublicKeyCredentialSource compact = new CompactPublicKeyCredentialSource(
+            source.getType(), algorithm, privateKey, source.getRpId(), source.getUserHandle());
+    compact.setId(source.getId());
+    return Optional.of(compact);
+  }
+
+  /**
+   * Returns the raw private key.
+   *
+   * @return a copy of the 32 byte private scalar (ES256) or seed (EdDSA).
+   */
+  public byte[] getPrivateKeyBytes() {
+    return privateKey.clone();
+  }
+
+  @Override
+  public AlgorithmID getAlgorithm() {
+    return algorithm;
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p>The returned key only contains the private part and is created anew for every call.
+   */
+  @Override
+  public OneKey getKey() {
+    CBORObject keyMap = CBORObject.NewMap();
+    if (algorithm == AlgorithmID.ECDSA_256) {
+      keyMap.Add(KeyKeys.KeyType.AsCBOR(), KeyKeys.KeyType_EC2)
+              .Add(KeyKeys.Algorithm.AsCBOR(), algorithm.AsCBOR())
+              .Add(KeyKeys.EC2_Curve.AsCBOR(), KeyKeys.EC2_P256)
+              .Add(KeyKeys.EC2_D.AsCBOR(), CBORObject.FromObject(privateKey));
+    } else {
+      keyMap.Add(KeyKeys.KeyType.AsCBOR(), KeyKeys.KeyType_OKP)
+              .Add(KeyKeys.Algorithm.AsCBOR(), algorithm.AsCBOR())
+              .Add(KeyKeys.OKP_Curve.AsCBOR(), KeyKeys.OKP_Ed25519)
+              .Add(KeyKeys.OKP_D.AsCBOR(), CBORObject.FromObject(privateKey));
+    }
+    try {
+      return new OneKey(keyMap);
+    } catch (CoseException e) {
+      throw new IllegalStateException("Cannot create COSE key", e);
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p>The key is created directly from the raw key material for every call.
+   */
+  @Override
+  public PrivateKey getPrivateKey() throws CoseException {
+    try {
+      if (algorithm == AlgorithmID.ECDSA_256) {
+        KeyFactory keyFactory = EC_KEY_FACTORY.acquire();
+        try {
+          return keyFactory.generatePrivate(new ECPrivateKeySpec(new BigInteger(1, privateKey), P256));
+        } finally {
+          EC_KEY_FACTORY.release(keyFactory);
+        }
+      }
+      return new EdDSAPrivateKey(new EdDSAPrivateKeySpec(privateKey, EdDSANamedCurveTable.getByName("Ed25519")));
+    } catch (GeneralSecurityException e) {
+      throw new CoseException("Cannot create private key: " + e.getMessage());
+    }
+  }
+
+  @Override
+  public ByteArray getUserHandle() {
+    return userHandle == null ? null : new ByteArray(userHandle);
+  }
+}
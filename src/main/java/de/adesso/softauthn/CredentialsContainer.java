@@ -1,11 +1,8 @@
 package de.adesso.softauthn;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ObjectNode;
-import com.upokecenter.cbor.CBORObject;
 import com.yubico.webauthn.data.AttestationConveyancePreference;
 import com.yubico.webauthn.data.AuthenticatorAssertionResponse;
+import com.yubico.webauthn.data.AuthenticatorAttachment;
 import com.yubico.webauthn.data.AuthenticatorAttestationResponse;
 import com.yubico.webauthn.data.AuthenticatorSelectionCriteria;
 import com.yubico.webauthn.data.ByteArray;
@@ -22,18 +19,19 @@ import com.yubico.webauthn.data.UserVerificationRequirement;
 import com.yubico.webauthn.data.exception.Base64UrlException;
 
 import java.io.IOException;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
 
 // TODO: 14/09/2022 remove yubico dependency, write own required data structures with json serialisation support
 /**
@@ -50,13 +48,23 @@ import java.util.Set;
  */
 public class CredentialsContainer {
 
-    private final Origin origin;
-    private final List<Authenticator> authenticators;
+    // bound for the credential owner index, the least recently used credential is dropped when it is full
+    private static final int MAX_INDEXED_CREDENTIALS = 1 << 16;
 
-    private final ObjectMapper mapper;
+    private final Origin origin;
+    private final List<Route> routes;
+    // credential id -> authenticator that created or last asserted it, guarded by itself
+    private final Map<ByteArray, Route> owners = new LinkedHashMap<ByteArray, Route>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<ByteArray, Route> eldest) {
+            return size() > MAX_INDEXED_CREDENTIALS;
+        }
+    };
 
     /**
      * Creates a new CredentialsContainer with the specified {@link Origin} and a list of "known" authenticators.
+     * <p>The capabilities of the authenticators (attachment, resident key and user verification support, supported
+     * algorithms) are read once here and used to route requests only to authenticators that can fulfil them.
      *
      * @param origin The origin of the emulated "context".
      * @param authenticators A list of authenticators that are available to this container.
@@ -64,8 +72,11 @@ public class CredentialsContainer {
      */
     public CredentialsContainer(Origin origin, List<? extends Authenticator> authenticators) {
         this.origin = origin;
-        this.authenticators = new ArrayList<>(authenticators);
-        this.mapper = new ObjectMapper();
+        List<Route> routes = new ArrayList<>(authenticators.size());
+        for (Authenticator authenticator : authenticators) {
+            routes.add(new Route(authenticator));
+        }
+        this.routes = Collections.unmodifiableList(routes);
     }
 
     /**
@@ -85,6 +96,26 @@ public class CredentialsContainer {
         return create(origin, publicKey, true);
     }
 
+    /**
+     * Asynchronous variant of {@link #create(PublicKeyCredentialCreationOptions)} that runs the ceremony on the given
+     * executor.
+     * <p>Unlike {@code create}, the returned future never completes with {@code null}. If no authenticator could
+     * create a credential or the ceremony fails, it completes exceptionally with a {@link WebAuthnException}
+     * (wrapped in a {@link java.util.concurrent.CompletionException} where {@code CompletableFuture} does so).
+     *
+     * @apiNote Ceremonies started concurrently on the same container run concurrently on its authenticators, so
+     * those must be configured for concurrent use (e.g. with a concurrent credential store and signature counter).
+     * @param publicKey The <a href="https://www.w3.org/TR/2021/REC-webauthn-2-20210408/#dictdef-publickeycredentialcreationoptions">PublicKeyCredentialOptions</a>
+     *                  provided by the Relying Party.
+     * @param executor The executor to run the ceremony on.
+     * @return A future that completes with the newly created credential.
+     */
+    public CompletableFuture<PublicKeyCredential<AuthenticatorAttestationResponse, ClientRegistrationExtensionOutputs>> createAsync(
+            PublicKeyCredentialCreationOptions publicKey, Executor executor
+    ) {
+        return CompletableFuture.supplyAsync(() -> complete(() -> create(publicKey), "create a credential"), executor);
+    }
+
     private PublicKeyCredential<AuthenticatorAttestationResponse, ClientRegistrationExtensionOutputs> create(
             Origin origin,
             PublicKeyCredentialCreationOptions options,
@@ -100,35 +131,49 @@ public class CredentialsContainer {
 
         ClientData clientData = collectClientData("webauthn.create", options.getChallenge(), origin, sameOriginWithAncestors);
 
-        for (Authenticator authenticator : authenticators) {
-            if (!options.getAuthenticatorSelection()
-                    .flatMap(AuthenticatorSelectionCriteria::getAuthenticatorAttachment)
-                    .map(authenticator.getAttachment()::equals)
-                    .orElse(true)) {
+        Optional<AuthenticatorSelectionCriteria> selection = options.getAuthenticatorSelection();
+        AuthenticatorAttachment attachment = selection
+                .flatMap(AuthenticatorSelectionCriteria::getAuthenticatorAttachment)
+                .orElse(null);
+        ResidentKeyRequirement residentKey = selection
+                .flatMap(AuthenticatorSelectionCriteria::getResidentKey)
+                .orElse(ResidentKeyRequirement.DISCOURAGED);
+        UserVerificationRequirement userVerificationRequirement = selection
+                .flatMap(AuthenticatorSelectionCriteria::getUserVerification)
+                .orElse(UserVerificationRequirement.DISCOURAGED);
+
+        // skip handling this for now
+        boolean enterpriseAttestationPossible = false;
+
+        Set<PublicKeyCredentialDescriptor> excludeCredentials = options.getExcludeCredentials()
+                .orElse(Collections.emptySet());
+
+        for (Route route : routes) {
+            if (attachment != null && attachment != route.attachment) {
                 continue;
             }
 
-            if (!authenticator.supportsClientSideDiscoverablePublicKeyCredentialSources() && options.getAuthenticatorSelection().flatMap(AuthenticatorSelectionCriteria::getResidentKey).map(req -> req == ResidentKeyRequirement.REQUIRED).orElse(false)) {
+            if (residentKey == ResidentKeyRequirement.REQUIRED && !route.residentKey) {
                 continue;
             }
 
-            boolean requireResidentKey = options.getAuthenticatorSelection().flatMap(AuthenticatorSelectionCriteria::getResidentKey)
-                    .map(req -> req == ResidentKeyRequirement.REQUIRED || (req == ResidentKeyRequirement.PREFERRED && authenticator.supportsClientSideDiscoverablePublicKeyCredentialSources()))
-                    .orElse(false);
+            if (userVerificationRequirement == UserVerificationRequirement.REQUIRED && !route.userVerification) {
+                continue;
+            }
 
-            boolean userVerification = options.getAuthenticatorSelection().flatMap(AuthenticatorSelectionCriteria::getUserVerification)
-                    .map(req -> req == UserVerificationRequirement.REQUIRED || (req == UserVerificationRequirement.PREFERRED && authenticator.supportsUserVerification()))
-                    .orElse(false);
+            if (!route.supportsAnyOf(credTypesAndPubKeyAlgs)) {
+                continue;
+            }
 
-            // skip handling this for now
-            boolean enterpriseAttestationPossible = false;
+            boolean requireResidentKey = residentKey == ResidentKeyRequirement.REQUIRED
+                    || (residentKey == ResidentKeyRequirement.PREFERRED && route.residentKey);
 
-            Set<PublicKeyCredentialDescriptor> excludeCredentials = options.getExcludeCredentials()
-                    .orElse(Collections.emptySet());
+            boolean userVerification = userVerificationRequirement == UserVerificationRequirement.REQUIRED
+                    || (userVerificationRequirement == UserVerificationRequirement.PREFERRED && route.userVerification);
 
-            CBORObject attestationObject;
+            AttestationObject attestationObject;
             try {
-                attestationObject = authenticator.makeCredential(
+                attestationObject = route.authenticator.makeAttestationObject(
                         clientData.clientDataHash, options.getRp(), options.getUser(),
                         requireResidentKey, userVerification, credTypesAndPubKeyAlgs,
                         excludeCredentials, enterpriseAttestationPossible, null
@@ -140,12 +185,14 @@ public class CredentialsContainer {
             }
 
             try {
-                return constructCredentialAlg(
+                PublicKeyCredential<AuthenticatorAttestationResponse, ClientRegistrationExtensionOutputs> credential = constructCredentialAlg(
                         attestationObject,
                         clientData.clientDataJson,
                         options.getAttestation(),
                         ClientRegistrationExtensionOutputs.builder().build()
                 );
+                indexOwner(credential.getId(), route);
+                return credential;
             } catch (Base64UrlException | IOException e) {
                 throw new RuntimeException("Error while constructing credential response", e);
             }
@@ -154,25 +201,18 @@ public class CredentialsContainer {
     }
 
     private PublicKeyCredential<AuthenticatorAttestationResponse, ClientRegistrationExtensionOutputs> constructCredentialAlg(
-            CBORObject attestationObjectResult,
+            AttestationObject attestationObjectResult,
             byte[] clientDataJsonResult,
             AttestationConveyancePreference preference,
             ClientRegistrationExtensionOutputs clientExtensionResults
     ) throws Base64UrlException, IOException {
-        if (preference == AttestationConveyancePreference.NONE) {
-            byte[] aaguid = extractAaguid(attestationObjectResult);
-            if (!Arrays.equals(aaguid, new byte[16])
-                    || !attestationObjectResult.get("fmt").AsString().equals("packed")
-                    || attestationObjectResult.get("x5c") != null) {
-                censorAaguid(attestationObjectResult);
-                attestationObjectResult.Set("fmt", "none");
-                attestationObjectResult.Set("attStmt", CBORObject.NewMap());
-            }
+        if (preference == AttestationConveyancePreference.NONE && attestationObjectResult.isIdentifying()) {
+            attestationObjectResult = attestationObjectResult.withoutAttestation();
         }
         return PublicKeyCredential.<AuthenticatorAttestationResponse, ClientRegistrationExtensionOutputs>builder()
-                .id(new ByteArray(extractCredentialId(attestationObjectResult)))
+                .id(attestationObjectResult.getCredentialId())
                 .response(AuthenticatorAttestationResponse.builder()
-                        .attestationObject(new ByteArray(attestationObjectResult.EncodeToBytes()))
+                        .attestationObject(new ByteArray(attestationObjectResult.encode()))
                         .clientDataJSON(new ByteArray(clientDataJsonResult))
                         .transports(Collections.emptySet())
                         .build())
@@ -180,31 +220,6 @@ public class CredentialsContainer {
                 .build();
     }
 
-    private byte[] extractAaguid(CBORObject attestationObject) {
-        ByteBuffer authenticatorData = ByteBuffer.wrap(attestationObject.get("authData").GetByteString());
-        authenticatorData.position(37);
-        byte[] aaguid = new byte[16];
-        authenticatorData.get(aaguid);
-        return aaguid;
-    }
-
-    private void censorAaguid(CBORObject attestationObject) {
-        ByteBuffer authenticatorData = ByteBuffer.wrap(attestationObject.get("authData").GetByteString());
-        authenticatorData.position(37);
-        authenticatorData.put(new byte[16]);
-    }
-
-    private byte[] extractCredentialId(CBORObject attestationObject) {
-        ByteBuffer authenticatorData = ByteBuffer.wrap(attestationObject.get("authData").GetByteString());
-        // https://www.w3.org/TR/2021/REC-webauthn-2-20210408/#authenticator-data 37 bytes before attestedCredentialData part, then 16 bytes aaguid
-        authenticatorData.position(37 + 16);
-        authenticatorData.order(ByteOrder.BIG_ENDIAN);
-        short credentialIdLength = authenticatorData.getShort();
-        byte[] credentialId = new byte[credentialIdLength];
-        authenticatorData.get(credentialId);
-        return credentialId;
-    }
-
     /**
      * Implementation of <a href="https://developer.mozilla.org/en-US/docs/Web/API/CredentialsContainer/get">CredentialsContainer.get()</a>
      * for WebAuthn.
@@ -215,7 +230,9 @@ public class CredentialsContainer {
      * @throws IllegalArgumentException if any of the parameters are malformed in any way or a security check fails.
      * @throws RuntimeException if any other unexpected exception occurs during the assertion process.
      * @implNote This implementation does not pre-filter the list of allowed credentials for every authenticator.
-     * Instead, it passes the full list of allowed credential to every requested authenticator.
+     * Instead, it passes the full list of allowed credential to every requested authenticator. Authenticators that
+     * created or previously asserted one of the allowed credentials through this container are asked first, and
+     * authenticators that {@link Authenticator#hasCredential report} having none of them are not asked at all.
      * Furthermore, it performs no filtering based on available transports because that is not relevant to software authenticators.
      * @see <a href="https://www.w3.org/TR/2021/REC-webauthn-2-20210408/#sctn-getAssertion">Use an Existing Credential to Make an Assertion</a>
      */
@@ -225,33 +242,77 @@ public class CredentialsContainer {
         return discoverFromExternalSource(origin, publicKey, true);
     }
 
+    /**
+     * Asynchronous variant of {@link #get(PublicKeyCredentialRequestOptions)} that runs the ceremony on the given
+     * executor.
+     * <p>Unlike {@code get}, the returned future never completes with {@code null}. If no authenticator could
+     * create an assertion or the ceremony fails, it completes exceptionally with a {@link WebAuthnException}
+     * (wrapped in a {@link java.util.concurrent.CompletionException} where {@code CompletableFuture} does so).
+     *
+     * @apiNote See {@link #createAsync} regarding concurrent use of the authenticators.
+     * @param publicKey The <a href="https://www.w3.org/TR/2021/REC-webauthn-2-20210408/#dictdef-publickeycredentialrequestoptions">PublicKeyCredentialRequestOptions</a>
+     *                  provided by the Relying Party.
+     * @param executor The executor to run the ceremony on.
+     * @return A future that completes with the credential containing the assertion.
+     */
+    public CompletableFuture<PublicKeyCredential<AuthenticatorAssertionResponse, ClientAssertionExtensionOutputs>> getAsync(
+            PublicKeyCredentialRequestOptions publicKey, Executor executor
+    ) {
+        return CompletableFuture.supplyAsync(() -> complete(() -> get(publicKey), "get an assertion"), executor);
+    }
+
+    private static <T> T complete(Supplier<T> ceremony, String action) {
+        T result;
+        try {
+            result = ceremony.get();
+        } catch (IllegalArgumentException e) {
+            throw new WebAuthnException(WebAuthnException.Reason.NOT_ALLOWED, e.getMessage(), e);
+        } catch (IllegalStateException e) {
+            throw new WebAuthnException(WebAuthnException.Reason.INVALID_STATE, e.getMessage(), e);
+        } catch (RuntimeException e) {
+            throw new WebAuthnException(WebAuthnException.Reason.UNKNOWN, e.getMessage(), e);
+        }
+        if (result == null) {
+            throw new WebAuthnException(WebAuthnException.Reason.NOT_ALLOWED,
+                    "No authenticator was able to " + action, null);
+        }
+        return result;
+    }
+
     private PublicKeyCredential<AuthenticatorAssertionResponse, ClientAssertionExtensionOutputs> discoverFromExternalSource(
             Origin origin, PublicKeyCredentialRequestOptions options, boolean sameOriginWithAncestors
     ) {
         checkParameters(options.getRpId(), origin, sameOriginWithAncestors);
         ClientData clientData = collectClientData("webauthn.get", options.getChallenge(), origin, sameOriginWithAncestors);
-        for (Authenticator authenticator : authenticators) {
-            if (options.getUserVerification()
-                    .map(UserVerificationRequirement.REQUIRED::equals)
-                    .orElse(false) && !authenticator.supportsUserVerification()) {
-                continue;
-            }
 
-            boolean userVerification = !options.getUserVerification()
-                    .map(UserVerificationRequirement.DISCOURAGED::equals).orElse(false)
-                    && authenticator.supportsUserVerification();
+        UserVerificationRequirement userVerificationRequirement = options.getUserVerification()
+                .orElse(UserVerificationRequirement.PREFERRED);
+
+        // skip narrowing this list down to this specific authenticator
+        List<PublicKeyCredentialDescriptor> allowCredentials = options.getAllowCredentials().orElse(Collections.emptyList());
 
-            // skip narrowing this list down to this specific authenticator
-            List<PublicKeyCredentialDescriptor> allowCredentials = options.getAllowCredentials().orElse(Collections.emptyList());
+        ByteArray credentialId = allowCredentials.size() == 1 ? allowCredentials.get(0).getId() : null;
 
-            ByteArray credentialId = allowCredentials.size() == 1 ? allowCredentials.get(0).getId() : null;
+        // skip transport handling (also not relevant for software authenticators)
 
-            // skip transport handling (also not relevant for software authenticators)
+        List<Route> candidates = candidates(allowCredentials);
+        for (Route route : candidates) {
+            if (userVerificationRequirement == UserVerificationRequirement.REQUIRED && !route.userVerification) {
+                continue;
+            }
+
+            // a single authenticator is asked directly, there is no other one to route to
+            if (candidates.size() > 1 && !allowCredentials.isEmpty()
+                    && !hasAnyOf(route, options.getRpId(), allowCredentials)) {
+                continue;
+            }
 
+            boolean userVerification = userVerificationRequirement != UserVerificationRequirement.DISCOURAGED
+                    && route.userVerification;
 
             AuthenticatorAssertionData assertionData;
             try {
-                assertionData = authenticator.getAssertion(
+                assertionData = route.authenticator.getAssertion(
                         options.getRpId(),
                         clientData.clientDataHash,
                         allowCredentials.isEmpty() ? null : allowCredentials,
@@ -265,6 +326,9 @@ public class CredentialsContainer {
             if (credentialId != null) {
                 assertionData.setCredentialId(credentialId);
             }
+            if (assertionData.getCredentialId() != null) {
+                indexOwner(assertionData.getCredentialId(), route);
+            }
 
             try {
                 return constructAssertionAlg(assertionData, clientData);
@@ -275,6 +339,72 @@ public class CredentialsContainer {
         return null;
     }
 
+    private void indexOwner(ByteArray credentialId, Route route) {
+        // with a single authenticator, there is nothing to route
+        if (routes.size() == 1) {
+            return;
+        }
+        synchronized (owners) {
+            owners.put(credentialId, route);
+        }
+    }
+
+    private Route owner(ByteArray credentialId) {
+        synchronized (owners) {
+            return owners.get(credentialId);
+        }
+    }
+
+    /**
+     * Checks whether the authenticator has one of the allowed credentials, so that authenticators without any of
+     * them are skipped instead of failing the assertion. Known owners are not asked.
+     */
+    private boolean hasAnyOf(Route route, String rpId, List<PublicKeyCredentialDescriptor> allowCredentials) {
+        for (PublicKeyCredentialDescriptor descriptor : allowCredentials) {
+            if (owner(descriptor.getId()) == route) {
+                return true;
+            }
+        }
+        for (PublicKeyCredentialDescriptor descriptor : allowCredentials) {
+            if (route.authenticator.hasCredential(rpId, descriptor.getId())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Orders the authenticators for an assertion so that the known owners of the allowed credentials come first.
+     * The remaining authenticators follow in their original order, so credentials that were created elsewhere
+     * (or whose owner no longer has them) are still found.
+     */
+    private List<Route> candidates(List<PublicKeyCredentialDescriptor> allowCredentials) {
+        if (allowCredentials.isEmpty() || routes.size() == 1) {
+            return routes;
+        }
+        List<Route> owning = null;
+        for (PublicKeyCredentialDescriptor descriptor : allowCredentials) {
+            Route owner = owner(descriptor.getId());
+            if (owner != null) {
+                if (owning == null) {
+                    owning = new ArrayList<>(routes.size());
+                }
+                if (!owning.contains(owner)) {
+                    owning.add(owner);
+                }
+            }
+        }
+        if (owning == null) {
+            return routes;
+        }
+        for (Route route : routes) {
+            if (!owning.contains(route)) {
+                owning.add(route);
+            }
+        }
+        return owning;
+    }
+
     private PublicKeyCredential<AuthenticatorAssertionResponse, ClientAssertionExtensionOutputs> constructAssertionAlg(
             AuthenticatorAssertionData assertionData,
             ClientData clientData
@@ -314,27 +444,46 @@ public class CredentialsContainer {
     }
 
     private ClientData collectClientData(String type, ByteArray challenge, Origin origin, boolean sameOriginWithAncestors) {
-
-        ObjectNode collectedClientData = mapper.createObjectNode()
-                .put("type", type)
-                .put("challenge", challenge.getBase64Url())
-                .put("origin", origin.serialized())
-                .put("crossOrigin", !sameOriginWithAncestors);
-
-        byte[] clientDataJson;
+        ClientDataJson writer = ClientDataJson.acquire();
         try {
-            clientDataJson = mapper.writeValueAsBytes(collectedClientData);
-        } catch (JsonProcessingException e) {
-            throw new AssertionError(e);
+            writer.write(type, challenge.getBase64Url(), origin.clientDataMember(), !sameOriginWithAncestors);
+            return new ClientData(writer.toByteArray(), writer.hash());
+        } finally {
+            ClientDataJson.release(writer);
         }
-        MessageDigest digest;
-        try {
-            digest = MessageDigest.getInstance("SHA-256");
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException("Required algorithm unavailable", e);
+    }
+
+    /**
+     * An authenticator together with the capabilities it reported when the container was created.
+     */
+    private static final class Route {
+        private final Authenticator authenticator;
+        private final AuthenticatorAttachment attachment;
+        private final boolean residentKey;
+        private final boolean userVerification;
+        // empty if the authenticator doesn't report its algorithms
+        private final Set<COSEAlgorithmIdentifier> algorithms;
+
+        private Route(Authenticator authenticator) {
+            this.authenticator = authenticator;
+            this.attachment = authenticator.getAttachment();
+            this.residentKey = authenticator.supportsClientSideDiscoverablePublicKeyCredentialSources();
+            this.userVerification = authenticator.supportsUserVerification();
+            Set<COSEAlgorithmIdentifier> algorithms = authenticator.getSupportedAlgorithms();
+            this.algorithms = algorithms.isEmpty() ? Collections.emptySet() : EnumSet.copyOf(algorithms);
+        }
+
+        private boolean supportsAnyOf(List<PublicKeyCredentialParameters> credTypesAndPubKeyAlgs) {
+            if (algorithms.isEmpty()) {
+                return true;
+            }
+            for (PublicKeyCredentialParameters parameters : credTypesAndPubKeyAlgs) {
+                if (algorithms.contains(parameters.getAlg())) {
+                    return true;
+                }
+            }
+            return false;
         }
-        byte[] clientDataHash = digest.digest(clientDataJson);
-        return new ClientData(clientDataJson, clientDataHash);
     }
 
     private static final class ClientData {
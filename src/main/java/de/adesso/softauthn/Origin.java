@@ -1,11 +1,13 @@
 package de.adesso.softauthn;
 
+import java.util.Objects;
 import java.util.Optional;
 import java.util.OptionalInt;
 
 /**
  * Data class that contains information associated with a web <a href="https://developer.mozilla.org/en-US/docs/Web/HTTP/Headers/Origin">origin</a>.
  * <p>Users of this class should consider {@code null} values opaque origins.
+ * <p>Origins are compared by value. Their serialization is computed once, when the origin is created.
  */
 public class Origin {
 
@@ -13,6 +15,9 @@ public class Origin {
     private final String host;
     private final int port;
     private final String domain;
+    private final String serialized;
+    // the "origin" member of client data JSON, escaped and UTF-8 encoded, created when it is first needed
+    private volatile byte[] clientDataMember;
 
     /**
      * Create an origin with the given values.
@@ -27,6 +32,7 @@ public class Origin {
         this.host = host;
         this.port = port;
         this.domain = domain;
+        this.serialized = scheme + "://" + host + (port == -1 ? "" : ":" + port);
     }
 
     /**
@@ -82,7 +88,37 @@ public class Origin {
      * @return The serialization.
      */
     public String serialized() {
-        return scheme + "://" + host + (port == -1 ? "" : ":" + port);
+        return serialized;
+    }
+
+    byte[] clientDataMember() {
+        byte[] member = clientDataMember;
+        if (member == null) {
+            // threads that race here compute the same bytes
+            member = ClientDataJson.member("origin", serialized());
+            clientDataMember = member;
+        }
+        return member;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Origin)) {
+            return false;
+        }
+        Origin origin = (Origin) o;
+        return port == origin.port
+                && Objects.equals(scheme, origin.scheme)
+                && Objects.equals(host, origin.host)
+                && Objects.equals(domain, origin.domain);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(scheme, host, port, domain);
     }
 
     @Override
@@ -1,12 +1,15 @@
 package de.adesso.softauthn;
 
+import COSE.AlgorithmID;
 import COSE.CoseException;
+import COSE.KeyKeys;
 import COSE.OneKey;
 import com.upokecenter.cbor.CBORException;
 import com.upokecenter.cbor.CBORObject;
 import com.yubico.webauthn.data.ByteArray;
 import com.yubico.webauthn.data.PublicKeyCredentialType;
 
+import java.security.PrivateKey;
 import java.util.Optional;
 
 /**
@@ -14,6 +17,7 @@ import java.util.Optional;
  * as it contains the private key of the credential.
  *
  * @see <a href="https://www.w3.org/TR/2021/REC-webauthn-2-20210408/#public-key-credential-source">Public Key Credential Source</a>
+ * @see CompactPublicKeyCredentialSource
  */
 public class PublicKeyCredentialSource {
 
@@ -23,6 +27,7 @@ public class PublicKeyCredentialSource {
   private final ByteArray userHandle;
 
   private ByteArray id;
+  private volatile PrivateKey privateKey;
 
   /**
    * Public constructor of this data class.
@@ -58,6 +63,32 @@ public class PublicKeyCredentialSource {
     return key;
   }
 
+  /**
+   * Returns the COSE algorithm of the {@link #getKey() key}.
+   *
+   * @return the algorithm.
+   * @throws CoseException If the key doesn't specify a known algorithm.
+   */
+  public AlgorithmID getAlgorithm() throws CoseException {
+    return AlgorithmID.FromCBOR(getKey().get(KeyKeys.Algorithm));
+  }
+
+  /**
+   * Returns the private key of this credential source converted to a JCA {@link PrivateKey}.
+   * <p>The conversion is only done once, the result is cached for subsequent calls.
+   *
+   * @return the private key.
+   * @throws CoseException If the COSE key cannot be converted.
+   */
+  public PrivateKey getPrivateKey() throws CoseException {
+    PrivateKey privateKey = this.privateKey;
+    if (privateKey == null) {
+      privateKey = key.AsPrivateKey();
+      this.privateKey = privateKey;
+    }
+    return privateKey;
+  }
+
   /**
    * See {@link #PublicKeyCredentialSource(PublicKeyCredentialType, OneKey, String, ByteArray) constructor} for a description of this field.
    *
@@ -87,8 +118,9 @@ public class PublicKeyCredentialSource {
   public byte[] serialize() {
     CBORObject map = CBORObject.NewMap()
             .Set("type", type.ordinal())
-            .Set("key", key.AsCBOR())
+            .Set("key", getKey().AsCBOR())
             .Set("rpId", rpId);
+    ByteArray userHandle = getUserHandle();
     if (userHandle != null) {
       map.Set("user", userHandle.getBytes());
     }
@@ -125,9 +157,9 @@ public class PublicKeyCredentialSource {
   public String toString() {
     return "PublicKeyCredentialSource{" +
             "type=" + type +
-            ", privateKey=" + key +
+            ", privateKey=" + getKey() +
             ", rpId='" + rpId + '\'' +
-            ", userHandle=" + userHandle +
+            ", userHandle=" + getUserHandle() +
             '}';
   }
 
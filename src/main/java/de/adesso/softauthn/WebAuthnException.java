@@ -0,0 +1,55 @@
+package de.adesso.softauthn;
+
+import java.util.Objects;
+
+/**
+ * Exception that a failed WebAuthn ceremony completes with when started through
+ * {@link CredentialsContainer#createAsync} or {@link CredentialsContainer#getAsync}.
+ * <p>The {@link #getReason() reason} corresponds to the
+ * <a href="https://webidl.spec.whatwg.org/#idl-DOMException">DOMException</a> a browser would reject the promise with.
+ */
+public class WebAuthnException extends RuntimeException {
+
+    /**
+     * The reason a ceremony failed.
+     */
+    public enum Reason {
+        /**
+         * Corresponds to {@code NotAllowedError}: no authenticator could fulfil the request, or a security check
+         * failed.
+         */
+        NOT_ALLOWED,
+        /**
+         * Corresponds to {@code InvalidStateError}: the authenticator already contains one of the excluded
+         * credentials.
+         */
+        INVALID_STATE,
+        /**
+         * Corresponds to {@code UnknownError}: the ceremony failed for any other reason, see the cause.
+         */
+        UNKNOWN
+    }
+
+    private final Reason reason;
+
+    /**
+     * Creates a new exception.
+     *
+     * @param reason The reason the ceremony failed.
+     * @param message The detail message.
+     * @param cause The exception that caused the failure, or {@code null}.
+     */
+    public WebAuthnException(Reason reason, String message, Throwable cause) {
+        super(message, cause);
+        this.reason = Objects.requireNonNull(reason);
+    }
+
+    /**
+     * Get the reason the ceremony failed.
+     *
+     * @return The reason.
+     */
+    public Reason getReason() {
+        return reason;
+    }
+}
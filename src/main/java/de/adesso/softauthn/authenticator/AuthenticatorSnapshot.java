@@ -0,0 +1,238 @@
+package de.adesso.softauthn.authenticator;
+
+import COSE.AlgorithmID;
+import com.yubico.webauthn.data.ByteArray;
+import com.yubico.webauthn.data.PublicKeyCredentialType;
+import de.adesso.softauthn.CompactPublicKeyCredentialSource;
+import de.adesso.softauthn.PublicKeyCredentialSource;
+import de.adesso.softauthn.counter.SignatureCounter;
+import de.adesso.softauthn.store.CredentialStore;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+/**
+ * The binary format of authenticator snapshots, see {@link WebAuthnAuthenticator#writeSnapshot(OutputStream)}.
+ * <p>Layout (big-endian):
+ * <pre>
+ * int     magic, int version
+ * byte[16] aaguid
+ * u8      length of the credential wrapping key (0 if there is none), followed by the key
+ * UTF     {@link SignatureCounter#stateFormat() format} of the signature counter state
+ * records, each starting with a kind byte:
+ *   COMPACT:    u8 type, u8 algorithm, u16 id length, id, u16 rp id length, rp id (UTF-8),
+ *               i16 user handle length (-1 if there is none), user handle, byte[32] private key
+ *   SERIALIZED: u16 id length, id, i32 length, {@link PublicKeyCredentialSource#serialize() serialized source}
+ *   END:        no data, ends the list of records
+ * signature counter state, see {@link SignatureCounter#writeState(DataOutput)}
+ * </pre>
+ * Compact credential sources are written as COMPACT records and restored as compact sources, all other sources are
+ * serialized with their complete key, so that every source is restored in the representation it was stored in.
+ * <p>Snapshots are written through a buffered stream and read through memory mappings of the file,
+ * so that restoring millions of credentials is not dominated by I/O. The file is only mapped while it is read.
+ * <p>The credential wrapping key and the private keys of the credentials are written unencrypted.
+ */
+final class AuthenticatorSnapshot {
+
+    private static final int MAGIC = 0x53415354; // "SAST"
+    private static final int VERSION = 2;
+
+    private static final byte END = 0;
+    private static final byte COMPACT = 1;
+    private static final byte SERIALIZED = 2;
+
+    private static final byte ALG_ES256 = 1;
+    private static final byte ALG_EDDSA = 2;
+
+    private final Path file;
+    private final long bodyPosition;
+    private final byte[] aaguid;
+    private final byte[] credentialWrappingKey;
+    private final String counterStateFormat;
+
+    private AuthenticatorSnapshot(
+            Path file, long bodyPosition, byte[] aaguid, byte[] credentialWrappingKey, String counterStateFormat
+    ) {
+        this.file = file;
+        this.bodyPosition = bodyPosition;
+        this.aaguid = aaguid;
+        this.credentialWrappingKey = credentialWrappingKey;
+        this.counterStateFormat = counterStateFormat;
+    }
+
+    static void write(
+            OutputStream target, byte[] aaguid, byte[] credentialWrappingKey,
+            CredentialStore store, SignatureCounter signatureCounter
+    ) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(target, 1 << 16));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.write(aaguid);
+        if (credentialWrappingKey == null) {
+            out.writeByte(0);
+        } else {
+            out.writeByte(credentialWrappingKey.length);
+            out.write(credentialWrappingKey);
+        }
+        out.writeUTF(signatureCounter.stateFormat());
+        try {
+            store.forEach(source -> {
+                try {
+                    writeSource(out, source);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        out.writeByte(END);
+        signatureCounter.writeState(out);
+        out.flush();
+    }
+
+    private static void writeSource(DataOutputStream out, PublicKeyCredentialSource source) throws IOException {
+        byte[] id = source.getId().getBytes();
+        if (!(source instanceof CompactPublicKeyCredentialSource)) {
+            // a COMPACT record would drop the public key of a full source
+            byte[] serialized = source.serialize();
+            out.writeByte(SERIALIZED);
+            out.writeShort(id.length);
+            out.write(id);
+            out.writeInt(serialized.length);
+            out.write(serialized);
+            return;
+        }
+        CompactPublicKeyCredentialSource compact = (CompactPublicKeyCredentialSource) source;
+        byte[] rpId = compact.getRpId().getBytes(StandardCharsets.UTF_8);
+        ByteArray userHandle = compact.getUserHandle();
+        out.writeByte(COMPACT);
+        out.writeByte(compact.getType().ordinal());
+        out.writeByte(compact.getAlgorithm() == AlgorithmID.ECDSA_256 ? ALG_ES256 : ALG_EDDSA);
+        out.writeShort(id.length);
+        out.write(id);
+        out.writeShort(rpId.length);
+        out.write(rpId);
+        if (userHandle == null) {
+            out.writeShort(-1);
+        } else {
+            out.writeShort(userHandle.size());
+            out.write(userHandle.getBytes());
+        }
+        out.write(compact.getPrivateKeyBytes());
+    }
+
+    /**
+     * Reads the header of the given snapshot file. The rest of the snapshot is read by {@link #restore}.
+     */
+    static AuthenticatorSnapshot read(Path file) throws IOException {
+        try (MappedInputStream input = MappedInputStream.open(file)) {
+            DataInputStream in = new DataInputStream(input);
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not an authenticator snapshot: " + file);
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported authenticator snapshot version " + version);
+            }
+            byte[] aaguid = new byte[16];
+            in.readFully(aaguid);
+            int keyLength = in.readUnsignedByte();
+            byte[] credentialWrappingKey = null;
+            if (keyLength > 0) {
+                credentialWrappingKey = new byte[keyLength];
+                in.readFully(credentialWrappingKey);
+            }
+            String counterStateFormat = in.readUTF();
+            return new AuthenticatorSnapshot(file, input.position(), aaguid, credentialWrappingKey, counterStateFormat);
+        } catch (EOFException e) {
+            throw new IOException("Authenticator snapshot is truncated: " + file, e);
+        }
+    }
+
+    byte[] getAaguid() {
+        return aaguid.clone();
+    }
+
+    byte[] getCredentialWrappingKey() {
+        return credentialWrappingKey == null ? null : credentialWrappingKey.clone();
+    }
+
+    /**
+     * Puts all credential sources of the snapshot into the given store and restores the state of the given counter.
+     * This can be done any number of times, e.g. to build several authenticators from the same snapshot.
+     *
+     * @throws IOException If the snapshot is corrupt or the counter state was written in a different format than
+     * the given counter reads.
+     */
+    void restore(CredentialStore store, SignatureCounter signatureCounter) throws IOException {
+        if (!counterStateFormat.equals(signatureCounter.stateFormat())) {
+            throw new IOException("Authenticator snapshot contains a signature counter state in the format '"
+                    + counterStateFormat + "', which cannot be restored into a counter that reads the format '"
+                    + signatureCounter.stateFormat() + "'");
+        }
+        try (MappedInputStream input = MappedInputStream.open(file)) {
+            if (input.skip(bodyPosition) != bodyPosition) {
+                throw new IOException("Authenticator snapshot is truncated");
+            }
+            DataInputStream in = new DataInputStream(input);
+            byte kind;
+            while ((kind = in.readByte()) != END) {
+                PublicKeyCredentialSource source;
+                if (kind == COMPACT) {
+                    source = readCompactSource(in);
+                } else if (kind == SERIALIZED) {
+                    source = readSerializedSource(in);
+                } else {
+                    throw new IOException("Unknown credential record kind " + kind);
+                }
+                store.put(source);
+            }
+            signatureCounter.readState(in);
+        } catch (EOFException e) {
+            throw new IOException("Authenticator snapshot is truncated", e);
+        }
+    }
+
+    private static PublicKeyCredentialSource readCompactSource(DataInputStream in) throws IOException {
+        PublicKeyCredentialType type = PublicKeyCredentialType.values()[in.readUnsignedByte()];
+        AlgorithmID algorithm = in.readByte() == ALG_ES256 ? AlgorithmID.ECDSA_256 : AlgorithmID.EDDSA;
+        byte[] id = new byte[in.readUnsignedShort()];
+        in.readFully(id);
+        byte[] rpId = new byte[in.readUnsignedShort()];
+        in.readFully(rpId);
+        int userHandleLength = in.readShort();
+        ByteArray userHandle = null;
+        if (userHandleLength >= 0) {
+            byte[] bytes = new byte[userHandleLength];
+            in.readFully(bytes);
+            userHandle = new ByteArray(bytes);
+        }
+        byte[] privateKey = new byte[32];
+        in.readFully(privateKey);
+        // interned, so that all restored credentials of a relying party share one string
+        CompactPublicKeyCredentialSource source = new CompactPublicKeyCredentialSource(
+                type, algorithm, privateKey, new String(rpId, StandardCharsets.UTF_8).intern(), userHandle);
+        source.setId(new ByteArray(id));
+        return source;
+    }
+
+    private static PublicKeyCredentialSource readSerializedSource(DataInputStream in) throws IOException {
+        byte[] id = new byte[in.readUnsignedShort()];
+        in.readFully(id);
+        byte[] serialized = new byte[in.readInt()];
+        in.readFully(serialized);
+        PublicKeyCredentialSource source = PublicKeyCredentialSource.deserialize(new ByteArray(serialized))
+                .orElseThrow(() -> new IOException("Invalid credential source in snapshot"));
+        source.setId(new ByteArray(id));
+        return source;
+    }
+}
@@ -3,10 +3,12 @@ package de.adesso.softauthn.authenticator;
 import com.upokecenter.cbor.CBORObject;
 import com.yubico.webauthn.data.AuthenticatorAttachment;
 import com.yubico.webauthn.data.ByteArray;
+import com.yubico.webauthn.data.COSEAlgorithmIdentifier;
 import com.yubico.webauthn.data.PublicKeyCredentialDescriptor;
 import com.yubico.webauthn.data.PublicKeyCredentialParameters;
 import com.yubico.webauthn.data.RelyingPartyIdentity;
 import com.yubico.webauthn.data.UserIdentity;
+import de.adesso.softauthn.AttestationObject;
 import de.adesso.softauthn.Authenticator;
 import de.adesso.softauthn.AuthenticatorAssertionData;
 
@@ -51,6 +53,22 @@ public class BrokenAuthenticator implements Authenticator {
                 credTypesAndPubKeyAlgs, excludeCredentials, enterpriseAttestationPossible, extensions);
     }
 
+    /**
+     * @implNote Delegates to the underlying authenticator.
+     * {@inheritDoc}
+     */
+    @Override
+    public AttestationObject makeAttestationObject(
+            byte[] hash, RelyingPartyIdentity rpEntity, UserIdentity userEntity,
+            boolean requireResidentKey, boolean requireUserVerification,
+            List<PublicKeyCredentialParameters> credTypesAndPubKeyAlgs,
+            Set<PublicKeyCredentialDescriptor> excludeCredentials,
+            boolean enterpriseAttestationPossible,
+            byte[] extensions
+    ) throws IllegalArgumentException, UnsupportedOperationException, IllegalStateException {
+        return basis.makeAttestationObject(hash, rpEntity, userEntity, requireResidentKey, requireUserVerification,
+                credTypesAndPubKeyAlgs, excludeCredentials, enterpriseAttestationPossible, extensions);
+    }
 
     /**
      * Implementation that creates invalid assertions. See <em>Implementation Note</em> for details.
@@ -75,6 +93,15 @@ public class BrokenAuthenticator implements Authenticator {
                 new ByteArray(fakeSignature), data.getUserHandle());
     }
 
+    /**
+     * @implNote Delegates to the underlying authenticator.
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean hasCredential(String rpId, ByteArray credentialId) {
+        return basis.hasCredential(rpId, credentialId);
+    }
+
     /**
      * @implNote Delegates to the underlying authenticator.
      * {@inheritDoc}
@@ -101,4 +128,13 @@ public class BrokenAuthenticator implements Authenticator {
     public boolean supportsUserVerification() {
         return basis.supportsUserVerification();
     }
+
+    /**
+     * @implNote Delegates to the underlying authenticator.
+     * {@inheritDoc}
+     */
+    @Override
+    public Set<COSEAlgorithmIdentifier> getSupportedAlgorithms() {
+        return basis.getSupportedAlgorithms();
+    }
 }
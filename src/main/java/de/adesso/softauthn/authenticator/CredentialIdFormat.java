@@ -0,0 +1,51 @@
+package de.adesso.softauthn.authenticator;
+
+/**
+ * The kinds of credential IDs a {@link WebAuthnAuthenticator} can be asked to look up, told apart by their first byte.
+ * <p>Credential IDs created by this implementation start with a header byte whose high nibble is the format version
+ * and whose low nibble is the kind of credential ID. Header values are chosen so that they can't be confused with the
+ * start of a CBOR map, which is what {@link de.adesso.softauthn.PublicKeyCredentialSource#serialize() serialized}
+ * credential sources start with.
+ */
+enum CredentialIdFormat {
+    /**
+     * A server-side credential source encrypted by {@link CredentialIdWrapper}.
+     */
+    WRAPPED,
+    /**
+     * A random identifier of a client-side discoverable credential source in the credential store.
+     */
+    RESIDENT,
+    /**
+     * A server-side credential source encoded as a plain CBOR map.
+     */
+    SERIALIZED,
+    /**
+     * Anything else, e.g. a credential ID from a different authenticator.
+     */
+    FOREIGN;
+
+    static final int VERSION = 1;
+    static final byte WRAPPED_HEADER = (byte) (VERSION << 4 | 0x1);
+    static final byte RESIDENT_HEADER = (byte) (VERSION << 4 | 0x2);
+
+    static final int RESIDENT_LENGTH = 32;
+
+    static CredentialIdFormat classify(byte[] credentialId) {
+        if (credentialId.length == 0) {
+            return FOREIGN;
+        }
+        byte header = credentialId[0];
+        if (header == WRAPPED_HEADER && credentialId.length == CredentialIdWrapper.LENGTH) {
+            return WRAPPED;
+        }
+        if (header == RESIDENT_HEADER && credentialId.length == RESIDENT_LENGTH) {
+            return RESIDENT;
+        }
+        // major type 5 (map)
+        if ((header & 0xE0) == 0xA0) {
+            return SERIALIZED;
+        }
+        return FOREIGN;
+    }
+}
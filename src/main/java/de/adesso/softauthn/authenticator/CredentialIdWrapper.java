@@ -0,0 +1,159 @@
+package de.adesso.softauthn.authenticator;
+
+import COSE.AlgorithmID;
+import com.yubico.webauthn.data.ByteArray;
+import com.yubico.webauthn.data.PublicKeyCredentialType;
+import de.adesso.softauthn.CompactPublicKeyCredentialSource;
+import de.adesso.softauthn.PublicKeyCredentialSource;
+import de.adesso.softauthn.internal.InstancePool;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Optional;
+
+/**
+ * Encrypts credential sources into fixed-size credential IDs for
+ * <a href="https://www.w3.org/TR/2021/REC-webauthn-2-20210408/#server-side-public-key-credential-source">server-side credential storage</a>
+ * and decrypts them again.
+ * <p>Layout of a wrapped credential ID (127 bytes):
+ * <pre>
+ * header (1) | nonce (12) | AES-GCM( alg (1) | private key (32) | user handle length (1) | user handle (64) ) | tag (16)
+ * </pre>
+ * The {@link CredentialIdFormat header} byte and the RP ID are authenticated as additional data, so a credential ID only decrypts
+ * for the relying party it was created for.
+ */
+final class CredentialIdWrapper {
+
+    private static final int NONCE_LENGTH = 12;
+    private static final int TAG_LENGTH = 16;
+    private static final int KEY_LENGTH = 32;
+    private static final int MAX_USER_HANDLE_LENGTH = 64;
+    private static final int PLAINTEXT_LENGTH = 1 + KEY_LENGTH + 1 + MAX_USER_HANDLE_LENGTH;
+    static final int LENGTH = 1 + NONCE_LENGTH + PLAINTEXT_LENGTH + TAG_LENGTH;
+
+    private static final byte ALG_ES256 = 1;
+    private static final byte ALG_EDDSA = 2;
+
+    private static final InstancePool<Cipher> CIPHERS = InstancePool.withInitial(() -> {
+        try {
+            return Cipher.getInstance("AES/GCM/NoPadding");
+        } catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
+            throw new RuntimeException("AES-GCM is not available", e);
+        }
+    });
+
+    private final SecretKeySpec masterKey;
+    private final SecureRandom random;
+
+    CredentialIdWrapper(byte[] masterKey, SecureRandom random) {
+        if (masterKey.length != 16 && masterKey.length != 24 && masterKey.length != 32) {
+            throw new IllegalArgumentException("master key must be 16, 24 or 32 bytes");
+        }
+        this.masterKey = new SecretKeySpec(masterKey.clone(), "AES");
+        this.random = random;
+    }
+
+    /**
+     * Wraps the given source into a credential ID.
+     *
+     * @return the credential ID, or the empty optional if the key algorithm or the user handle
+     * cannot be represented in the fixed layout.
+     */
+    Optional<byte[]> wrap(PublicKeyCredentialSource source) {
+        CompactPublicKeyCredentialSource compact = CompactPublicKeyCredentialSource.of(source).orElse(null);
+        if (compact == null) {
+            return Optional.empty();
+        }
+        byte alg = compact.getAlgorithm() == AlgorithmID.ECDSA_256 ? ALG_ES256 : ALG_EDDSA;
+        byte[] privateKey = compact.getPrivateKeyBytes();
+        byte[] userHandle = source.getUserHandle() == null ? new byte[0] : source.getUserHandle().getBytes();
+        if (userHandle.length > MAX_USER_HANDLE_LENGTH) {
+            return Optional.empty();
+        }
+
+        byte[] plaintext = new byte[PLAINTEXT_LENGTH];
+        plaintext[0] = alg;
+        System.arraycopy(privateKey, 0, plaintext, 1, KEY_LENGTH);
+        plaintext[1 + KEY_LENGTH] = (byte) userHandle.length;
+        System.arraycopy(userHandle, 0, plaintext, 2 + KEY_LENGTH, userHandle.length);
+
+        byte[] credentialId = new byte[LENGTH];
+        credentialId[0] = CredentialIdFormat.WRAPPED_HEADER;
+        byte[] nonce = new byte[NONCE_LENGTH];
+        random.nextBytes(nonce);
+        System.arraycopy(nonce, 0, credentialId, 1, NONCE_LENGTH);
+        Cipher cipher = CIPHERS.acquire();
+        try {
+            cipher.init(Cipher.ENCRYPT_MODE, masterKey, new GCMParameterSpec(TAG_LENGTH * 8, nonce));
+            cipher.updateAAD(credentialId, 0, 1);
+            cipher.updateAAD(source.getRpId().getBytes(StandardCharsets.UTF_8));
+            cipher.doFinal(plaintext, 0, plaintext.length, credentialId, 1 + NONCE_LENGTH);
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException("Credential ID encryption failed", e);
+        } finally {
+            CIPHERS.release(cipher);
+            Arrays.fill(plaintext, (byte) 0);
+            Arrays.fill(privateKey, (byte) 0);
+        }
+        return Optional.of(credentialId);
+    }
+
+    /**
+     * Unwraps a credential ID created by {@link #wrap(PublicKeyCredentialSource)} for the given RP ID.
+     * {@code bytes} must be the content of {@code credentialId}.
+     *
+     * @return the credential source, or the empty optional if the credential ID was not wrapped with this
+     * master key for this RP ID.
+     */
+    Optional<PublicKeyCredentialSource> unwrap(ByteArray credentialId, byte[] bytes, String rpId) {
+        if (bytes.length != LENGTH || bytes[0] != CredentialIdFormat.WRAPPED_HEADER) {
+            return Optional.empty();
+        }
+        byte[] plaintext;
+        Cipher cipher = CIPHERS.acquire();
+        try {
+            cipher.init(Cipher.DECRYPT_MODE, masterKey, new GCMParameterSpec(TAG_LENGTH * 8, bytes, 1, NONCE_LENGTH));
+            cipher.updateAAD(bytes, 0, 1);
+            cipher.updateAAD(rpId.getBytes(StandardCharsets.UTF_8));
+            plaintext = cipher.doFinal(bytes, 1 + NONCE_LENGTH, PLAINTEXT_LENGTH + TAG_LENGTH);
+        } catch (AEADBadTagException e) {
+            // different master key or different relying party
+            return Optional.empty();
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException("Credential ID decryption failed", e);
+        } finally {
+            CIPHERS.release(cipher);
+        }
+
+        AlgorithmID algorithm;
+        switch (plaintext[0]) {
+            case ALG_ES256:
+                algorithm = AlgorithmID.ECDSA_256;
+                break;
+            case ALG_EDDSA:
+                algorithm = AlgorithmID.EDDSA;
+                break;
+            default:
+                return Optional.empty();
+        }
+        byte[] privateKey = Arrays.copyOfRange(plaintext, 1, 1 + KEY_LENGTH);
+        int userHandleLength = plaintext[1 + KEY_LENGTH];
+        ByteArray userHandle = userHandleLength == 0 ? null
+                : new ByteArray(Arrays.copyOfRange(plaintext, 2 + KEY_LENGTH, 2 + KEY_LENGTH + userHandleLength));
+        Arrays.fill(plaintext, (byte) 0);
+
+        PublicKeyCredentialSource source = new CompactPublicKeyCredentialSource(
+                PublicKeyCredentialType.PUBLIC_KEY, algorithm, privateKey, rpId, userHandle);
+        Arrays.fill(privateKey, (byte) 0);
+        source.setId(credentialId);
+        return Optional.of(source);
+    }
+}
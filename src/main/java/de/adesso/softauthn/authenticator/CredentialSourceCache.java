@@ -0,0 +1,214 @@
+package de.adesso.softauthn.authenticator;
+
+import COSE.CoseException;
+import com.yubico.webauthn.data.ByteArray;
+import de.adesso.softauthn.CompactPublicKeyCredentialSource;
+import de.adesso.softauthn.PublicKeyCredentialSource;
+
+import java.security.PrivateKey;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded, approximately least-recently-used cache of decoded
+ * <a href="https://www.w3.org/TR/2021/REC-webauthn-2-20210408/#server-side-public-key-credential-source">server-side credential sources</a>,
+ * keyed by their credential ID.
+ * <p>This allows a {@link WebAuthnAuthenticator} to skip decoding the credential ID (and converting the private key)
+ * when the same non-resident credential is used for many assertions. This class is thread-safe.
+ * <p>It also keeps the JCA private keys of recently used {@link CompactPublicKeyCredentialSource compact} credential
+ * sources, resident or not, as these do not retain their converted key themselves.
+ * <p>The cache is split into up to {@value #MAXIMUM_SEGMENTS} segments by credential ID, each of them an LRU map with
+ * its own lock, so that concurrent assertions with different credentials rarely wait for each other.
+ * A segment evicts its own least recently used entry when it is full, which is not necessarily the least recently
+ * used entry of the whole cache.
+ *
+ * @see WebAuthnAuthenticatorBuilder#credentialSourceCacheSize(int)
+ */
+public final class CredentialSourceCache {
+
+    private static final int MAXIMUM_SEGMENTS = 16;
+
+    private final Segment[] segments;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    CredentialSourceCache(int maximumSize) {
+        if (maximumSize < 1) {
+            throw new IllegalArgumentException("maximumSize must be positive");
+        }
+        // a power of two, so that a segment can be selected by masking the hash
+        int segmentCount = Integer.highestOneBit(Math.min(MAXIMUM_SEGMENTS, maximumSize));
+        this.segments = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            // distribute the remainder, so that the segments add up to maximumSize exactly
+            segments[i] = new Segment(maximumSize / segmentCount + (i < maximumSize % segmentCount ? 1 : 0));
+        }
+    }
+
+    PublicKeyCredentialSource get(ByteArray credentialId) {
+        CachedSource entry = segment(credentialId).get(credentialId);
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return entry.source;
+    }
+
+    void put(ByteArray credentialId, PublicKeyCredentialSource source) {
+        segment(credentialId).put(credentialId, new CachedSource(source));
+    }
+
+    // returns the cached private key of the source, or converts and caches it
+    PrivateKey privateKey(PublicKeyCredentialSource source) throws CoseException {
+        ByteArray credentialId = source.getId();
+        Segment segment = segment(credentialId);
+        CachedSource entry = segment.get(credentialId);
+        // the entry of a replaced credential with the same ID must not be used
+        if (entry == null || entry.source != source) {
+            entry = new CachedSource(source);
+            segment.put(credentialId, entry);
+        }
+        PrivateKey privateKey = entry.privateKey;
+        if (privateKey == null) {
+            privateKey = source.getPrivateKey();
+            entry.privateKey = privateKey;
+        }
+        return privateKey;
+    }
+
+    Statistics statistics() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return new Statistics(hits.sum(), misses.sum(), evictions.sum(), size);
+    }
+
+    private Segment segment(ByteArray credentialId) {
+        int h = credentialId.hashCode();
+        // ByteArray hashes are not well distributed in their low bits
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        return segments[h & (segments.length - 1)];
+    }
+
+    private final class Segment {
+
+        private final Map<ByteArray, CachedSource> sources;
+
+        Segment(int maximumSize) {
+            this.sources = new LinkedHashMap<ByteArray, CachedSource>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<ByteArray, CachedSource> eldest) {
+                    if (size() > maximumSize) {
+                        evictions.increment();
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+
+        synchronized CachedSource get(ByteArray credentialId) {
+            return sources.get(credentialId);
+        }
+
+        synchronized void put(ByteArray credentialId, CachedSource entry) {
+            sources.put(credentialId, entry);
+        }
+
+        synchronized int size() {
+            return sources.size();
+        }
+    }
+
+    private static final class CachedSource {
+
+        private final PublicKeyCredentialSource source;
+        private volatile PrivateKey privateKey;
+
+        CachedSource(PublicKeyCredentialSource source) {
+            this.source = source;
+        }
+    }
+
+    /**
+     * Usage statistics of the credential source cache of a {@link WebAuthnAuthenticator}.
+     *
+     * @see WebAuthnAuthenticator#credentialSourceCacheStatistics()
+     */
+    public static final class Statistics {
+        private final long hits;
+        private final long misses;
+        private final long evictions;
+        private final int size;
+
+        private Statistics(long hits, long misses, long evictions, int size) {
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.size = size;
+        }
+
+        /**
+         * Returns the number of lookups that found a decoded credential source in the cache.
+         *
+         * @return the number of cache hits.
+         */
+        public long getHits() {
+            return hits;
+        }
+
+        /**
+         * Returns the number of lookups that had to decode the credential ID.
+         *
+         * @return the number of cache misses.
+         */
+        public long getMisses() {
+            return misses;
+        }
+
+        /**
+         * Returns the number of credential sources that were removed from the cache to make room for new ones.
+         *
+         * @return the number of evictions.
+         */
+        public long getEvictions() {
+            return evictions;
+        }
+
+        /**
+         * Returns the number of credential sources currently in the cache.
+         *
+         * @return the cache size.
+         */
+        public int getSize() {
+            return size;
+        }
+
+        /**
+         * Returns the ratio of hits to all lookups.
+         *
+         * @return the hit rate between 0 and 1, or 0 if there were no lookups.
+         */
+        public double getHitRate() {
+            long lookups = hits + misses;
+            return lookups == 0 ? 0 : hits / (double) lookups;
+        }
+
+        @Override
+        public String toString() {
+            return "CredentialSourceCache.Statistics{" +
+                    "hits=" + hits +
+                    ", misses=" + misses +
+                    ", evictions=" + evictions +
+                    ", size=" + size +
+                    '}';
+        }
+    }
+}
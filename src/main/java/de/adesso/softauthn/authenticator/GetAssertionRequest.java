@@ -0,0 +1,76 @@
+package de.adesso.softauthn.authenticator;
+
+import com.yubico.webauthn.data.PublicKeyCredentialDescriptor;
+import de.adesso.softauthn.Authenticator;
+
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * The parameters of one <a href="https://www.w3.org/TR/2021/REC-webauthn-2-20210408/#sctn-op-get-assertion">authenticatorGetAssertion</a>
+ * operation in a {@link WebAuthnAuthenticator#getAssertions(List) batch}.
+ * See {@link Authenticator#getAssertion} for a description of the parameters.
+ */
+public final class GetAssertionRequest {
+
+    private final String rpId;
+    private final byte[] hash;
+    private final List<PublicKeyCredentialDescriptor> allowedCredentialDescriptorList;
+    private final boolean requireUserVerification;
+
+    /**
+     * Public constructor of this data class.
+     *
+     * @param rpId The caller's RP ID.
+     * @param hash The hash of the serialized client data.
+     * @param allowedCredentialDescriptorList The credentials acceptable to the Relying Party,
+     *                                        or {@code null} for discoverable credentials.
+     * @param requireUserVerification The effective user verification requirement.
+     */
+    public GetAssertionRequest(
+            String rpId, byte[] hash,
+            List<PublicKeyCredentialDescriptor> allowedCredentialDescriptorList,
+            boolean requireUserVerification
+    ) {
+        this.rpId = Objects.requireNonNull(rpId);
+        this.hash = Objects.requireNonNull(hash);
+        this.allowedCredentialDescriptorList = allowedCredentialDescriptorList;
+        this.requireUserVerification = requireUserVerification;
+    }
+
+    /**
+     * See {@link #GetAssertionRequest(String, byte[], List, boolean) constructor} for a description of this field.
+     *
+     * @return The RP ID.
+     */
+    public String getRpId() {
+        return rpId;
+    }
+
+    /**
+     * See {@link #GetAssertionRequest(String, byte[], List, boolean) constructor} for a description of this field.
+     *
+     * @return The client data hash.
+     */
+    public byte[] getHash() {
+        return hash;
+    }
+
+    /**
+     * See {@link #GetAssertionRequest(String, byte[], List, boolean) constructor} for a description of this field.
+     *
+     * @return The allowed credentials, or {@code null}.
+     */
+    public List<PublicKeyCredentialDescriptor> getAllowedCredentialDescriptorList() {
+        return allowedCredentialDescriptorList;
+    }
+
+    /**
+     * See {@link #GetAssertionRequest(String, byte[], List, boolean) constructor} for a description of this field.
+     *
+     * @return Whether user verification is required.
+     */
+    public boolean isRequireUserVerification() {
+        return requireUserVerification;
+    }
+}
@@ -0,0 +1,248 @@
+package de.adesso.softauthn.authenticator;
+
+import COSE.AlgorithmID;
+import COSE.CoseException;
+import COSE.OneKey;
+
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded pool of pre-generated key pairs that {@link WebAuthnAuthenticator} instances can take keys from when
+ * creating new credentials, instead of generating them while the registration is in progress.
+ * <p>The pool keeps a separate queue of ready keys for every algorithm. Whenever a key is taken,
+ * background threads generate new keys until the queue is full again. If a queue is empty, the key is generated
+ * on the calling thread (a <em>miss</em>).
+ * <p>A pool can be shared between multiple authenticators. It must be {@link #close() closed} to stop its
+ * background threads.
+ *
+ * @see WebAuthnAuthenticatorBuilder#keyPool(KeyPool)
+ */
+public class KeyPool implements AutoCloseable {
+
+    private static final AtomicInteger POOL_COUNT = new AtomicInteger();
+
+    private final int capacity;
+    private final int refillThreads;
+    private final Map<AlgorithmID, AlgorithmQueue> queues;
+    private final ExecutorService refillExecutor;
+
+    private final LongAdder hits;
+    private final LongAdder misses;
+    private final LongAdder refilled;
+    private final long createdAt;
+
+    private volatile boolean closed;
+
+    /**
+     * Creates a key pool that holds up to {@code capacity} keys per algorithm
+     * and refills them using half of the available processors.
+     *
+     * @param capacity The maximum number of ready keys per algorithm.
+     */
+    public KeyPool(int capacity) {
+        this(capacity, Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+    }
+
+    /**
+     * Creates a key pool that holds up to {@code capacity} keys per algorithm.
+     *
+     * @param capacity The maximum number of ready keys per algorithm.
+     * @param refillThreads The number of background threads that generate new keys.
+     */
+    public KeyPool(int capacity, int refillThreads) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        if (refillThreads < 1) {
+            throw new IllegalArgumentException("refillThreads must be positive");
+        }
+        this.capacity = capacity;
+        this.refillThreads = refillThreads;
+        this.queues = new ConcurrentHashMap<>();
+        this.refillExecutor = Executors.newFixedThreadPool(refillThreads, new RefillThreadFactory());
+        this.hits = new LongAdder();
+        this.misses = new LongAdder();
+        this.refilled = new LongAdder();
+        this.createdAt = System.nanoTime();
+    }
+
+    /**
+     * Start filling the queue for the given algorithm in the background, so that keys are ready before
+     * the first one is {@link #take(AlgorithmID) taken}.
+     *
+     * @param algorithm The algorithm.
+     */
+    public void prefill(AlgorithmID algorithm) {
+        scheduleRefill(algorithm, queue(algorithm));
+    }
+
+    /**
+     * Take a key for the given algorithm from the pool, or generate one on the calling thread if there is none ready.
+     *
+     * @param algorithm The algorithm of the key.
+     * @return A new key pair wrapped as a COSE {@link OneKey}. Each key is only ever returned once.
+     * @throws CoseException If the COSE library cannot generate keys for the given algorithm.
+     */
+    public OneKey take(AlgorithmID algorithm) throws CoseException {
+        AlgorithmQueue queue = queue(algorithm);
+        OneKey key = queue.keys.poll();
+        if (key != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+            key = OneKey.generateKey(algorithm);
+        }
+        scheduleRefill(algorithm, queue);
+        return key;
+    }
+
+    /**
+     * Returns a snapshot of the usage statistics of this pool.
+     *
+     * @return the statistics.
+     */
+    public Statistics statistics() {
+        long elapsedNanos = System.nanoTime() - createdAt;
+        return new Statistics(hits.sum(), misses.sum(), refilled.sum(), elapsedNanos);
+    }
+
+    /**
+     * Stops the background threads of this pool. Keys that are still in the pool can be taken afterwards,
+     * but no new keys are generated in the background.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        refillExecutor.shutdownNow();
+    }
+
+    private AlgorithmQueue queue(AlgorithmID algorithm) {
+        return queues.computeIfAbsent(algorithm, alg -> new AlgorithmQueue(capacity));
+    }
+
+    private void scheduleRefill(AlgorithmID algorithm, AlgorithmQueue queue) {
+        if (closed || queue.keys.remainingCapacity() <= queue.refillers.get()) {
+            return;
+        }
+        if (queue.refillers.incrementAndGet() > refillThreads) {
+            queue.refillers.decrementAndGet();
+            return;
+        }
+        try {
+            refillExecutor.execute(() -> refill(algorithm, queue));
+        } catch (RejectedExecutionException e) {
+            // pool has been closed concurrently
+            queue.refillers.decrementAndGet();
+        }
+    }
+
+    private void refill(AlgorithmID algorithm, AlgorithmQueue queue) {
+        try {
+            while (!closed && queue.keys.remainingCapacity() > 0) {
+                if (!queue.keys.offer(OneKey.generateKey(algorithm))) {
+                    break;
+                }
+                refilled.increment();
+            }
+        } catch (CoseException e) {
+            // the algorithm is not supported by the COSE library, take() will report that to the caller
+        } finally {
+            queue.refillers.decrementAndGet();
+        }
+    }
+
+    private static final class AlgorithmQueue {
+        final BlockingQueue<OneKey> keys;
+        final AtomicInteger refillers;
+
+        AlgorithmQueue(int capacity) {
+            this.keys = new ArrayBlockingQueue<>(capacity);
+            this.refillers = new AtomicInteger();
+        }
+    }
+
+    private static final class RefillThreadFactory implements ThreadFactory {
+        private final int poolNumber = POOL_COUNT.incrementAndGet();
+        private final AtomicInteger threadCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "softauthn-key-pool-" + poolNumber + "-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    /**
+     * Usage statistics of a {@link KeyPool}.
+     */
+    public static final class Statistics {
+        private final long hits;
+        private final long misses;
+        private final long refilled;
+        private final long elapsedNanos;
+
+        private Statistics(long hits, long misses, long refilled, long elapsedNanos) {
+            this.hits = hits;
+            this.misses = misses;
+            this.refilled = refilled;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        /**
+         * Returns the number of keys that were taken from the pool.
+         *
+         * @return the number of pool hits.
+         */
+        public long getHits() {
+            return hits;
+        }
+
+        /**
+         * Returns the number of keys that had to be generated on the calling thread because the pool was empty.
+         *
+         * @return the number of pool misses.
+         */
+        public long getMisses() {
+            return misses;
+        }
+
+        /**
+         * Returns the number of keys that were generated by the background threads.
+         *
+         * @return the number of refilled keys.
+         */
+        public long getRefilled() {
+            return refilled;
+        }
+
+        /**
+         * Returns the average number of keys generated by the background threads per second since the pool was created.
+         *
+         * @return the refill rate in keys per second.
+         */
+        public double getRefillRate() {
+            return elapsedNanos == 0 ? 0 : refilled / (elapsedNanos / (double) TimeUnit.SECONDS.toNanos(1));
+        }
+
+        @Override
+        public String toString() {
+            return "KeyPool.Statistics{" +
+                    "hits=" + hits +
+                    ", misses=" + misses +
+                    ", refilled=" + refilled +
+                    ", refillRate=" + getRefillRate() +
+                    '}';
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package de.adesso.softauthn.authenticator;
+
+import com.yubico.webauthn.data.PublicKeyCredentialDescriptor;
+import com.yubico.webauthn.data.PublicKeyCredentialParameters;
+import com.yubico.webauthn.data.RelyingPartyIdentity;
+import com.yubico.webauthn.data.UserIdentity;
+import de.adesso.softauthn.Authenticator;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * The parameters of one <a href="https://www.w3.org/TR/2021/REC-webauthn-2-20210408/#sctn-op-make-cred">authenticatorMakeCredential</a>
+ * operation in a {@link WebAuthnAuthenticator#makeAttestationObjects(List) batch}.
+ * See {@link Authenticator#makeCredential} for a description of the parameters.
+ */
+public final class MakeCredentialRequest {
+
+    private final byte[] hash;
+    private final RelyingPartyIdentity rpEntity;
+    private final UserIdentity userEntity;
+    private final boolean requireResidentKey;
+    private final boolean requireUserVerification;
+    private final List<PublicKeyCredentialParameters> credTypesAndPubKeyAlgs;
+    private final Set<PublicKeyCredentialDescriptor> excludeCredentials;
+
+    /**
+     * Public constructor of this data class.
+     *
+     * @param hash The hash of the serialized client data.
+     * @param rpEntity The Relying Party entity.
+     * @param userEntity The user account's entity.
+     * @param requireResidentKey The effective resident key requirement.
+     * @param requireUserVerification The effective user verification requirement.
+     * @param credTypesAndPubKeyAlgs The requested algorithms, from most preferred to least preferred.
+     * @param excludeCredentials The credentials that must not exist on the authenticator yet, or {@code null}.
+     */
+    public MakeCredentialRequest(
+            byte[] hash, RelyingPartyIdentity rpEntity, UserIdentity userEntity,
+            boolean requireResidentKey, boolean requireUserVerification,
+            List<PublicKeyCredentialParameters> credTypesAndPubKeyAlgs,
+            Set<PublicKeyCredentialDescriptor> excludeCredentials
+    ) {
+        this.hash = Objects.requireNonNull(hash);
+        this.rpEntity = Objects.requireNonNull(rpEntity);
+        this.userEntity = Objects.requireNonNull(userEntity);
+        this.requireResidentKey = requireResidentKey;
+        this.requireUserVerification = requireUserVerification;
+        this.credTypesAndPubKeyAlgs = Objects.requireNonNull(credTypesAndPubKeyAlgs);
+        this.excludeCredentials = excludeCredentials == null ? Collections.emptySet() : excludeCredentials;
+    }
+
+    /**
+     * See {@link #MakeCredentialRequest(byte[], RelyingPartyIdentity, UserIdentity, boolean, boolean, List, Set) constructor} for a description of this field.
+     *
+     * @return The client data hash.
+     */
+    public byte[] getHash() {
+        return hash;
+    }
+
+    /**
+     * See {@link #MakeCredentialRequest(byte[], RelyingPartyIdentity, UserIdentity, boolean, boolean, List, Set) constructor} for a description of this field.
+     *
+     * @return The Relying Party entity.
+     */
+    public RelyingPartyIdentity getRpEntity() {
+        return rpEntity;
+    }
+
+    /**
+     * See {@link #MakeCredentialRequest(byte[], RelyingPartyIdentity, UserIdentity, boolean, boolean, List, Set) constructor} for a description of this field.
+     *
+     * @return The user entity.
+     */
+    public UserIdentity getUserEntity() {
+        return userEntity;
+    }
+
+    /**
+     * See {@link #MakeCredentialRequest(byte[], RelyingPartyIdentity, UserIdentity, boolean, boolean, List, Set) constructor} for a description of this field.
+     *
+     * @return Whether a resident key is required.
+     */
+    public boolean isRequireResidentKey() {
+        return requireResidentKey;
+    }
+
+    /**
+     * See {@link #MakeCredentialRequest(byte[], RelyingPartyIdentity, UserIdentity, boolean, boolean, List, Set) constructor} for a description of this field.
+     *
+     * @return Whether user verification is required.
+     */
+    public boolean isRequireUserVerification() {
+        return requireUserVerification;
+    }
+
+    /**
+     * See {@link #MakeCredentialRequest(byte[], RelyingPartyIdentity, UserIdentity, boolean, boolean, List, Set) constructor} for a description of this field.
+     *
+     * @return The requested algorithms.
+     */
+    public List<PublicKeyCredentialParameters> getCredTypesAndPubKeyAlgs() {
+        return credTypesAndPubKeyAlgs;
+    }
+
+    /**
+     * See {@link #MakeCredentialRequest(byte[], RelyingPartyIdentity, UserIdentity, boolean, boolean, List, Set) constructor} for a description of this field.
+     *
+     * @return The excluded credentials (never {@code null}).
+     */
+    public Set<PublicKeyCredentialDescriptor> getExcludeCredentials() {
+        return excludeCredentials;
+    }
+}
@@ -0,0 +1,161 @@
+package de.adesso.softauthn.authenticator;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * An input stream that reads a file through read-only memory mappings instead of read system calls.
+ * <p>The file is mapped in chunks, so it can be larger than a single {@link MappedByteBuffer} allows.
+ * {@link #close() Closing} the stream unmaps the file right away where the JVM allows it, rather than waiting
+ * for the mappings to be garbage collected.
+ */
+final class MappedInputStream extends InputStream {
+
+    private static final int CHUNK_SHIFT = 30;
+    private static final long CHUNK_SIZE = 1L << CHUNK_SHIFT;
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private ByteBuffer[] chunks;
+    private int chunk;
+
+    private MappedInputStream(ByteBuffer[] chunks) {
+        this.chunks = chunks;
+    }
+
+    /**
+     * Maps the given file. The file is not kept open, the mappings stay valid until the stream is closed.
+     */
+    static MappedInputStream open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            int chunkCount = (int) ((size + CHUNK_SIZE - 1) >>> CHUNK_SHIFT);
+            ByteBuffer[] chunks = new ByteBuffer[Math.max(1, chunkCount)];
+            chunks[0] = EMPTY;
+            for (int i = 0; i < chunkCount; i++) {
+                long position = (long) i << CHUNK_SHIFT;
+                chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(CHUNK_SIZE, size - position));
+            }
+            return new MappedInputStream(chunks);
+        }
+    }
+
+    /**
+     * Returns the current position in the file.
+     */
+    long position() {
+        return ((long) chunk << CHUNK_SHIFT) + chunks[chunk].position();
+    }
+
+    @Override
+    public int read() {
+        ByteBuffer current = current();
+        return current == null ? -1 : current.get() & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        if (len == 0) {
+            return 0;
+        }
+        ByteBuffer current = current();
+        if (current == null) {
+            return -1;
+        }
+        int n = Math.min(len, current.remaining());
+        current.get(b, off, n);
+        return n;
+    }
+
+    @Override
+    public long skip(long n) {
+        long skipped = 0;
+        ByteBuffer current;
+        while (skipped < n && (current = current()) != null) {
+            int step = (int) Math.min(n - skipped, current.remaining());
+            current.position(current.position() + step);
+            skipped += step;
+        }
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        ByteBuffer current = current();
+        return current == null ? 0 : current.remaining();
+    }
+
+    /**
+     * Unmaps the file. The stream is at its end afterwards.
+     */
+    @Override
+    public void close() {
+        ByteBuffer[] mapped = chunks;
+        chunks = new ByteBuffer[]{EMPTY};
+        chunk = 0;
+        for (ByteBuffer buffer : mapped) {
+            Unmapper.unmap(buffer);
+        }
+    }
+
+    // the chunk that still has remaining bytes, or null at the end of the file
+    private ByteBuffer current() {
+        while (!chunks[chunk].hasRemaining()) {
+            if (chunk == chunks.length - 1) {
+                return null;
+            }
+            chunk++;
+            chunks[chunk].position(0);
+        }
+        return chunks[chunk];
+    }
+
+    // releases mappings via the JDK's internal cleaner, which has no public API before Java 19
+    private static final class Unmapper {
+        private static final Object UNSAFE;
+        private static final Method INVOKE_CLEANER;
+
+        static {
+            Object unsafe = null;
+            Method invokeCleaner = null;
+            try {
+                Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+                invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+                Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+                theUnsafe.setAccessible(true);
+                unsafe = theUnsafe.get(null);
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                // Java 8, see unmap
+                invokeCleaner = null;
+            }
+            UNSAFE = unsafe;
+            INVOKE_CLEANER = invokeCleaner;
+        }
+
+        static void unmap(ByteBuffer buffer) {
+            if (!buffer.isDirect()) {
+                return;
+            }
+            try {
+                if (INVOKE_CLEANER != null) {
+                    INVOKE_CLEANER.invoke(UNSAFE, buffer);
+                } else {
+                    Method cleaner = buffer.getClass().getMethod("cleaner");
+                    cleaner.setAccessible(true);
+                    Object clean = cleaner.invoke(buffer);
+                    if (clean != null) {
+                        clean.getClass().getMethod("clean").invoke(clean);
+                    }
+                }
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                // not allowed on this JVM, the mapping is released when the buffer is garbage collected
+            }
+        }
+    }
+}
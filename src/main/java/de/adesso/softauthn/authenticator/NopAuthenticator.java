@@ -2,6 +2,7 @@ package de.adesso.softauthn.authenticator;
 
 import com.upokecenter.cbor.CBORObject;
 import com.yubico.webauthn.data.AuthenticatorAttachment;
+import com.yubico.webauthn.data.ByteArray;
 import com.yubico.webauthn.data.PublicKeyCredentialDescriptor;
 import com.yubico.webauthn.data.PublicKeyCredentialParameters;
 import com.yubico.webauthn.data.RelyingPartyIdentity;
@@ -57,6 +58,15 @@ public class NopAuthenticator implements Authenticator {
         throw new UnsupportedOperationException("I don't do anything");
     }
 
+    /**
+     * Implementation that <strong>always</strong> returns {@code false}.
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean hasCredential(String rpId, ByteArray credentialId) {
+        return false;
+    }
+
     @Override
     public AuthenticatorAttachment getAttachment() {
         return attachment;
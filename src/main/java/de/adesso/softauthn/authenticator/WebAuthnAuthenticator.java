@@ -2,13 +2,16 @@ package de.adesso.softauthn.authenticator;
 
 import COSE.AlgorithmID;
 import COSE.CoseException;
-import COSE.KeyKeys;
 import COSE.OneKey;
+import de.adesso.softauthn.AttestationObject;
 import de.adesso.softauthn.Authenticator;
 import de.adesso.softauthn.AuthenticatorAssertionData;
 import de.adesso.softauthn.Authenticators;
+import de.adesso.softauthn.CompactPublicKeyCredentialSource;
 import de.adesso.softauthn.PublicKeyCredentialSource;
 import de.adesso.softauthn.counter.SignatureCounter;
+import de.adesso.softauthn.internal.InstancePool;
+import de.adesso.softauthn.store.CredentialStore;
 import com.upokecenter.cbor.CBORObject;
 import com.yubico.webauthn.data.AuthenticatorAttachment;
 import com.yubico.webauthn.data.ByteArray;
@@ -20,9 +23,13 @@ import com.yubico.webauthn.data.RelyingPartyIdentity;
 import com.yubico.webauthn.data.UserIdentity;
 import net.i2p.crypto.eddsa.EdDSASecurityProvider;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.security.InvalidKeyException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
@@ -31,8 +38,11 @@ import java.security.SecureRandom;
 import java.security.Security;
 import java.security.Signature;
 import java.security.SignatureException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.EnumMap;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -42,7 +52,11 @@ import java.util.NoSuchElementException;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
  * An implementation of {@link Authenticator} that attempts to cover most of the
@@ -51,6 +65,7 @@ import java.util.function.Function;
  * in ways that depend on the configuration of the specific instance.<br>
  * I.e., you can configure what capabilities should be emulated by instances of this implementation. One instance could
  * support resident keys and user verification while another could not, for example.
+ * <p>Instances are not thread-safe, unless they are built as {@link WebAuthnAuthenticatorBuilder#concurrent(boolean) concurrent} authenticators.
  *
  * @see #builder()
  * @see Authenticators
@@ -59,6 +74,23 @@ public class WebAuthnAuthenticator implements Authenticator {
 
     private static final Set<COSEAlgorithmIdentifier> COSE_LIB_SUPPORT = EnumSet.of(COSEAlgorithmIdentifier.ES256, COSEAlgorithmIdentifier.EdDSA);
     private static final Map<AlgorithmID, String> JAVA_ALGORITHM_NAMES = new HashMap<>();
+    // Signature objects are not thread-safe, but can be re-initialized with a different key for every signature
+    private static final InstancePool<Map<AlgorithmID, Signature>> SIGNATURES
+            = InstancePool.withInitial(() -> new EnumMap<>(AlgorithmID.class));
+    private static final InstancePool<MessageDigest> SHA_256 = InstancePool.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("SHA-256 is not available", e);
+        }
+    });
+    // only a handful of RP IDs are used in practice, so this is bounded by simply not caching any more beyond the limit
+    private static final int RP_ID_HASH_CACHE_SIZE = 1024;
+    private static final int AUTHENTICATOR_DATA_HEADER_LENGTH = 32 + 1 + 4;
+    // authenticator data without attested credential data followed by a SHA-256 client data hash
+    private static final InstancePool<byte[]> SIGN_BUFFER
+            = InstancePool.withInitial(() -> new byte[AUTHENTICATOR_DATA_HEADER_LENGTH + 32]);
+    private static final Map<String, byte[]> RP_ID_HASHES = new ConcurrentHashMap<>();
 
     static {
         Security.addProvider(new EdDSASecurityProvider());
@@ -73,7 +105,7 @@ public class WebAuthnAuthenticator implements Authenticator {
     }
 
     private final SecureRandom random;
-    private final Map<SourceKey, PublicKeyCredentialSource> storedSources;
+    private final CredentialStore storedSources;
 
     private final byte[] aaguid;
     private final AuthenticatorAttachment attachment;
@@ -84,6 +116,14 @@ public class WebAuthnAuthenticator implements Authenticator {
 
     private final SignatureCounter signatureCounter;
 
+    private final KeyPool keyPool;
+    private final byte[] credentialWrappingKey;
+    private final CredentialIdWrapper credentialIdWrapper;
+    private final CredentialSourceCache credentialSourceCache;
+    private final boolean compactCredentialSources;
+    // one RP ID string per relying party, shared by its compact credential sources
+    private final ConcurrentMap<String, String> rpIds = new ConcurrentHashMap<>();
+
     private Function<? super Set<PublicKeyCredentialSource>, PublicKeyCredentialSource> credentialSelection;
 
     protected WebAuthnAuthenticator(
@@ -93,6 +133,11 @@ public class WebAuthnAuthenticator implements Authenticator {
             boolean supportsClientSideDiscoverablePublicKeyCredentialSources,
             boolean supportsUserVerification,
             SignatureCounter signatureCounter,
+            CredentialStore credentialStore,
+            KeyPool keyPool,
+            byte[] credentialWrappingKey,
+            int credentialSourceCacheSize,
+            boolean compactCredentialSources,
             Function<? super Set<PublicKeyCredentialSource>, PublicKeyCredentialSource> credentialSelection
     ) {
         if (aaguid.length != 16) {
@@ -105,8 +150,21 @@ public class WebAuthnAuthenticator implements Authenticator {
         this.supportsUserVerification = supportsUserVerification;
         this.signatureCounter = Objects.requireNonNull(signatureCounter);
         this.credentialSelection = Objects.requireNonNull(credentialSelection);
-        this.storedSources = new HashMap<>();
+        this.storedSources = Objects.requireNonNull(credentialStore);
+        this.keyPool = keyPool;
         this.random = new SecureRandom();
+        this.credentialWrappingKey = credentialWrappingKey == null ? null : credentialWrappingKey.clone();
+        this.credentialIdWrapper = credentialWrappingKey == null ? null : new CredentialIdWrapper(credentialWrappingKey, random);
+        this.credentialSourceCache = credentialSourceCacheSize > 0 ? new CredentialSourceCache(credentialSourceCacheSize) : null;
+        this.compactCredentialSources = compactCredentialSources;
+        if (keyPool != null) {
+            for (COSEAlgorithmIdentifier algorithm : this.supportedAlgorithms) {
+                AlgorithmID coseAlgorithm = convertAlgId(algorithm);
+                if (coseAlgorithm != null) {
+                    keyPool.prefill(coseAlgorithm);
+                }
+            }
+        }
     }
 
     /**
@@ -124,8 +182,74 @@ public class WebAuthnAuthenticator implements Authenticator {
             boolean requireUserVerification, List<PublicKeyCredentialParameters> credTypesAndPubKeyAlgs,
             Set<PublicKeyCredentialDescriptor> excludeCredentials, boolean enterpriseAttestationPossible, byte[] extensions
     ) {
+        return makeAttestationObject(hash, rpEntity, userEntity, requireResidentKey, requireUserVerification,
+                credTypesAndPubKeyAlgs, excludeCredentials, enterpriseAttestationPossible, extensions).toCBOR();
+    }
+
+    @Override
+    public AttestationObject makeAttestationObject(
+            byte[] hash, RelyingPartyIdentity rpEntity, UserIdentity userEntity, boolean requireResidentKey,
+            boolean requireUserVerification, List<PublicKeyCredentialParameters> credTypesAndPubKeyAlgs,
+            Set<PublicKeyCredentialDescriptor> excludeCredentials, boolean enterpriseAttestationPossible, byte[] extensions
+    ) {
+        checkExcludedCredentials(rpEntity, excludeCredentials);
+        checkCapabilities(requireResidentKey, requireUserVerification);
+        COSEAlgorithmIdentifier algId = negotiateAlgorithm(credTypesAndPubKeyAlgs);
+        PendingCredential credential = prepareCredential(algId, coseAlgorithm(algId), rpEntity.getId(), userEntity,
+                requireResidentKey);
+        return storeCredential(credential, requireUserVerification);
+    }
+
+    /**
+     * Creates a credential for every request, like calling {@link #makeAttestationObject} for each of them
+     * (without extensions or enterprise attestation), but faster for many requests.
+     * <p>Algorithm negotiation is done once per distinct list of requested algorithms. Key generation and encoding the
+     * credential IDs run in parallel on the common {@link java.util.concurrent.ForkJoinPool}. Storing resident
+     * credentials and initializing signature counters happen on the calling thread, in the order of the requests.
+     * <p>All requests are checked (excluded credentials, capabilities and algorithms) before any credential is stored,
+     * so a request that is invalid or unsupported leaves this authenticator unchanged. Storing can still fail partway,
+     * e.g. when a credential store with a fixed capacity such as {@link de.adesso.softauthn.store.MappedCredentialStore}
+     * is full. The credentials of the earlier requests then remain stored. Credentials created earlier in the same batch
+     * are not considered for {@code excludeCredentials}.
+     *
+     * @param requests The requests.
+     * @return The attestation objects, in the order of the requests.
+     * @throws IllegalArgumentException If the parameters of a request are malformed in any way.
+     * @throws UnsupportedOperationException If a request asks for something that this authenticator does not support.
+     * @throws IllegalStateException If a request excludes a credential that this authenticator contains,
+     * or if the credential store cannot hold another credential.
+     */
+    public List<AttestationObject> makeAttestationObjects(List<MakeCredentialRequest> requests) {
+        int size = requests.size();
+        COSEAlgorithmIdentifier[] algorithms = new COSEAlgorithmIdentifier[size];
+        AlgorithmID[] coseAlgorithms = new AlgorithmID[size];
+        Map<List<PublicKeyCredentialParameters>, COSEAlgorithmIdentifier> negotiated = new HashMap<>();
+        Map<COSEAlgorithmIdentifier, AlgorithmID> converted = new EnumMap<>(COSEAlgorithmIdentifier.class);
+        for (int i = 0; i < size; i++) {
+            MakeCredentialRequest request = requests.get(i);
+            checkExcludedCredentials(request.getRpEntity(), request.getExcludeCredentials());
+            checkCapabilities(request.isRequireResidentKey(), request.isRequireUserVerification());
+            algorithms[i] = negotiated.computeIfAbsent(request.getCredTypesAndPubKeyAlgs(), this::negotiateAlgorithm);
+            coseAlgorithms[i] = converted.computeIfAbsent(algorithms[i], WebAuthnAuthenticator::coseAlgorithm);
+        }
+
+        PendingCredential[] credentials = new PendingCredential[size];
+        IntStream.range(0, size).parallel().forEach(i -> {
+            MakeCredentialRequest request = requests.get(i);
+            credentials[i] = prepareCredential(algorithms[i], coseAlgorithms[i], request.getRpEntity().getId(),
+                    request.getUserEntity(), request.isRequireResidentKey());
+        });
+
+        List<AttestationObject> attestationObjects = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            attestationObjects.add(storeCredential(credentials[i], requests.get(i).isRequireUserVerification()));
+        }
+        return attestationObjects;
+    }
+
+    private void checkExcludedCredentials(RelyingPartyIdentity rpEntity, Set<PublicKeyCredentialDescriptor> excludeCredentials) {
         for (PublicKeyCredentialDescriptor descriptor : excludeCredentials) {
-            PublicKeyCredentialSource source = lookup(descriptor.getId()).orElse(null);
+            PublicKeyCredentialSource source = lookup(descriptor.getId(), rpEntity.getId()).orElse(null);
             if (source == null) {
                 continue;
             }
@@ -135,7 +259,9 @@ public class WebAuthnAuthenticator implements Authenticator {
             }
 
         }
+    }
 
+    private void checkCapabilities(boolean requireResidentKey, boolean requireUserVerification) {
         if (requireResidentKey && !supportsClientSideDiscoverablePublicKeyCredentialSources) {
             throw new UnsupportedOperationException(
                     "Authenticator cannot store client-side discoverable public key credential sources");
@@ -145,19 +271,33 @@ public class WebAuthnAuthenticator implements Authenticator {
             throw new UnsupportedOperationException(
                     "Authenticator cannot perform user verification");
         }
+    }
 
-
-        COSEAlgorithmIdentifier algId = credTypesAndPubKeyAlgs.stream()
+    private COSEAlgorithmIdentifier negotiateAlgorithm(List<PublicKeyCredentialParameters> credTypesAndPubKeyAlgs) {
+        return credTypesAndPubKeyAlgs.stream()
                 .map(PublicKeyCredentialParameters::getAlg)
                 .filter(supportedAlgorithms::contains)
                 .findFirst()
                 .orElseThrow(() -> new UnsupportedOperationException("Authenticator does not support any of the available algorithms"));
+    }
 
+    private static AlgorithmID coseAlgorithm(COSEAlgorithmIdentifier algId) {
+        try {
+            // TODO: 15/09/2022 support RS256 and RS1 here
+            return AlgorithmID.FromCBOR(CBORObject.FromObject((int) algId.getId()));
+        } catch (CoseException e) {
+            throw new UnsupportedOperationException("Algorithm " + algId + " not supported", e);
+        }
+    }
 
+    // generates the key and the credential id, but does not change the state of this authenticator
+    private PendingCredential prepareCredential(
+            COSEAlgorithmIdentifier algId, AlgorithmID coseAlgId, String rpId, UserIdentity userEntity,
+            boolean requireResidentKey
+    ) {
         OneKey key;
         try {
-            // TODO: 15/09/2022 support RS256 and RS1 here
-            key = OneKey.generateKey(AlgorithmID.FromCBOR(CBORObject.FromObject((int) algId.getId())));
+            key = keyPool != null ? keyPool.take(coseAlgId) : OneKey.generateKey(coseAlgId);
         } catch (CoseException e) {
             throw new UnsupportedOperationException("Algorithm " + algId + " not supported", e);
         }
@@ -166,40 +306,66 @@ public class WebAuthnAuthenticator implements Authenticator {
         PublicKeyCredentialSource credentialSource = new PublicKeyCredentialSource(
                 PublicKeyCredentialType.PUBLIC_KEY,
                 key,
-                rpEntity.getId(),
+                compactCredentialSources ? canonicalRpId(rpId) : rpId,
                 userHandle
         );
+        if (compactCredentialSources) {
+            credentialSource = CompactPublicKeyCredentialSource.of(credentialSource)
+                    .map(PublicKeyCredentialSource.class::cast)
+                    .orElse(credentialSource);
+        }
 
         byte[] credentialId;
         if (requireResidentKey) {
             // section 7.3 of
             // https://fidoalliance.org/specs/fido-uaf-v1.1-id-20170202/fido-uaf-authnr-cmds-v1.1-id-20170202.html
-            credentialId = new byte[32];
+            credentialId = new byte[CredentialIdFormat.RESIDENT_LENGTH];
             random.nextBytes(credentialId);
+            credentialId[0] = CredentialIdFormat.RESIDENT_HEADER;
             credentialSource.setId(new ByteArray(credentialId));
-            storedSources.put(new SourceKey(rpEntity.getId(), userHandle), credentialSource);
         } else {
-            credentialId = credentialSource.serialize();
+            credentialId = credentialIdWrapper == null
+                    ? credentialSource.serialize()
+                    : credentialIdWrapper.wrap(credentialSource).orElseGet(credentialSource::serialize);
         }
 
         byte[] cosePublicKey = key.PublicKey().EncodeToBytes();
+        return new PendingCredential(credentialSource, requireResidentKey, credentialId, cosePublicKey);
+    }
 
-        byte[] attestedCredentialData = createAttestedCredentialData(credentialId, cosePublicKey);
+    private String canonicalRpId(String rpId) {
+        String canonical = rpIds.putIfAbsent(rpId, rpId);
+        return canonical == null ? rpId : canonical;
+    }
+
+    private AttestationObject storeCredential(PendingCredential credential, boolean requireUserVerification) {
+        ByteArray credentialId = new ByteArray(credential.credentialId);
+        // the count must exist before the source is published, a concurrent discoverable assertion can find it
+        // in the store right away
+        int signatureCount = signatureCounter.initialize(credentialId);
+        if (credential.resident) {
+            Optional<PublicKeyCredentialSource> replaced;
+            try {
+                replaced = storedSources.put(credential.source);
+            } catch (RuntimeException e) {
+                signatureCounter.discard(credentialId);
+                throw e;
+            }
+            replaced.ifPresent(source -> signatureCounter.discard(source.getId()));
+        }
+
+        byte[] attestedCredentialData = createAttestedCredentialData(credential.credentialId, credential.cosePublicKey);
         // TODO: 12/09/2022 handle extensions
         byte[] processedExtensions = null;
-        int signatureCount = signatureCounter.initialize(new ByteArray(credentialId));
         byte[] authenticatorData = createAuthenticatorData(
-                rpEntity.getId(), true,
+                credential.source.getRpId(), true,
                 requireUserVerification, signatureCount,
                 attestedCredentialData, processedExtensions
         );
 
         // TODO: 09/09/2022 support different attestation formats
 
-        return CBORObject.NewMap()
-                .Add("fmt", "none")
-                .Add("attStmt", CBORObject.NewMap())
-                .Add("authData", authenticatorData);
+        return new AttestationObject("none", null, authenticatorData);
     }
 
     private byte[] createAttestedCredentialData(byte[] credentialId, byte[] cosePublicKey) {
@@ -221,15 +387,116 @@ public class WebAuthnAuthenticator implements Authenticator {
             List<PublicKeyCredentialDescriptor> allowedCredentialDescriptorList,
             boolean requireUserVerification, byte[] extensions
     ) {
-        Set<PublicKeyCredentialSource> credentialOptions = new HashSet<>();
+        PublicKeyCredentialSource selectedCredential = selectCredential(
+                findCredentials(rpId, allowedCredentialDescriptorList), requireUserVerification);
+        AlgorithmID algId = signatureAlgorithm(selectedCredential);
+
+        // TODO: 12/09/2022 handle extensions (processed extensions would go between authenticator data and hash)
+        int signatureCount = signatureCounter.increment(selectedCredential.getId());
+
+        // authenticatorData || hash is assembled in a reused buffer and signed from there
+        int signDataLength = AUTHENTICATOR_DATA_HEADER_LENGTH + hash.length;
+        byte[] signData = SIGN_BUFFER.acquire();
+        if (signData.length < signDataLength) {
+            signData = new byte[signDataLength];
+        }
+        byte[] signature;
+        byte[] authenticatorData;
+        try {
+            writeSignData(signData, rpId, hash, requireUserVerification, signatureCount);
+            signature = computeSignature(algId, signData, signDataLength, selectedCredential);
+            authenticatorData = Arrays.copyOf(signData, AUTHENTICATOR_DATA_HEADER_LENGTH);
+        } finally {
+            SIGN_BUFFER.release(signData);
+        }
+        return new AuthenticatorAssertionData(selectedCredential.getId(),
+                new ByteArray(authenticatorData), new ByteArray(signature),
+                selectedCredential.getUserHandle());
+
+    }
+
+    // the credential is looked up as for an assertion, so a cached server-side source is reused by the assertion
+    @Override
+    public boolean hasCredential(String rpId, ByteArray credentialId) {
+        return lookup(credentialId, rpId).filter(source -> rpId.equals(source.getRpId())).isPresent();
+    }
+
+    /**
+     * Creates an assertion for every request, like calling {@link #getAssertion} for each of them
+     * (without extensions), but faster for many requests.
+     * <p>Looking up the allowed credentials (which means decoding the IDs of non-resident credentials) and signing run
+     * in parallel on the common {@link java.util.concurrent.ForkJoinPool}. How far the lookups actually run in parallel
+     * depends on the credential store and the credential source cache, which are accessed from all of these threads
+     * (the built-in ones allow concurrent lookups). Credential selection and signature counter increments happen on
+     * the calling thread, in the order of the requests, so several requests for the same credential get increasing
+     * counters.
+     * <p>A credential is selected for every request before any signature counter is incremented, so if no credential
+     * matches one of them, this authenticator is left unchanged. An increment can still fail partway, e.g. if a
+     * resident credential is replaced concurrently. The counters of the earlier requests then remain incremented, which
+     * relying parties accept, as signature counts only have to increase.
+     *
+     * @param requests The requests.
+     * @return The assertion data, in the order of the requests.
+     * @throws IllegalArgumentException If the parameters of a request are malformed in any way.
+     * @throws NoSuchElementException If no matching credential can be found for a request.
+     * @throws UnsupportedOperationException If a request asks for something that this authenticator does not support.
+     * @throws IllegalStateException If the signature counter has no count for a selected credential.
+     */
+    public List<AuthenticatorAssertionData> getAssertions(List<GetAssertionRequest> requests) {
+        int size = requests.size();
+        List<Set<PublicKeyCredentialSource>> credentialOptions = requests.parallelStream()
+                .map(request -> findCredentials(request.getRpId(), request.getAllowedCredentialDescriptorList()))
+                .collect(Collectors.toList());
+
+        PublicKeyCredentialSource[] selectedCredentials = new PublicKeyCredentialSource[size];
+        AlgorithmID[] algorithms = new AlgorithmID[size];
+        for (int i = 0; i < size; i++) {
+            selectedCredentials[i] = selectCredential(credentialOptions.get(i), requests.get(i).isRequireUserVerification());
+            algorithms[i] = signatureAlgorithm(selectedCredentials[i]);
+        }
+
+        byte[][] signData = new byte[size][];
+        for (int i = 0; i < size; i++) {
+            GetAssertionRequest request = requests.get(i);
+            int signatureCount = signatureCounter.increment(selectedCredentials[i].getId());
+            signData[i] = new byte[AUTHENTICATOR_DATA_HEADER_LENGTH + request.getHash().length];
+            writeSignData(signData[i], request.getRpId(), request.getHash(), request.isRequireUserVerification(),
+                    signatureCount);
+        }
+
+        byte[][] signatures = new byte[size][];
+        IntStream.range(0, size).parallel().forEach(i -> signatures[i]
+                = computeSignature(algorithms[i], signData[i], signData[i].length, selectedCredentials[i]));
+
+        List<AuthenticatorAssertionData> assertions = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            PublicKeyCredentialSource selectedCredential = selectedCredentials[i];
+            assertions.add(new AuthenticatorAssertionData(selectedCredential.getId(),
+                    new ByteArray(Arrays.copyOf(signData[i], AUTHENTICATOR_DATA_HEADER_LENGTH)),
+                    new ByteArray(signatures[i]), selectedCredential.getUserHandle()));
+        }
+        return assertions;
+    }
+
+    private Set<PublicKeyCredentialSource> findCredentials(
+            String rpId, List<PublicKeyCredentialDescriptor> allowedCredentialDescriptorList
+    ) {
         if (allowedCredentialDescriptorList != null) {
+            Set<PublicKeyCredentialSource> allowedSources = new HashSet<>();
             for (PublicKeyCredentialDescriptor descriptor : allowedCredentialDescriptorList) {
-                lookup(descriptor.getId()).ifPresent(credentialOptions::add);
+                lookup(descriptor.getId(), rpId)
+                        .filter(source -> rpId.equals(source.getRpId()))
+                        .ifPresent(allowedSources::add);
             }
-        } else {
-            credentialOptions.addAll(storedSources.values());
+            return Collections.unmodifiableSet(allowedSources);
         }
-        credentialOptions.removeIf(source -> !rpId.equals(source.getRpId()));
+        // the store partitions resident credentials by rpId, so this is a view of just this RP's credentials
+        return storedSources.findByRpId(rpId);
+    }
+
+    private PublicKeyCredentialSource selectCredential(
+            Set<PublicKeyCredentialSource> credentialOptions, boolean requireUserVerification
+    ) {
         if (credentialOptions.isEmpty()) {
             throw new NoSuchElementException("No credential source matches input parameters");
         }
@@ -238,43 +505,67 @@ public class WebAuthnAuthenticator implements Authenticator {
             throw new UnsupportedOperationException("Authenticator does not support user verification");
         }
 
-        PublicKeyCredentialSource selectedCredential
-                = credentialSelection.apply(Collections.unmodifiableSet(credentialOptions));
-
-        // TODO: 12/09/2022 handle extensions
-        byte[] processedExtensions = null;
-        int signatureCount = signatureCounter.increment(selectedCredential.getId());
-        byte[] authenticatorData = createAuthenticatorData(
-                rpId, true, requireUserVerification,
-                signatureCount, null, processedExtensions
-        );
-
+        // for discoverable credentials, the options are a live view of the store. In concurrent mode, credentials can
+        // be removed after the emptiness check above, and the selection then finds nothing to choose from
+        PublicKeyCredentialSource selected;
+        try {
+            selected = credentialSelection.apply(credentialOptions);
+        } catch (NoSuchElementException e) {
+            selected = null;
+        }
+        if (selected == null) {
+            throw new NoSuchElementException("No credential source matches input parameters");
+        }
+        return selected;
+    }
 
-        OneKey key = selectedCredential.getKey();
-        AlgorithmID algId;
+    private static AlgorithmID signatureAlgorithm(PublicKeyCredentialSource credential) {
         try {
-            algId = AlgorithmID.FromCBOR(key.get(KeyKeys.Algorithm));
+            return credential.getAlgorithm();
         } catch (CoseException e) {
             throw new UnsupportedOperationException("Unsupported signature algorithm", e);
         }
-        byte[] signData = new byte[authenticatorData.length + hash.length];
-        System.arraycopy(authenticatorData, 0, signData, 0, authenticatorData.length);
-        System.arraycopy(hash, 0, signData, authenticatorData.length, hash.length);
-
-        byte[] signature = computeSignature(algId, signData, key);
-        return new AuthenticatorAssertionData(selectedCredential.getId(),
-                new ByteArray(authenticatorData), new ByteArray(signature),
-                selectedCredential.getUserHandle());
+    }
 
+    // writes authenticatorData || hash for an assertion to the target
+    private void writeSignData(byte[] target, String rpId, byte[] hash, boolean userVerification, int signatureCount) {
+        writeAuthenticatorDataHeader(target, rpId,
+                generateAuthenticatorDataFlags(false, false, userVerification, true), signatureCount);
+        System.arraycopy(hash, 0, target, AUTHENTICATOR_DATA_HEADER_LENGTH, hash.length);
     }
 
-    private Optional<PublicKeyCredentialSource> lookup(ByteArray credentialId) {
-        return PublicKeyCredentialSource.deserialize(credentialId)
-                .map(Optional::of)
-                .orElseGet(() -> storedSources.values().stream().filter(source -> source.getId().equals(credentialId)).findFirst());
+    private Optional<PublicKeyCredentialSource> lookup(ByteArray credentialId, String rpId) {
+        byte[] bytes = credentialId.getBytes();
+        CredentialIdFormat format = CredentialIdFormat.classify(bytes);
+        if (format != CredentialIdFormat.WRAPPED && format != CredentialIdFormat.SERIALIZED) {
+            // resident credential IDs, including those created before they were tagged
+            return storedSources.findById(credentialId);
+        }
+
+        if (credentialSourceCache != null) {
+            PublicKeyCredentialSource cached = credentialSourceCache.get(credentialId);
+            if (cached != null) {
+                return Optional.of(cached);
+            }
+        }
+        Optional<PublicKeyCredentialSource> decoded;
+        if (format == CredentialIdFormat.WRAPPED) {
+            decoded = credentialIdWrapper == null
+                    ? Optional.empty()
+                    : credentialIdWrapper.unwrap(credentialId, bytes, rpId);
+        } else {
+            decoded = PublicKeyCredentialSource.deserialize(credentialId);
+            if (!decoded.isPresent()) {
+                return storedSources.findById(credentialId);
+            }
+        }
+        if (credentialSourceCache != null) {
+            decoded.ifPresent(source -> credentialSourceCache.put(credentialId, source));
+        }
+        return decoded;
     }
 
-    private byte[] computeSignature(AlgorithmID alg, byte[] rgbToBeSigned, OneKey cnKey) {
+    private byte[] computeSignature(AlgorithmID alg, byte[] rgbToBeSigned, int length, PublicKeyCredentialSource source) {
         String algName = JAVA_ALGORITHM_NAMES.get(alg);
 
         if (algName == null) {
@@ -282,22 +573,32 @@ public class WebAuthnAuthenticator implements Authenticator {
         }
         PrivateKey privKey;
         try {
-            privKey = cnKey.AsPrivateKey();
+            // compact sources don't keep their converted key, the bounded cache does if there is one
+            privKey = credentialSourceCache != null && source instanceof CompactPublicKeyCredentialSource
+                    ? credentialSourceCache.privateKey(source)
+                    : source.getPrivateKey();
         } catch (CoseException e) {
             throw new AssertionError(e);
         }
 
         byte[] result;
+        Map<AlgorithmID, Signature> signatures = SIGNATURES.acquire();
         try {
-            Signature sig = Signature.getInstance(algName);
+            Signature sig = signatures.get(alg);
+            if (sig == null) {
+                sig = Signature.getInstance(algName);
+                signatures.put(alg, sig);
+            }
             // FIXME: 15/09/2022 provide algorithm parameter spec if required
             sig.initSign(privKey);
-            sig.update(rgbToBeSigned);
+            sig.update(rgbToBeSigned, 0, length);
             result = sig.sign();
         } catch (NoSuchAlgorithmException ex) {
             throw new RuntimeException("Required algorithm not available. Did you forget to register a provider?", ex);
         } catch (SignatureException | InvalidKeyException e) {
             throw new RuntimeException("Signature failed", e);
+        } finally {
+            SIGNATURES.release(signatures);
         }
 
         return result;
@@ -307,30 +608,48 @@ public class WebAuthnAuthenticator implements Authenticator {
             String rpId, boolean userPresence, boolean userVerification,
             int signatureCounter, byte[] attestedCredentialData, byte[] extensions
     ) {
-        MessageDigest sha256;
-        try {
-            sha256 = MessageDigest.getInstance("SHA-256");
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException("SHA-256 is not available", e);
-        }
-        byte[] rpIdHash = sha256.digest(rpId.getBytes(StandardCharsets.UTF_8));
-
-
         boolean ed = extensions != null;
         boolean at = attestedCredentialData != null;
         byte flags = generateAuthenticatorDataFlags(ed, at, userVerification, userPresence);
-        ByteBuffer authenticatorData = ByteBuffer.allocate(32 + 1 + 4 + (at ? attestedCredentialData.length : 0) + (ed ? extensions.length : 0))
-                .order(ByteOrder.BIG_ENDIAN)
-                .put(rpIdHash, 0, 32)
-                .put(flags)
-                .putInt(signatureCounter);
+        byte[] authenticatorData = new byte[AUTHENTICATOR_DATA_HEADER_LENGTH + (at ? attestedCredentialData.length : 0) + (ed ? extensions.length : 0)];
+        writeAuthenticatorDataHeader(authenticatorData, rpId, flags, signatureCounter);
+        int offset = AUTHENTICATOR_DATA_HEADER_LENGTH;
         if (at) {
-            authenticatorData.put(attestedCredentialData);
+            System.arraycopy(attestedCredentialData, 0, authenticatorData, offset, attestedCredentialData.length);
+            offset += attestedCredentialData.length;
         }
         if (ed) {
-            authenticatorData.put(extensions);
+            System.arraycopy(extensions, 0, authenticatorData, offset, extensions.length);
         }
-        return authenticatorData.array();
+        return authenticatorData;
+    }
+
+    // writes rpIdHash, flags and signature counter to the first 37 bytes of the target
+    private void writeAuthenticatorDataHeader(byte[] target, String rpId, byte flags, int signatureCounter) {
+        System.arraycopy(rpIdHash(rpId), 0, target, 0, 32);
+        target[32] = flags;
+        // signature counter, big endian
+        target[33] = (byte) (signatureCounter >>> 24);
+        target[34] = (byte) (signatureCounter >>> 16);
+        target[35] = (byte) (signatureCounter >>> 8);
+        target[36] = (byte) signatureCounter;
+    }
+
+    // the returned array is shared and must not be modified
+    private static byte[] rpIdHash(String rpId) {
+        byte[] rpIdHash = RP_ID_HASHES.get(rpId);
+        if (rpIdHash == null) {
+            MessageDigest sha256 = SHA_256.acquire();
+            try {
+                rpIdHash = sha256.digest(rpId.getBytes(StandardCharsets.UTF_8));
+            } finally {
+                SHA_256.release(sha256);
+            }
+            if (RP_ID_HASHES.size() < RP_ID_HASH_CACHE_SIZE) {
+                RP_ID_HASHES.putIfAbsent(rpId, rpIdHash);
+            }
+        }
+        return rpIdHash;
     }
 
     // https://www.w3.org/TR/2021/REC-webauthn-2-20210408/#authenticator-data-perform-the-following-steps-to-generate-an-authenticator-data-structure
@@ -362,6 +681,53 @@ public class WebAuthnAuthenticator implements Authenticator {
         }
     }
 
+    /**
+     * Returns the usage statistics of the cache of decoded server-side credential sources.
+     *
+     * @return An optional containing the statistics, or the empty optional if this authenticator has no cache.
+     * @see WebAuthnAuthenticatorBuilder#credentialSourceCacheSize(int)
+     */
+    public Optional<CredentialSourceCache.Statistics> credentialSourceCacheStatistics() {
+        return Optional.ofNullable(credentialSourceCache).map(CredentialSourceCache::statistics);
+    }
+
+    /**
+     * Saves the state of this authenticator to the given file, so that it can be restored later via
+     * {@link WebAuthnAuthenticatorBuilder#restoreSnapshot(Path)}.
+     *
+     * <p><b>The snapshot contains the credential wrapping key and the private keys of all resident credentials
+     * unencrypted</b>, see {@link #writeSnapshot(OutputStream)}.
+     *
+     * @param file The file to write the snapshot to. It is replaced if it exists.
+     * @throws IOException If the file cannot be written.
+     * @see #writeSnapshot(OutputStream)
+     */
+    public void writeSnapshot(Path file) throws IOException {
+        try (OutputStream out = Files.newOutputStream(file)) {
+            writeSnapshot(out);
+        }
+    }
+
+    /**
+     * Writes the state of this authenticator to the given stream in a compact binary format.
+     * <p>The state consists of the aaguid, the credential wrapping key, all client side discoverable credentials and
+     * the {@link SignatureCounter#writeState(java.io.DataOutput) state of the signature counter}. Server-side credentials
+     * are not part of the state, as they are kept by the relying party, but they remain usable after a restore because
+     * the credential wrapping key is restored as well. The configuration (attachment, algorithms, etc.) is not included.
+     * <p><b>The credential wrapping key and the private keys of the resident credentials are written unencrypted.</b>
+     * Anyone who can read the snapshot can create assertions for all of its credentials, including the server-side ones,
+     * so treat snapshots like the keys themselves and only take them of test authenticators.
+     * <p>The authenticator should not be used while the snapshot is written, otherwise the snapshot may or may not include
+     * concurrent changes.
+     *
+     * @param out The stream to write to. It is flushed, but not closed.
+     * @throws IOException If writing to the stream fails.
+     * @throws UnsupportedOperationException If the signature counter does not support saving its state.
+     */
+    public void writeSnapshot(OutputStream out) throws IOException {
+        AuthenticatorSnapshot.write(out, aaguid, credentialWrappingKey, storedSources, signatureCounter);
+    }
+
     @Override
     public AuthenticatorAttachment getAttachment() {
         return attachment;
@@ -377,13 +743,22 @@ public class WebAuthnAuthenticator implements Authenticator {
         return supportsUserVerification;
     }
 
-    private static final class SourceKey {
-        final String rpId;
-        final ByteArray userHandle;
+    @Override
+    public Set<COSEAlgorithmIdentifier> getSupportedAlgorithms() {
+        return Collections.unmodifiableSet(supportedAlgorithms);
+    }
 
-        SourceKey(String rpId, ByteArray userHandle) {
-            this.rpId = rpId;
-            this.userHandle = userHandle;
+    private static final class PendingCredential {
+        private final PublicKeyCredentialSource source;
+        private final boolean resident;
+        private final byte[] credentialId;
+        private final byte[] cosePublicKey;
+
+        private PendingCredential(PublicKeyCredentialSource source, boolean resident, byte[] credentialId, byte[] cosePublicKey) {
+            this.source = source;
+            this.resident = resident;
+            this.credentialId = credentialId;
+            this.cosePublicKey = cosePublicKey;
         }
     }
 }
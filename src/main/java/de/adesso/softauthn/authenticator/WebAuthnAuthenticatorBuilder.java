@@ -1,11 +1,21 @@
 package de.adesso.softauthn.authenticator;
 
+import de.adesso.softauthn.CompactPublicKeyCredentialSource;
 import de.adesso.softauthn.PublicKeyCredentialSource;
+import de.adesso.softauthn.counter.ConcurrentPerCredentialSignatureCounter;
+import de.adesso.softauthn.counter.ConcurrentSignatureCounter;
 import de.adesso.softauthn.counter.PerCredentialSignatureCounter;
 import de.adesso.softauthn.counter.SignatureCounter;
+import de.adesso.softauthn.counter.SynchronizedSignatureCounter;
+import de.adesso.softauthn.store.ConcurrentCredentialStore;
+import de.adesso.softauthn.store.CredentialStore;
+import de.adesso.softauthn.store.InMemoryCredentialStore;
 import com.yubico.webauthn.data.AuthenticatorAttachment;
 import com.yubico.webauthn.data.COSEAlgorithmIdentifier;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.EnumSet;
@@ -21,7 +31,14 @@ public class WebAuthnAuthenticatorBuilder {
     private Collection<COSEAlgorithmIdentifier> supportedAlgorithms = EnumSet.of(COSEAlgorithmIdentifier.ES256, COSEAlgorithmIdentifier.EdDSA);
     private boolean supportsClientSideDiscoverablePublicKeyCredentialSources = true;
     private boolean supportsUserVerification = true;
-    private SignatureCounter signatureCounter = new PerCredentialSignatureCounter();
+    private SignatureCounter signatureCounter = null;
+    private CredentialStore credentialStore = null;
+    private KeyPool keyPool = null;
+    private byte[] credentialWrappingKey = null;
+    private int credentialSourceCacheSize = 0;
+    private boolean compactCredentialSources = false;
+    private boolean concurrent = false;
+    private AuthenticatorSnapshot snapshot = null;
     private Function<? super Set<PublicKeyCredentialSource>, PublicKeyCredentialSource> credentialSelection
             = creds -> creds.iterator().next();
 
@@ -94,7 +111,9 @@ public class WebAuthnAuthenticatorBuilder {
     /**
      * Set the signature counter style that should be used by the authenticator.
      *
-     * @param signatureCounter the signature counter object. Default: {@link PerCredentialSignatureCounter new PerCredentialSignatureCounter()}.
+     * @param signatureCounter the signature counter object. Default: {@link PerCredentialSignatureCounter new PerCredentialSignatureCounter()},
+     *                         or {@link ConcurrentPerCredentialSignatureCounter new ConcurrentPerCredentialSignatureCounter()}
+     *                         if the authenticator is {@link #concurrent(boolean) concurrent}.
      * @return this.
      */
     public WebAuthnAuthenticatorBuilder signatureCounter(SignatureCounter signatureCounter) {
@@ -102,10 +121,125 @@ public class WebAuthnAuthenticatorBuilder {
         return this;
     }
 
+    /**
+     * Set the store that the authenticator should keep its client side discoverable credentials (resident keys) in.
+     *
+     * @param credentialStore the credential store object. Default: {@link InMemoryCredentialStore new InMemoryCredentialStore()},
+     *                        or {@link ConcurrentCredentialStore new ConcurrentCredentialStore()} if the authenticator is {@link #concurrent(boolean) concurrent}.
+     * @return this.
+     */
+    public WebAuthnAuthenticatorBuilder credentialStore(CredentialStore credentialStore) {
+        this.credentialStore = credentialStore;
+        return this;
+    }
+
+    /**
+     * Set a pool of pre-generated keys that the authenticator should take new credential keys from.
+     * <p>The pool will be prefilled with keys for all {@link #supportAlgorithms(Collection) supported algorithms}
+     * when the authenticator is built.
+     *
+     * @param keyPool the key pool, or {@code null} to generate every key when the credential is created. Default: {@code null}.
+     * @return this.
+     */
+    public WebAuthnAuthenticatorBuilder keyPool(KeyPool keyPool) {
+        this.keyPool = keyPool;
+        return this;
+    }
+
+    /**
+     * Set the master key that the authenticator should use to wrap
+     * <a href="https://www.w3.org/TR/2021/REC-webauthn-2-20210408/#server-side-public-key-credential-source">server-side credentials</a>
+     * into their credential IDs.
+     * <p>If a master key is set, the private key and user handle of a non-resident credential are encrypted with AES-GCM
+     * into a compact, fixed-size (127 bytes) credential ID that only this authenticator (or another one with the same
+     * master key) can decrypt. Otherwise, the credential ID is the {@link PublicKeyCredentialSource#serialize() serialized}
+     * credential source. Credentials whose algorithm cannot be wrapped fall back to the serialized form.
+     *
+     * @param credentialWrappingKey a 16, 24 or 32 byte AES key, or {@code null} to not wrap credential IDs. Default: {@code null}.
+     * @return this.
+     */
+    public WebAuthnAuthenticatorBuilder credentialWrappingKey(byte[] credentialWrappingKey) {
+        this.credentialWrappingKey = credentialWrappingKey;
+        return this;
+    }
+
+    /**
+     * Set the maximum number of decoded server-side credential sources that the authenticator should cache.
+     * <p>With a cache, repeated assertions with the same non-resident credential don't have to decode its credential ID
+     * and private key every time. The cache also keeps the converted private keys of recently used
+     * {@link #compactCredentialSources(boolean) compact} resident credentials. Cache statistics are available via {@link WebAuthnAuthenticator#credentialSourceCacheStatistics()}.
+     *
+     * @param credentialSourceCacheSize the maximum number of cached credential sources, or {@code 0} to disable caching. Default: {@code 0}.
+     * @return this.
+     */
+    public WebAuthnAuthenticatorBuilder credentialSourceCacheSize(int credentialSourceCacheSize) {
+        this.credentialSourceCacheSize = credentialSourceCacheSize;
+        return this;
+    }
+
+    /**
+     * Set whether the authenticator should store its client side discoverable credentials in the
+     * {@link CompactPublicKeyCredentialSource compact representation}, which only keeps the raw private key instead of
+     * a COSE key object. This reduces the memory used per credential, but the JCA private key is re-created from the
+     * raw key for every assertion, which for EdDSA includes deriving the public key. A
+     * {@link #credentialSourceCacheSize(int) credential source cache} keeps the converted keys of the most recently
+     * used credentials, so that only as many keys as the cache holds stay in memory.
+     * <p>Credentials {@link #restoreSnapshot(Path) restored from a snapshot} keep the representation they were saved in.
+     *
+     * @param compactCredentialSources The setting. Default: false.
+     * @return this.
+     */
+    public WebAuthnAuthenticatorBuilder compactCredentialSources(boolean compactCredentialSources) {
+        this.compactCredentialSources = compactCredentialSources;
+        return this;
+    }
+
+    /**
+     * Set whether the authenticator should be safe to use from multiple threads at the same time,
+     * e.g. to share one authenticator between the threads of a load test driver.
+     * <p>A concurrent authenticator uses a {@link ConcurrentCredentialStore} unless a
+     * {@link #credentialStore(CredentialStore) credential store} is set explicitly, in which case that store must be thread-safe.
+     * Its signature counter is wrapped in a {@link SynchronizedSignatureCounter}, unless it is a {@link ConcurrentSignatureCounter}.
+     * The {@link #credentialSelection(Function) credential selection function} must be thread-safe as well.
+     *
+     * @param concurrent The setting. Default: false.
+     * @return this.
+     */
+    public WebAuthnAuthenticatorBuilder concurrent(boolean concurrent) {
+        this.concurrent = concurrent;
+        return this;
+    }
+
+    /**
+     * Restore the state of an authenticator from a snapshot that was written by {@link WebAuthnAuthenticator#writeSnapshot(Path)}.
+     * <p>This sets the {@link #aaguid(byte[]) aaguid} and the {@link #credentialWrappingKey(byte[]) credential wrapping key}
+     * to the ones in the snapshot (they can still be changed afterwards). When the authenticator is built, the credentials
+     * of the snapshot are put into its {@link #credentialStore(CredentialStore) credential store}, and the state of its
+     * {@link #signatureCounter(SignatureCounter) signature counter} is restored. The counter must therefore read the same
+     * {@link SignatureCounter#stateFormat() state format} as the one of the authenticator that the snapshot was taken from,
+     * otherwise building the authenticator fails.
+     * <p>Only the header of the snapshot is read here, its credentials are read (through a memory mapping that is released
+     * afterwards) every time an authenticator is built. The file must not be modified until then.
+     *
+     * @param file The snapshot file.
+     * @return this.
+     * @throws IOException If the file cannot be read or is not a snapshot.
+     */
+    public WebAuthnAuthenticatorBuilder restoreSnapshot(Path file) throws IOException {
+        this.snapshot = AuthenticatorSnapshot.read(file);
+        this.aaguid = snapshot.getAaguid();
+        this.credentialWrappingKey = snapshot.getCredentialWrappingKey();
+        return this;
+    }
+
     /**
      * Set the function that will be called if multiple credentials have been found that match the requirements set by the relying party.
      * @param credentialSelection A function that takes a set of credential sources and emulates the selection of one by the user.
      *                           Default: always select the first authenticator in the set (i.e., no defined priority)
+     *                           <p>For discoverable credentials the set is a read-only view of the credential store,
+     *                           so in {@link #concurrent(boolean) concurrent} mode it can change (or become empty)
+     *                           while the function runs. If the function throws a {@code NoSuchElementException}
+     *                           or returns {@code null}, the assertion fails as if no credential had matched.
      * @return this.
      */
     public WebAuthnAuthenticatorBuilder credentialSelection(Function<? super Set<PublicKeyCredentialSource>, PublicKeyCredentialSource> credentialSelection) {
@@ -117,8 +251,27 @@ public class WebAuthnAuthenticatorBuilder {
      * Build the {@link WebAuthnAuthenticator} object using the parameters configured in this builder.
      *
      * @return the new authenticator object.
+     * @throws UncheckedIOException If a {@link #restoreSnapshot(Path) snapshot} is restored and it is corrupt,
+     * or its signature counter state cannot be restored into the configured counter.
      */
     public WebAuthnAuthenticator build() {
-        return new WebAuthnAuthenticator(aaguid, attachment, supportedAlgorithms, supportsClientSideDiscoverablePublicKeyCredentialSources, supportsUserVerification, signatureCounter, credentialSelection);
+        CredentialStore store = credentialStore;
+        if (store == null) {
+            store = concurrent ? new ConcurrentCredentialStore() : new InMemoryCredentialStore();
+        }
+        SignatureCounter counter = signatureCounter;
+        if (counter == null) {
+            counter = concurrent ? new ConcurrentPerCredentialSignatureCounter() : new PerCredentialSignatureCounter();
+        } else if (concurrent && !(counter instanceof ConcurrentSignatureCounter)) {
+            counter = new SynchronizedSignatureCounter(counter);
+        }
+        if (snapshot != null) {
+            try {
+                snapshot.restore(store, counter);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return new WebAuthnAuthenticator(aaguid, attachment, supportedAlgorithms, supportsClientSideDiscoverablePublicKeyCredentialSources, supportsUserVerification, counter, store, keyPool, credentialWrappingKey, credentialSourceCacheSize, compactCredentialSources, credentialSelection);
     }
 }
\ No newline at end of file
@@ -0,0 +1,62 @@
+package de.adesso.softauthn.counter;
+
+import com.yubico.webauthn.data.ByteArray;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A thread-safe version of {@link GlobalSignatureCounter} that counts the total number of performed signatures
+ * in a single atomic integer without taking any locks.
+ */
+public class AtomicGlobalSignatureCounter implements ConcurrentSignatureCounter {
+
+    private final int increment;
+    private final AtomicInteger globalCount;
+
+    /**
+     * Creates a global signature counter with the initial value 0 and an increment of 1.
+     */
+    public AtomicGlobalSignatureCounter() {
+        this(0, 1);
+    }
+
+    /**
+     * Creates a global signature counter with the given initial value and increment.
+     *
+     * @param initialValue The initial total amount of signatures.
+     * @param increment The amount added to the count when {@link #increment(ByteArray)} is called.
+     */
+    public AtomicGlobalSignatureCounter(int initialValue, int increment) {
+        this.increment = increment;
+        this.globalCount = new AtomicInteger(initialValue);
+    }
+
+    @Override
+    public int increment(ByteArray credentialId) {
+        return globalCount.addAndGet(increment);
+    }
+
+    @Override
+    public int initialize(ByteArray credentialId) {
+        return globalCount.get();
+    }
+
+    @Override
+    public String stateFormat() {
+        return GlobalSignatureCounter.STATE_FORMAT;
+    }
+
+    @Override
+    public void writeState(DataOutput out) throws IOException {
+        out.writeInt(globalCount.get());
+    }
+
+    @Override
+    public void readState(DataInput in) throws IOException {
+        globalCount.set(in.readInt());
+    }
+}
@@ -0,0 +1,310 @@
+package de.adesso.softauthn.counter;
+
+import com.yubico.webauthn.data.ByteArray;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A memory efficient version of {@link PerCredentialSignatureCounter} for authenticators that hold millions
+ * of credentials.
+ * <p>Instead of a map of boxed values, the counts are kept in an open-addressing hash table with primitive int slots,
+ * and the raw credential ID bytes are packed into a single key buffer. Each credential costs its ID length plus
+ * a few bytes of overhead, rather than several objects per credential.
+ * Both buffers can optionally be allocated off-heap.
+ * <p>This class is not thread-safe.
+ */
+public class CompactPerCredentialSignatureCounter implements SignatureCounter {
+
+    // slot layout: hash, key reference (key offset + 1, 0 = empty), count
+    private static final int SLOT_SIZE = 12;
+    private static final int HASH = 0;
+    private static final int KEY = 4;
+    private static final int COUNT = 8;
+    private static final int TOMBSTONE = -1;
+
+    private static final int MAXIMUM_CAPACITY = 1 << 27;
+    // the table is kept at most half full
+    private static final int MAXIMUM_CREDENTIALS = MAXIMUM_CAPACITY / 2;
+    private static final int MAXIMUM_BUFFER_SIZE = Integer.MAX_VALUE - 8;
+    // initial key storage per expected credential: length prefix and a 32 byte ID
+    private static final int EXPECTED_KEY_SIZE = 34;
+
+    private final int increment;
+    private final boolean offHeap;
+
+    private ByteBuffer slots;
+    private int mask;
+    private int size;
+    private int usedSlots;
+
+    private ByteBuffer keys;
+    private int keysEnd;
+
+    /**
+     * Creates an on-heap counter that will increment the signature count of a credential by {@code 1}
+     * when {@link #increment(ByteArray)} is called.
+     */
+    public CompactPerCredentialSignatureCounter() {
+        this(1, 1024, false);
+    }
+
+    /**
+     * Creates a counter that will increment the signature count of a credential by the specified amount
+     * when {@link #increment(ByteArray)} is called.
+     *
+     * @param increment the amount that should be added to a signature count when it is incremented.
+     * @param expectedCredentials the number of credentials the table should be sized for initially. It grows as needed.
+     *                            At most {@value #MAXIMUM_CREDENTIALS} credentials can be held.
+     * @param offHeap whether the table and the credential IDs should be stored in direct (off-heap) buffers.
+     * @throws IllegalArgumentException if {@code expectedCredentials} is negative or larger than the maximum.
+     */
+    public CompactPerCredentialSignatureCounter(int increment, int expectedCredentials, boolean offHeap) {
+        if (expectedCredentials < 0) {
+            throw new IllegalArgumentException("expectedCredentials must not be negative");
+        }
+        if (expectedCredentials > MAXIMUM_CREDENTIALS) {
+            throw new IllegalArgumentException("expectedCredentials must not be larger than " + MAXIMUM_CREDENTIALS);
+        }
+        this.increment = increment;
+        this.offHeap = offHeap;
+        int capacity = tableCapacity(expectedCredentials);
+        this.slots = allocate(capacity * SLOT_SIZE);
+        this.mask = capacity - 1;
+        this.keys = allocate((int) Math.min(MAXIMUM_BUFFER_SIZE, Math.max(64, (long) expectedCredentials * EXPECTED_KEY_SIZE)));
+    }
+
+    @Override
+    public int increment(ByteArray credentialId) {
+        byte[] key = credentialId.getBytes();
+        int slot = find(key, hash(key));
+        if (slot < 0) {
+            throw new IllegalStateException("Signature count has not been initialized for this credential");
+        }
+        int count = slots.getInt(slot + COUNT) + increment;
+        slots.putInt(slot + COUNT, count);
+        return count;
+    }
+
+    @Override
+    public int initialize(ByteArray credentialId) {
+        byte[] key = credentialId.getBytes();
+        int hash = hash(key);
+        int slot = find(key, hash);
+        if (slot >= 0) {
+            slots.putInt(slot + COUNT, 0);
+        } else {
+            insert(key, hash);
+        }
+        return 0;
+    }
+
+    @Override
+    public String stateFormat() {
+        return PerCredentialSignatureCounter.STATE_FORMAT;
+    }
+
+    @Override
+    public void writeState(DataOutput out) throws IOException {
+        out.writeInt(size);
+        for (int i = 0; i <= mask; i++) {
+            int slot = i * SLOT_SIZE;
+            int keyRef = slots.getInt(slot + KEY);
+            if (keyRef == 0 || keyRef == TOMBSTONE) {
+                continue;
+            }
+            int keyOffset = keyRef - 1;
+            int keyLength = keys.getShort(keyOffset) & 0xFFFF;
+            out.writeShort(keyLength);
+            for (int b = 0; b < keyLength; b++) {
+                out.writeByte(keys.get(keyOffset + 2 + b));
+            }
+            out.writeInt(slots.getInt(slot + COUNT));
+        }
+    }
+
+    @Override
+    public void readState(DataInput in) throws IOException {
+        int count = in.readInt();
+        if ((size + count) * 2L > mask + 1) {
+            // size the table once instead of growing it step by step
+            rebuild(tableCapacity(size + count));
+        }
+        for (int i = 0; i < count; i++) {
+            byte[] key = new byte[in.readUnsignedShort()];
+            in.readFully(key);
+            int hash = hash(key);
+            int slot = find(key, hash);
+            if (slot < 0) {
+                slot = insert(key, hash);
+            }
+            slots.putInt(slot + COUNT, in.readInt());
+        }
+    }
+
+    @Override
+    public void discard(ByteArray credentialId) {
+        byte[] key = credentialId.getBytes();
+        int slot = find(key, hash(key));
+        if (slot >= 0) {
+            // the key bytes are reclaimed when the table is rebuilt
+            slots.putInt(slot + KEY, TOMBSTONE);
+            size--;
+        }
+    }
+
+    /**
+     * Returns the number of credentials this counter currently keeps a count for.
+     *
+     * @return the number of credentials.
+     */
+    public int size() {
+        return size;
+    }
+
+    private int find(byte[] key, int hash) {
+        int index = hash & mask;
+        while (true) {
+            int slot = index * SLOT_SIZE;
+            int keyRef = slots.getInt(slot + KEY);
+            if (keyRef == 0) {
+                return -1;
+            }
+            if (keyRef != TOMBSTONE && slots.getInt(slot + HASH) == hash && keyEquals(keyRef - 1, key)) {
+                return slot;
+            }
+            index = (index + 1) & mask;
+        }
+    }
+
+    private int insert(byte[] key, int hash) {
+        if ((usedSlots + 1) * 2 > mask + 1) {
+            // grow only if the table is actually full, otherwise rebuilding it gets rid of the tombstones
+            rebuild((size + 1) * 2 > mask + 1 ? (mask + 1) * 2 : mask + 1);
+        }
+        int keyRef = appendKey(key) + 1;
+        int index = hash & mask;
+        while (true) {
+            int slot = index * SLOT_SIZE;
+            int current = slots.getInt(slot + KEY);
+            if (current == 0 || current == TOMBSTONE) {
+                if (current == 0) {
+                    usedSlots++;
+                }
+                slots.putInt(slot + HASH, hash);
+                slots.putInt(slot + KEY, keyRef);
+                slots.putInt(slot + COUNT, 0);
+                size++;
+                return slot;
+            }
+            index = (index + 1) & mask;
+        }
+    }
+
+    private void rebuild(int capacity) {
+        if (capacity > MAXIMUM_CAPACITY) {
+            throw new IllegalStateException("Signature counter table is full");
+        }
+        ByteBuffer oldSlots = slots;
+        ByteBuffer oldKeys = keys;
+        int oldCapacity = mask + 1;
+
+        slots = allocate(capacity * SLOT_SIZE);
+        mask = capacity - 1;
+        keys = allocate(Math.max(64, keysEnd));
+        keysEnd = 0;
+        usedSlots = 0;
+        for (int i = 0; i < oldCapacity; i++) {
+            int oldSlot = i * SLOT_SIZE;
+            int keyRef = oldSlots.getInt(oldSlot + KEY);
+            if (keyRef == 0 || keyRef == TOMBSTONE) {
+                continue;
+            }
+            int hash = oldSlots.getInt(oldSlot + HASH);
+            int keyOffset = keyRef - 1;
+            int keyLength = oldKeys.getShort(keyOffset) & 0xFFFF;
+            int newKeyOffset = reserveKey(keyLength);
+            for (int b = 0; b < 2 + keyLength; b++) {
+                keys.put(newKeyOffset + b, oldKeys.get(keyOffset + b));
+            }
+            int index = hash & mask;
+            while (slots.getInt(index * SLOT_SIZE + KEY) != 0) {
+                index = (index + 1) & mask;
+            }
+            int slot = index * SLOT_SIZE;
+            slots.putInt(slot + HASH, hash);
+            slots.putInt(slot + KEY, newKeyOffset + 1);
+            slots.putInt(slot + COUNT, oldSlots.getInt(oldSlot + COUNT));
+            usedSlots++;
+        }
+    }
+
+    private int appendKey(byte[] key) {
+        int offset = reserveKey(key.length);
+        keys.putShort(offset, (short) key.length);
+        for (int i = 0; i < key.length; i++) {
+            keys.put(offset + 2 + i, key[i]);
+        }
+        return offset;
+    }
+
+    // reserves space for a length-prefixed key and returns its offset
+    private int reserveKey(int keyLength) {
+        if (keyLength > 0xFFFF) {
+            throw new IllegalArgumentException("credential id is too long");
+        }
+        int required = keysEnd + 2 + keyLength;
+        if (required < 0 || required > MAXIMUM_BUFFER_SIZE) {
+            throw new IllegalStateException("Signature counter key storage is full");
+        }
+        if (required > keys.capacity()) {
+            long newCapacity = Math.max((long) keys.capacity() * 2, required);
+            ByteBuffer grown = allocate((int) Math.min(MAXIMUM_BUFFER_SIZE, newCapacity));
+            ByteBuffer source = keys.duplicate();
+            source.position(0).limit(keysEnd);
+            grown.put(source);
+            keys = grown;
+        }
+        int offset = keysEnd;
+        keysEnd = required;
+        return offset;
+    }
+
+    private boolean keyEquals(int keyOffset, byte[] key) {
+        if ((keys.getShort(keyOffset) & 0xFFFF) != key.length) {
+            return false;
+        }
+        for (int i = 0; i < key.length; i++) {
+            if (keys.get(keyOffset + 2 + i) != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private ByteBuffer allocate(int bytes) {
+        return offHeap ? ByteBuffer.allocateDirect(bytes) : ByteBuffer.allocate(bytes);
+    }
+
+    private static int tableCapacity(int expectedCredentials) {
+        int capacity = 16;
+        while (capacity < expectedCredentials * 2L && capacity < MAXIMUM_CAPACITY) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    private static int hash(byte[] key) {
+        int h = 1;
+        for (byte b : key) {
+            h = 31 * h + b;
+        }
+        // spread the bits, linear probing is sensitive to clustering
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        return h;
+    }
+}
@@ -0,0 +1,96 @@
+package de.adesso.softauthn.counter;
+
+import com.yubico.webauthn.data.ByteArray;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A thread-safe version of {@link PerCredentialSignatureCounter} that maintains a separate signature count
+ * for each credential ID.
+ * <p>Each count is kept in its own atomic counter cell, so incrementing does not take any locks and does not
+ * allocate once the credential ID has been {@link #initialize(ByteArray) initialized}.
+ */
+public class ConcurrentPerCredentialSignatureCounter implements ConcurrentSignatureCounter {
+
+    private final Map<ByteArray, AtomicInteger> signatureCounts;
+    private final int increment;
+
+    /**
+     * Creates a counter that will increment the signature count of a credential by {@code 1}
+     * when {@link #increment(ByteArray)} is called.
+     */
+    public ConcurrentPerCredentialSignatureCounter() {
+        this(1);
+    }
+
+    /**
+     * Creates a counter that will increment the signature count of a credential by the specified amount
+     * when {@link #increment(ByteArray)} is called.
+     *
+     * @param increment the amount that should be added to a signature count when it is incremented.
+     */
+    public ConcurrentPerCredentialSignatureCounter(int increment) {
+        this.increment = increment;
+        this.signatureCounts = new ConcurrentHashMap<>();
+    }
+
+    @Override
+    public int increment(ByteArray credentialId) {
+        AtomicInteger count = signatureCounts.get(credentialId);
+        if (count == null) {
+            throw new IllegalStateException("Signature count has not been initialized for this credential");
+        }
+        return count.addAndGet(increment);
+    }
+
+    @Override
+    public int initialize(ByteArray credentialId) {
+        signatureCounts.put(credentialId, new AtomicInteger());
+        return 0;
+    }
+
+    @Override
+    public void discard(ByteArray credentialId) {
+        signatureCounts.remove(credentialId);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>The state is consistent per credential, but counters that are modified while the state is written
+     * may or may not be included.
+     */
+    @Override
+    public String stateFormat() {
+        return PerCredentialSignatureCounter.STATE_FORMAT;
+    }
+
+    @Override
+    public void writeState(DataOutput out) throws IOException {
+        // the size has to be known before the entries are written
+        List<Map.Entry<ByteArray, AtomicInteger>> entries = new ArrayList<>(signatureCounts.entrySet());
+        out.writeInt(entries.size());
+        for (Map.Entry<ByteArray, AtomicInteger> entry : entries) {
+            byte[] id = entry.getKey().getBytes();
+            out.writeShort(id.length);
+            out.write(id);
+            out.writeInt(entry.getValue().get());
+        }
+    }
+
+    @Override
+    public void readState(DataInput in) throws IOException {
+        int size = in.readInt();
+        for (int i = 0; i < size; i++) {
+            byte[] id = new byte[in.readUnsignedShort()];
+            in.readFully(id);
+            signatureCounts.put(new ByteArray(id), new AtomicInteger(in.readInt()));
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package de.adesso.softauthn.counter;
+
+/**
+ * Marker interface for {@link SignatureCounter} implementations that can be used by multiple threads at the same
+ * time without additional synchronization.
+ * <p>Implementations must not lose increments under contention, i.e. the counts returned for a credential
+ * must be strictly increasing (if the increment is positive).
+ *
+ * @see AtomicGlobalSignatureCounter
+ * @see ConcurrentPerCredentialSignatureCounter
+ * @see SynchronizedSignatureCounter
+ */
+public interface ConcurrentSignatureCounter extends SignatureCounter {
+}
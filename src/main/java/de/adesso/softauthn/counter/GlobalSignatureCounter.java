@@ -2,12 +2,19 @@ package de.adesso.softauthn.counter;
 
 import com.yubico.webauthn.data.ByteArray;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 /**
  * A signature counter implementation that counts the total number of performed signatures rather than maintaining
  * a separate count for each known credential.
  */
 public class GlobalSignatureCounter implements SignatureCounter {
 
+    // shared by all counters that write this format
+    static final String STATE_FORMAT = "global";
+
     private final int increment;
     private int globalCount;
 
@@ -39,4 +46,19 @@ public class GlobalSignatureCounter implements SignatureCounter {
     public int initialize(ByteArray credentialId) {
         return globalCount;
     }
+
+    @Override
+    public String stateFormat() {
+        return STATE_FORMAT;
+    }
+
+    @Override
+    public void writeState(DataOutput out) throws IOException {
+        out.writeInt(globalCount);
+    }
+
+    @Override
+    public void readState(DataInput in) throws IOException {
+        globalCount = in.readInt();
+    }
 }
@@ -2,11 +2,14 @@ package de.adesso.softauthn.counter;
 
 import com.yubico.webauthn.data.ByteArray;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+
 /**
  * A signature counter implementation that always returns {@code 0} and effectively does nothing.
  * This is the behaviour that should be employed by authenticators that don't support signature counting.
  */
-public class NoSignatureCounter implements SignatureCounter {
+public class NoSignatureCounter implements ConcurrentSignatureCounter {
 
     @Override
     public int increment(ByteArray credentialId) {
@@ -17,4 +20,19 @@ public class NoSignatureCounter implements SignatureCounter {
     public int initialize(ByteArray credentialId) {
         return 0;
     }
+
+    @Override
+    public String stateFormat() {
+        return "none";
+    }
+
+    @Override
+    public void writeState(DataOutput out) {
+        // there is no state
+    }
+
+    @Override
+    public void readState(DataInput in) {
+        // there is no state
+    }
 }
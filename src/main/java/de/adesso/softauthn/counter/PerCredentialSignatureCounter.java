@@ -2,6 +2,9 @@ package de.adesso.softauthn.counter;
 
 import com.yubico.webauthn.data.ByteArray;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -12,6 +15,9 @@ import java.util.Map;
  */
 public class PerCredentialSignatureCounter implements SignatureCounter {
 
+    // shared by all counters that write this format
+    static final String STATE_FORMAT = "per-credential";
+
     private final Map<ByteArray, Integer> signatureCounts;
     private final int increment;
 
@@ -36,7 +42,11 @@ public class PerCredentialSignatureCounter implements SignatureCounter {
 
     @Override
     public int increment(ByteArray credentialId) {
-        return signatureCounts.computeIfPresent(credentialId, (id, c) -> c + increment);
+        Integer count = signatureCounts.computeIfPresent(credentialId, (id, c) -> c + increment);
+        if (count == null) {
+            throw new IllegalStateException("Signature count has not been initialized for this credential");
+        }
+        return count;
     }
 
     @Override
@@ -44,4 +54,35 @@ public class PerCredentialSignatureCounter implements SignatureCounter {
         signatureCounts.put(credentialId, 0);
         return 0;
     }
+
+    @Override
+    public void discard(ByteArray credentialId) {
+        signatureCounts.remove(credentialId);
+    }
+
+    @Override
+    public String stateFormat() {
+        return STATE_FORMAT;
+    }
+
+    @Override
+    public void writeState(DataOutput out) throws IOException {
+        out.writeInt(signatureCounts.size());
+        for (Map.Entry<ByteArray, Integer> entry : signatureCounts.entrySet()) {
+            byte[] id = entry.getKey().getBytes();
+            out.writeShort(id.length);
+            out.write(id);
+            out.writeInt(entry.getValue());
+        }
+    }
+
+    @Override
+    public void readState(DataInput in) throws IOException {
+        int size = in.readInt();
+        for (int i = 0; i < size; i++) {
+            byte[] id = new byte[in.readUnsignedShort()];
+            in.readFully(id);
+            signatureCounts.put(new ByteArray(id), in.readInt());
+        }
+    }
 }
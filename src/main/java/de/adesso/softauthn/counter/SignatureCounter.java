@@ -2,6 +2,10 @@ package de.adesso.softauthn.counter;
 
 import com.yubico.webauthn.data.ByteArray;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 /**
  * An interface that allows {@link de.adesso.softauthn.Authenticator authenticators} to keep track of the number
  * of signatures they have performed.
@@ -11,6 +15,7 @@ import com.yubico.webauthn.data.ByteArray;
  * @see GlobalSignatureCounter
  * @see NoSignatureCounter
  * @see PerCredentialSignatureCounter
+ * @see ConcurrentSignatureCounter
  */
 public interface SignatureCounter {
 
@@ -34,4 +39,55 @@ public interface SignatureCounter {
      * @return the initial signature count for the credential ID.
      */
     int initialize(ByteArray credentialId);
+
+    /**
+     * Discard the signature count for a credential ID that will not be used anymore,
+     * e.g. because its credential source has been overwritten by a new registration for the same user.
+     * <p>{@link #increment(ByteArray)} must not be called for the given credential ID afterwards, unless it is
+     * {@link #initialize(ByteArray) initialized} again.
+     *
+     * @implSpec The default implementation does nothing.
+     * @param credentialId The credential ID.
+     */
+    default void discard(ByteArray credentialId) {
+    }
+
+    /**
+     * Returns the name of the format of the {@link #writeState(DataOutput) state} of this counter.
+     * Snapshots record it, so that a state is never {@link #readState(DataInput) restored} into a counter that reads
+     * a different format.
+     *
+     * @implSpec The default implementation returns the name of the class.
+     * @return the name of the state format.
+     */
+    default String stateFormat() {
+        return getClass().getName();
+    }
+
+    /**
+     * Write the state of this counter to the given output, so that it can be {@link #readState(DataInput) restored}
+     * later, e.g. as part of an authenticator snapshot.
+     * <p>Per-credential counters write the number of counts, followed by each credential ID (prefixed with its length
+     * as an unsigned short) and its count. Global counters write their total count. Counters that use the same
+     * {@link #stateFormat() format} can restore each other's state.
+     *
+     * @implSpec The default implementation throws an {@link UnsupportedOperationException}.
+     * @param out The output to write to.
+     * @throws IOException If writing to the output fails.
+     */
+    default void writeState(DataOutput out) throws IOException {
+        throw new UnsupportedOperationException(getClass().getName() + " does not support saving its state");
+    }
+
+    /**
+     * Restore a state that was previously {@link #writeState(DataOutput) written} by a counter of the same kind.
+     * <p>Counts that are contained in the input replace the current counts of this counter.
+     *
+     * @implSpec The default implementation throws an {@link UnsupportedOperationException}.
+     * @param in The input to read from.
+     * @throws IOException If reading from the input fails.
+     */
+    default void readState(DataInput in) throws IOException {
+        throw new UnsupportedOperationException(getClass().getName() + " does not support restoring its state");
+    }
 }
@@ -0,0 +1,59 @@
+package de.adesso.softauthn.counter;
+
+import com.yubico.webauthn.data.ByteArray;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Objects;
+
+/**
+ * A thread-safe {@link SignatureCounter} that delegates to another counter while holding a lock.
+ * <p>This makes counters that are not thread-safe themselves usable with authenticators that are shared
+ * between threads. No increments are lost and the counts returned for a credential are strictly increasing
+ * (if the delegate's increment is positive).
+ */
+public class SynchronizedSignatureCounter implements ConcurrentSignatureCounter {
+
+    private final SignatureCounter delegate;
+
+    /**
+     * Creates a synchronized view of the given counter.
+     * <p>The delegate must not be used directly anymore after calling this.
+     *
+     * @param delegate The counter that should be made thread-safe.
+     */
+    public SynchronizedSignatureCounter(SignatureCounter delegate) {
+        this.delegate = Objects.requireNonNull(delegate);
+    }
+
+    @Override
+    public synchronized int increment(ByteArray credentialId) {
+        return delegate.increment(credentialId);
+    }
+
+    @Override
+    public synchronized int initialize(ByteArray credentialId) {
+        return delegate.initialize(credentialId);
+    }
+
+    @Override
+    public synchronized void discard(ByteArray credentialId) {
+        delegate.discard(credentialId);
+    }
+
+    @Override
+    public String stateFormat() {
+        return delegate.stateFormat();
+    }
+
+    @Override
+    public synchronized void writeState(DataOutput out) throws IOException {
+        delegate.writeState(out);
+    }
+
+    @Override
+    public synchronized void readState(DataInput in) throws IOException {
+        delegate.readState(in);
+    }
+}
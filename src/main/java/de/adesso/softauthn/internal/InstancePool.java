@@ -0,0 +1,106 @@
+package de.adesso.softauthn.internal;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Reusable instances of objects that are expensive to create and not thread-safe, such as {@link java.security.Signature}s,
+ * {@link java.security.MessageDigest}s, ciphers and buffers.
+ * <p>Platform threads keep their own instance in a {@link ThreadLocal}, as they are long-lived and few.
+ * Virtual threads are neither: a fleet of simulated users runs every user on a new virtual thread, so a
+ * thread-local instance would be created for every user and thrown away with its thread. Virtual threads therefore
+ * take instances from a small shared pool and put them back when they are done.
+ * <p>This class is used by the authenticator implementation. It is not part of the API of this library and may change
+ * in any release.
+ *
+ * @param <T> The type of the pooled instances.
+ */
+public final class InstancePool<T> {
+
+    // about as many instances as virtual threads can use at the same time, i.e. one per carrier thread
+    private static final int MAX_POOLED = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+    private static final MethodHandle IS_VIRTUAL = isVirtualHandle();
+
+    private final Supplier<? extends T> factory;
+    private final ThreadLocal<T> local;
+    private final ConcurrentLinkedQueue<T> pool = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooled = new AtomicInteger();
+
+    private InstancePool(Supplier<? extends T> factory) {
+        this.factory = factory;
+        this.local = ThreadLocal.withInitial(factory);
+    }
+
+    /**
+     * Creates a pool that creates new instances with the given factory.
+     *
+     * @param factory Creates a new instance.
+     * @param <T> The type of the instances.
+     * @return the pool.
+     */
+    public static <T> InstancePool<T> withInitial(Supplier<? extends T> factory) {
+        return new InstancePool<>(Objects.requireNonNull(factory));
+    }
+
+    /**
+     * Returns an instance that the current thread can use exclusively until it {@link #release(Object) releases} it.
+     *
+     * @return the instance.
+     */
+    public T acquire() {
+        if (!isVirtual()) {
+            return local.get();
+        }
+        T instance = pool.poll();
+        if (instance == null) {
+            return factory.get();
+        }
+        pooled.decrementAndGet();
+        return instance;
+    }
+
+    /**
+     * Hands back an instance that was {@link #acquire() acquired} by the current thread, or a replacement for it
+     * (e.g. a larger buffer). The instance must not be used afterwards.
+     *
+     * @param instance The instance.
+     */
+    public void release(T instance) {
+        if (!isVirtual()) {
+            local.set(instance);
+            return;
+        }
+        // a burst of virtual threads can create more instances than are worth keeping
+        if (pooled.incrementAndGet() <= MAX_POOLED) {
+            pool.offer(instance);
+        } else {
+            pooled.decrementAndGet();
+        }
+    }
+
+    private static boolean isVirtual() {
+        if (IS_VIRTUAL == null) {
+            return false;
+        }
+        try {
+            return (boolean) IS_VIRTUAL.invokeExact(Thread.currentThread());
+        } catch (Throwable e) {
+            throw new IllegalStateException("Thread.isVirtual failed", e);
+        }
+    }
+
+    // Thread.isVirtual() exists since Java 21, this library targets Java 8
+    private static MethodHandle isVirtualHandle() {
+        try {
+            return MethodHandles.publicLookup()
+                    .findVirtual(Thread.class, "isVirtual", MethodType.methodType(boolean.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package de.adesso.softauthn.store;
+
+import com.yubico.webauthn.data.ByteArray;
+import de.adesso.softauthn.PublicKeyCredentialSource;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A thread-safe {@link CredentialStore} that keeps all credential sources on the heap.
+ * <p>Lookups don't take any locks. Updates are serialized per RP ID and user handle combination only,
+ * so concurrent registrations for different users don't block each other.
+ */
+public class ConcurrentCredentialStore implements CredentialStore {
+
+    private final Map<ByteArray, PublicKeyCredentialSource> sourcesById;
+    private final Map<SourceKey, PublicKeyCredentialSource> sourcesByUser;
+    private final Map<String, Set<PublicKeyCredentialSource>> sourcesByRpId;
+
+    /**
+     * Creates an empty store.
+     */
+    public ConcurrentCredentialStore() {
+        this.sourcesById = new ConcurrentHashMap<>();
+        this.sourcesByUser = new ConcurrentHashMap<>();
+        this.sourcesByRpId = new ConcurrentHashMap<>();
+    }
+
+    @Override
+    public Optional<PublicKeyCredentialSource> put(PublicKeyCredentialSource source) {
+        ByteArray id = Objects.requireNonNull(source.getId(), "credential id must be set");
+        PublicKeyCredentialSource[] replaced = new PublicKeyCredentialSource[1];
+        // the other indexes are updated while holding the lock for this user's entry
+        sourcesByUser.compute(new SourceKey(source.getRpId(), source.getUserHandle()), (key, previous) -> {
+            if (previous != null) {
+                sourcesById.remove(previous.getId());
+                sourcesByRpId.get(previous.getRpId()).remove(previous);
+            }
+            sourcesById.put(id, source);
+            sourcesByRpId.computeIfAbsent(source.getRpId(), rpId -> ConcurrentHashMap.newKeySet()).add(source);
+            replaced[0] = previous;
+            return source;
+        });
+        return Optional.ofNullable(replaced[0]);
+    }
+
+    @Override
+    public Optional<PublicKeyCredentialSource> findById(ByteArray credentialId) {
+        return Optional.ofNullable(sourcesById.get(credentialId));
+    }
+
+    @Override
+    public Optional<PublicKeyCredentialSource> find(String rpId, ByteArray userHandle) {
+        return Optional.ofNullable(sourcesByUser.get(new SourceKey(rpId, userHandle)));
+    }
+
+    @Override
+    public Set<PublicKeyCredentialSource> findByRpId(String rpId) {
+        Set<PublicKeyCredentialSource> partition = sourcesByRpId.get(rpId);
+        return partition == null ? Collections.emptySet() : Collections.unmodifiableSet(partition);
+    }
+
+    @Override
+    public int size() {
+        return sourcesById.size();
+    }
+
+    @Override
+    public void forEach(Consumer<? super PublicKeyCredentialSource> action) {
+        sourcesById.values().forEach(action);
+    }
+}
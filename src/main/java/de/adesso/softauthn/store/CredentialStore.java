@@ -0,0 +1,74 @@
+package de.adesso.softauthn.store;
+
+import com.yubico.webauthn.data.ByteArray;
+import de.adesso.softauthn.PublicKeyCredentialSource;
+
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * An interface that allows {@link de.adesso.softauthn.authenticator.WebAuthnAuthenticator authenticators} to keep
+ * <a href="https://www.w3.org/TR/2021/REC-webauthn-2-20210408/#client-side-discoverable-public-key-credential-source">client-side discoverable credential sources</a>
+ * (resident keys) in a storage of their choice.
+ * <p>Implementations are expected to index the stored sources by credential ID, by
+ * <a href="https://www.w3.org/TR/2021/REC-webauthn-2-20210408/#rp-id">RP ID</a> and by the combination of RP ID and user handle,
+ * so that lookups don't have to scan every stored credential.
+ *
+ * @see InMemoryCredentialStore
+ */
+public interface CredentialStore {
+
+    /**
+     * Store the given credential source.
+     * <p>The credential ID of the source must have been {@link PublicKeyCredentialSource#setId(ByteArray) set}
+     * before calling this method.
+     * <p>If the store already contains a source with the same RP ID and user handle, that source is removed
+     * and replaced by the new one, as required by
+     * <a href="https://www.w3.org/TR/2021/REC-webauthn-2-20210408/#sctn-op-make-cred">step 7.4 of authenticatorMakeCredential</a>.
+     *
+     * @param source The credential source to store.
+     * @return An optional containing the source that was replaced or the empty optional if there was none.
+     */
+    Optional<PublicKeyCredentialSource> put(PublicKeyCredentialSource source);
+
+    /**
+     * Look up a stored credential source by its credential ID.
+     *
+     * @param credentialId The credential ID.
+     * @return An optional containing the credential source with the given ID or the empty optional if there is none.
+     */
+    Optional<PublicKeyCredentialSource> findById(ByteArray credentialId);
+
+    /**
+     * Look up the stored credential source for a user account of a relying party.
+     *
+     * @param rpId The RP ID.
+     * @param userHandle The user handle.
+     * @return An optional containing the matching credential source or the empty optional if there is none.
+     */
+    Optional<PublicKeyCredentialSource> find(String rpId, ByteArray userHandle);
+
+    /**
+     * Returns all stored credential sources that are scoped to the given relying party.
+     *
+     * @param rpId The RP ID.
+     * @return An unmodifiable set of credential sources, which is empty if there are none for the given RP ID.
+     */
+    Set<PublicKeyCredentialSource> findByRpId(String rpId);
+
+    /**
+     * Returns the number of stored credential sources.
+     *
+     * @return the number of credential sources in this store.
+     */
+    int size();
+
+    /**
+     * Performs the given action for every stored credential source, e.g. to save all of them.
+     * <p>The order in which the sources are passed to the action is unspecified.
+     *
+     * @param action The action to perform for each credential source.
+     */
+    void forEach(Consumer<? super PublicKeyCredentialSource> action);
+}
@@ -0,0 +1,73 @@
+package de.adesso.softauthn.store;
+
+import com.yubico.webauthn.data.ByteArray;
+import de.adesso.softauthn.PublicKeyCredentialSource;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * A {@link CredentialStore} that keeps all credential sources on the heap.
+ * <p>Lookups by credential ID and by RP ID and user handle are constant time hash lookups, and the sources of
+ * each relying party are kept in a separate partition.
+ */
+public class InMemoryCredentialStore implements CredentialStore {
+
+    private final Map<ByteArray, PublicKeyCredentialSource> sourcesById;
+    private final Map<SourceKey, PublicKeyCredentialSource> sourcesByUser;
+    private final Map<String, Set<PublicKeyCredentialSource>> sourcesByRpId;
+
+    /**
+     * Creates an empty store.
+     */
+    public InMemoryCredentialStore() {
+        this.sourcesById = new HashMap<>();
+        this.sourcesByUser = new HashMap<>();
+        this.sourcesByRpId = new HashMap<>();
+    }
+
+    @Override
+    public Optional<PublicKeyCredentialSource> put(PublicKeyCredentialSource source) {
+        ByteArray id = Objects.requireNonNull(source.getId(), "credential id must be set");
+        PublicKeyCredentialSource previous = sourcesByUser.put(new SourceKey(source.getRpId(), source.getUserHandle()), source);
+        if (previous != null) {
+            sourcesById.remove(previous.getId());
+            sourcesByRpId.get(previous.getRpId()).remove(previous);
+        }
+        sourcesById.put(id, source);
+        sourcesByRpId.computeIfAbsent(source.getRpId(), rpId -> new LinkedHashSet<>()).add(source);
+        return Optional.ofNullable(previous);
+    }
+
+    @Override
+    public Optional<PublicKeyCredentialSource> findById(ByteArray credentialId) {
+        return Optional.ofNullable(sourcesById.get(credentialId));
+    }
+
+    @Override
+    public Optional<PublicKeyCredentialSource> find(String rpId, ByteArray userHandle) {
+        return Optional.ofNullable(sourcesByUser.get(new SourceKey(rpId, userHandle)));
+    }
+
+    @Override
+    public Set<PublicKeyCredentialSource> findByRpId(String rpId) {
+        Set<PublicKeyCredentialSource> partition = sourcesByRpId.get(rpId);
+        return partition == null ? Collections.emptySet() : Collections.unmodifiableSet(partition);
+    }
+
+    @Override
+    public int size() {
+        return sourcesById.size();
+    }
+
+    @Override
+    public void forEach(Consumer<? super PublicKeyCredentialSource> action) {
+        sourcesById.values().forEach(action);
+    }
+}
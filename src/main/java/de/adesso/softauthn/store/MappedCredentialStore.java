@@ -0,0 +1,954 @@
+package de.adesso.softauthn.store;
+
+import COSE.AlgorithmID;
+import com.yubico.webauthn.data.ByteArray;
+import com.yubico.webauthn.data.PublicKeyCredentialType;
+import de.adesso.softauthn.CompactPublicKeyCredentialSource;
+import de.adesso.softauthn.PublicKeyCredentialSource;
+import de.adesso.softauthn.counter.ConcurrentSignatureCounter;
+import de.adesso.softauthn.counter.SignatureCounter;
+
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * A {@link CredentialStore} that keeps its credential records in a memory-mapped file instead of on the heap.
+ * <p>Every record has a fixed size and contains the credential ID, the RP, the user handle, the raw private key
+ * (see {@link CompactPublicKeyCredentialSource}) and a signature counter. Hashed indexes for credential IDs and
+ * (RP ID, user handle) pairs live in the same file, and the records of each RP are linked into a list, newest first,
+ * next to the number of records in it.
+ * Credential sources are only materialized on the heap when they are looked up, and recently looked up sources
+ * are kept in a small cache, so that repeated assertions with the same credential don't decode it (and convert its
+ * private key) again.
+ * <p>Because the file is the store, an authenticator can be recreated with the same file after a restart
+ * and all of its resident credentials are available immediately.
+ * <p>Limits: the capacity is fixed when the file is created, only ES256 and EdDSA keys are supported,
+ * credential IDs and user handles can be at most 64 bytes long, and RP IDs at most 255 bytes (UTF-8).
+ * <p><b>Security:</b> the private keys are written to the file unencrypted. New files are created readable and
+ * writable by their owner only where the file system supports POSIX permissions, but anyone who can read the file
+ * (or a backup of it) can use every credential in it. Only use this store for test credentials.
+ * <p><b>Durability:</b> updates are not crash-consistent. Changes reach the file when the operating system writes back
+ * the mapped pages or when {@link #force()} or {@link #close()} is called, and a crash in between can leave
+ * a partially written record or inconsistent indexes behind. Keep a copy of the file if its credentials must survive
+ * a crash of the JVM or the machine.
+ * <p>This class is thread-safe. Lookups and signature counter updates run concurrently, only storing a credential
+ * locks out all other operations.
+ */
+public class MappedCredentialStore implements CredentialStore, Closeable {
+
+    private static final int MAGIC = 0x53414353; // "SACS"
+    private static final int VERSION = 2;
+
+    // header
+    private static final int HEADER_SIZE = 64;
+    private static final int H_MAGIC = 0;
+    private static final int H_VERSION = 4;
+    private static final int H_RECORD_CAPACITY = 8;
+    private static final int H_RP_CAPACITY = 12;
+    private static final int H_RECORD_COUNT = 16;
+    private static final int H_FREE_HEAD = 20;
+    private static final int H_SIZE = 24;
+    private static final int H_RP_COUNT = 28;
+    private static final int H_TOMBSTONES = 32;
+
+    // RP table entry: length, UTF-8 bytes, first record of this RP, number of records of this RP
+    private static final int MAX_RP_ID_LENGTH = 255;
+    private static final int RP_ENTRY_SIZE = 264;
+    private static final int RP_HEAD = 256;
+    private static final int RP_SIZE = 260;
+
+    // record, ints first so that they are aligned. Record references are stored as index + 1, 0 means none.
+    private static final int MAX_ID_LENGTH = 64;
+    private static final int MAX_USER_HANDLE_LENGTH = 64;
+    private static final int KEY_LENGTH = 32;
+    private static final int RECORD_SIZE = 180;
+    private static final int R_COUNTER = 0;
+    private static final int R_NEXT = 4;
+    private static final int R_PREVIOUS = 8;
+    private static final int R_FLAGS = 12;
+    private static final int R_ALGORITHM = 13;
+    private static final int R_RP = 14;
+    private static final int R_ID_LENGTH = 16;
+    private static final int R_USER_HANDLE_LENGTH = 17;
+    private static final int R_ID = 18;
+    private static final int R_USER_HANDLE = R_ID + MAX_ID_LENGTH;
+    private static final int R_KEY = R_USER_HANDLE + MAX_USER_HANDLE_LENGTH;
+
+    private static final byte FLAG_LIVE = 1;
+    private static final byte FLAG_USER_HANDLE = 2;
+
+    private static final byte ALG_ES256 = 1;
+    private static final byte ALG_EDDSA = 2;
+
+    private static final int TOMBSTONE = -1;
+
+    private static final int SOURCE_CACHE_SIZE = 4096;
+    private static final int COUNTER_LOCKS = 64;
+
+    private final MappedFile file;
+    private final int recordCapacity;
+    private final int rpCapacity;
+    private final int tableMask;
+    private final long idTable;
+    private final long userTable;
+    private final long records;
+
+    private final Map<String, Integer> rpIndexes;
+    private final Map<Integer, String> rpIds;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    // signature counts are updated under the read lock, concurrent updates of one record are serialized by these
+    private final Object[] counterLocks;
+    // decoded sources by record, a slot only ever holds one of the records that map to it
+    private final AtomicReferenceArray<CachedSource> sourceCache;
+    private final int sourceCacheMask;
+    // changed by every put, guarded by the lock. Iterators use it to tell whether the RP lists are still as they left them
+    private int modifications;
+
+    private MappedCredentialStore(MappedFile file, int recordCapacity, int rpCapacity) {
+        this.file = file;
+        this.recordCapacity = recordCapacity;
+        this.rpCapacity = rpCapacity;
+        int tableSize = tableSize(recordCapacity);
+        this.tableMask = tableSize - 1;
+        this.idTable = HEADER_SIZE + (long) rpCapacity * RP_ENTRY_SIZE;
+        this.userTable = idTable + (long) tableSize * 4;
+        this.records = userTable + (long) tableSize * 4;
+        this.rpIndexes = new HashMap<>();
+        this.rpIds = new HashMap<>();
+        this.counterLocks = new Object[COUNTER_LOCKS];
+        for (int i = 0; i < COUNTER_LOCKS; i++) {
+            counterLocks[i] = new Object();
+        }
+        int sourceCacheSize = Math.min(SOURCE_CACHE_SIZE, tableSize);
+        this.sourceCache = new AtomicReferenceArray<>(sourceCacheSize);
+        this.sourceCacheMask = sourceCacheSize - 1;
+    }
+
+    /**
+     * Opens the store in the given file, or creates a new store with room for {@code capacity} credentials and
+     * 1024 different RP IDs if the file doesn't exist yet.
+     *
+     * @param path The file.
+     * @param capacity The maximum number of credentials, only used when a new store is created.
+     * @return the store.
+     * @throws IOException If the file cannot be mapped or is not a credential store.
+     */
+    public static MappedCredentialStore open(Path path, int capacity) throws IOException {
+        return open(path, capacity, 1024);
+    }
+
+    /**
+     * Opens the store in the given file, or creates a new store if the file doesn't exist yet.
+     * <p>A new file is only readable and writable by its owner if the file system supports POSIX permissions,
+     * see the class description.
+     *
+     * @param path The file.
+     * @param capacity The maximum number of credentials, only used when a new store is created.
+     * @param rpCapacity The maximum number of different RP IDs, only used when a new store is created.
+     * @return the store.
+     * @throws IOException If the file cannot be mapped or is not a credential store.
+     */
+    public static MappedCredentialStore open(Path path, int capacity, int rpCapacity) throws IOException {
+        if (capacity < 1 || capacity > (1 << 29)) {
+            throw new IllegalArgumentException("capacity must be between 1 and 2^29");
+        }
+        if (rpCapacity < 1 || rpCapacity > 0xFFFF) {
+            throw new IllegalArgumentException("rpCapacity must be between 1 and 65535");
+        }
+        createPrivateFile(path);
+        MappedFile file = new MappedFile(path, HEADER_SIZE);
+        try {
+            int magic = file.getInt(H_MAGIC);
+            if (magic == 0) {
+                file.close();
+                file = new MappedFile(path, fileSize(capacity, rpCapacity));
+                file.putInt(H_VERSION, VERSION);
+                file.putInt(H_RECORD_CAPACITY, capacity);
+                file.putInt(H_RP_CAPACITY, rpCapacity);
+                // written last, a file without magic is initialized again
+                file.putInt(H_MAGIC, MAGIC);
+                return new MappedCredentialStore(file, capacity, rpCapacity);
+            }
+            if (magic != MAGIC || file.getInt(H_VERSION) != VERSION) {
+                throw new IOException("Not a credential store file: " + path);
+            }
+            int existingCapacity = file.getInt(H_RECORD_CAPACITY);
+            int existingRpCapacity = file.getInt(H_RP_CAPACITY);
+            file.close();
+            file = new MappedFile(path, fileSize(existingCapacity, existingRpCapacity));
+            MappedCredentialStore store = new MappedCredentialStore(file, existingCapacity, existingRpCapacity);
+            store.loadRpIds();
+            return store;
+        } catch (IOException | RuntimeException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws IllegalArgumentException If the source cannot be represented in a record (see class description).
+     * @throws IllegalStateException If the store is full.
+     */
+    @Override
+    public Optional<PublicKeyCredentialSource> put(PublicKeyCredentialSource source) {
+        ByteArray id = Objects.requireNonNull(source.getId(), "credential id must be set");
+        CompactPublicKeyCredentialSource compact = CompactPublicKeyCredentialSource.of(source)
+                .orElseThrow(() -> new IllegalArgumentException("Only ES256 and EdDSA credentials can be stored"));
+        byte[] idBytes = id.getBytes();
+        byte[] userHandle = source.getUserHandle() == null ? null : source.getUserHandle().getBytes();
+        if (idBytes.length > MAX_ID_LENGTH) {
+            throw new IllegalArgumentException("credential id is too long");
+        }
+        if (userHandle != null && userHandle.length > MAX_USER_HANDLE_LENGTH) {
+            throw new IllegalArgumentException("user handle is too long");
+        }
+        Lock writeLock = lock.writeLock();
+        writeLock.lock();
+        try {
+            return put(source, compact, idBytes, userHandle);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private Optional<PublicKeyCredentialSource> put(
+            PublicKeyCredentialSource source, CompactPublicKeyCredentialSource compact, byte[] idBytes, byte[] userHandle
+    ) {
+        int rp = rpIndex(source.getRpId(), true);
+
+        int userSlot = findUserSlot(rp, userHandle);
+        PublicKeyCredentialSource previous = null;
+        if (userSlot >= 0) {
+            int previousRecord = file.getInt(userTable + userSlot * 4L) - 1;
+            previous = source(previousRecord);
+            remove(previousRecord);
+        }
+        int record = allocate();
+        long r = record(record);
+        byte flags = FLAG_LIVE;
+        if (userHandle != null) {
+            flags |= FLAG_USER_HANDLE;
+            file.put(r + R_USER_HANDLE_LENGTH, (byte) userHandle.length);
+            file.put(r + R_USER_HANDLE, userHandle, userHandle.length);
+        } else {
+            file.put(r + R_USER_HANDLE_LENGTH, (byte) 0);
+        }
+        file.putInt(r + R_COUNTER, 0);
+        file.put(r + R_ALGORITHM, compact.getAlgorithm() == AlgorithmID.ECDSA_256 ? ALG_ES256 : ALG_EDDSA);
+        file.putShort(r + R_RP, (short) rp);
+        file.put(r + R_ID_LENGTH, (byte) idBytes.length);
+        file.put(r + R_ID, idBytes, idBytes.length);
+        file.put(r + R_KEY, compact.getPrivateKeyBytes(), KEY_LENGTH);
+        file.put(r + R_FLAGS, flags);
+
+        insertId(idBytes, record);
+        if (userSlot >= 0) {
+            file.putInt(userTable + userSlot * 4L, record + 1);
+        } else {
+            insertUser(rp, userHandle, record);
+        }
+        // link at the head of the RP's list
+        long rpEntry = rpEntry(rp);
+        int head = file.getInt(rpEntry + RP_HEAD);
+        file.putInt(r + R_NEXT, head);
+        file.putInt(r + R_PREVIOUS, 0);
+        if (head != 0) {
+            file.putInt(record(head - 1) + R_PREVIOUS, record + 1);
+        }
+        file.putInt(rpEntry + RP_HEAD, record + 1);
+        file.putInt(rpEntry + RP_SIZE, file.getInt(rpEntry + RP_SIZE) + 1);
+        file.putInt(H_SIZE, file.getInt(H_SIZE) + 1);
+        modifications++;
+        if (file.getInt(H_TOMBSTONES) > (tableMask + 1) / 4) {
+            rehashIds();
+        }
+        return Optional.ofNullable(previous);
+    }
+
+    @Override
+    public Optional<PublicKeyCredentialSource> findById(ByteArray credentialId) {
+        Lock readLock = lock.readLock();
+        readLock.lock();
+        try {
+            int record = findRecord(credentialId.getBytes());
+            return record < 0 ? Optional.empty() : Optional.of(source(record));
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    @Override
+    public Optional<PublicKeyCredentialSource> find(String rpId, ByteArray userHandle) {
+        Lock readLock = lock.readLock();
+        readLock.lock();
+        try {
+            int rp = rpIndex(rpId, false);
+            if (rp < 0) {
+                return Optional.empty();
+            }
+            int slot = findUserSlot(rp, userHandle == null ? null : userHandle.getBytes());
+            return slot < 0 ? Optional.empty() : Optional.of(source(file.getInt(userTable + slot * 4L) - 1));
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>The returned set is a view that decodes credential sources only as they are iterated, newest first.
+     * Its size is kept in the store, and an iterator follows the RP's list one credential at a time, so
+     * {@code iterator().next()} costs the same however many credentials the RP has.
+     * Iterators are weakly consistent: they never return a credential twice, skip credentials that have been
+     * replaced, and may or may not return credentials that are stored while they are in use.
+     * {@link Set#contains(Object)} checks whether a credential with the same ID is stored for the RP.
+     */
+    @Override
+    public Set<PublicKeyCredentialSource> findByRpId(String rpId) {
+        Lock readLock = lock.readLock();
+        readLock.lock();
+        try {
+            int rp = rpIndex(rpId, false);
+            return rp < 0 ? Collections.emptySet() : new RpView(rp);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        Lock readLock = lock.readLock();
+        readLock.lock();
+        try {
+            return file.getInt(H_SIZE);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>The action is called without holding the store's lock, so it may use the store. Credentials that are
+     * replaced while this method runs are skipped.
+     */
+    @Override
+    public void forEach(Consumer<? super PublicKeyCredentialSource> action) {
+        int[] live;
+        int count = 0;
+        Lock readLock = lock.readLock();
+        readLock.lock();
+        try {
+            int recordCount = file.getInt(H_RECORD_COUNT);
+            live = new int[file.getInt(H_SIZE)];
+            for (int record = 0; record < recordCount && count < live.length; record++) {
+                if ((file.get(record(record) + R_FLAGS) & FLAG_LIVE) != 0) {
+                    live[count++] = record;
+                }
+            }
+        } finally {
+            readLock.unlock();
+        }
+        for (int i = 0; i < count; i++) {
+            PublicKeyCredentialSource source = liveSource(live[i], -1);
+            if (source != null) {
+                action.accept(source);
+            }
+        }
+    }
+
+    /**
+     * Returns a signature counter that keeps the counts of the credentials in this store in their records,
+     * so that they are persisted together with the credentials.
+     * <p>Counts for credential IDs that are not in this store (e.g. server-side credentials) are delegated to
+     * the given fallback counter. {@link SignatureCounter#writeState(DataOutput) Saving} the counter state writes the
+     * counts of all stored credentials followed by the state of the fallback counter, so that an authenticator
+     * snapshot restores them even into a new file. {@link SignatureCounter#readState(DataInput) Restoring} it
+     * expects the credentials to be in this store already, counts of credentials that are not are ignored.
+     * <p>The counter is a {@link ConcurrentSignatureCounter} if the fallback is one.
+     *
+     * @param fallback The counter for credentials that are not in this store.
+     * @return the signature counter.
+     */
+    public SignatureCounter signatureCounter(SignatureCounter fallback) {
+        Objects.requireNonNull(fallback);
+        return fallback instanceof ConcurrentSignatureCounter
+                ? new ConcurrentRecordSignatureCounter(fallback)
+                : new RecordSignatureCounter(fallback);
+    }
+
+    private class RecordSignatureCounter implements SignatureCounter {
+        private final SignatureCounter fallback;
+
+        private RecordSignatureCounter(SignatureCounter fallback) {
+            this.fallback = fallback;
+        }
+
+        @Override
+        public int increment(ByteArray credentialId) {
+            Lock readLock = lock.readLock();
+            readLock.lock();
+            try {
+                int record = findRecord(credentialId.getBytes());
+                if (record >= 0) {
+                    long counter = record(record) + R_COUNTER;
+                    synchronized (counterLocks[record & (COUNTER_LOCKS - 1)]) {
+                        int count = file.getInt(counter) + 1;
+                        file.putInt(counter, count);
+                        return count;
+                    }
+                }
+            } finally {
+                readLock.unlock();
+            }
+            return fallback.increment(credentialId);
+        }
+
+        @Override
+        public int initialize(ByteArray credentialId) {
+            Lock readLock = lock.readLock();
+            readLock.lock();
+            try {
+                int record = findRecord(credentialId.getBytes());
+                if (record >= 0) {
+                    synchronized (counterLocks[record & (COUNTER_LOCKS - 1)]) {
+                        file.putInt(record(record) + R_COUNTER, 0);
+                    }
+                    return 0;
+                }
+            } finally {
+                readLock.unlock();
+            }
+            return fallback.initialize(credentialId);
+        }
+
+        @Override
+        public void discard(ByteArray credentialId) {
+            // records of replaced credentials are removed by the store itself
+            fallback.discard(credentialId);
+        }
+
+        @Override
+        public String stateFormat() {
+            // the counts of the stored credentials come first, the state of the fallback follows
+            return "mapped-credential-store+" + fallback.stateFormat();
+        }
+
+        @Override
+        public void writeState(DataOutput out) throws IOException {
+            Lock readLock = lock.readLock();
+            readLock.lock();
+            try {
+                out.writeInt(file.getInt(H_SIZE));
+                int recordCount = file.getInt(H_RECORD_COUNT);
+                byte[] id = new byte[MAX_ID_LENGTH];
+                for (int record = 0; record < recordCount; record++) {
+                    long r = record(record);
+                    if ((file.get(r + R_FLAGS) & FLAG_LIVE) != 0) {
+                        int length = file.get(r + R_ID_LENGTH) & 0xFF;
+                        file.get(r + R_ID, id, length);
+                        // the same entry format as PerCredentialSignatureCounter
+                        out.writeShort(length);
+                        out.write(id, 0, length);
+                        out.writeInt(file.getInt(r + R_COUNTER));
+                    }
+                }
+            } finally {
+                readLock.unlock();
+            }
+            fallback.writeState(out);
+        }
+
+        @Override
+        public void readState(DataInput in) throws IOException {
+            int count = in.readInt();
+            Lock readLock = lock.readLock();
+            readLock.lock();
+            try {
+                for (int i = 0; i < count; i++) {
+                    byte[] id = new byte[in.readUnsignedShort()];
+                    in.readFully(id);
+                    int signatureCount = in.readInt();
+                    int record = findRecord(id);
+                    if (record >= 0) {
+                        synchronized (counterLocks[record & (COUNTER_LOCKS - 1)]) {
+                            file.putInt(record(record) + R_COUNTER, signatureCount);
+                        }
+                    }
+                }
+            } finally {
+                readLock.unlock();
+            }
+            fallback.readState(in);
+        }
+    }
+
+    // the counts of stored credentials are guarded by the counter locks, so the counter is as concurrent as its fallback
+    private final class ConcurrentRecordSignatureCounter extends RecordSignatureCounter
+            implements ConcurrentSignatureCounter {
+        private ConcurrentRecordSignatureCounter(SignatureCounter fallback) {
+            super(fallback);
+        }
+    }
+
+    /**
+     * Writes all changes to the underlying file.
+     */
+    public void force() {
+        Lock readLock = lock.readLock();
+        readLock.lock();
+        try {
+            file.force();
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * Writes all changes to the underlying file and closes it. The store must not be used afterwards.
+     *
+     * @throws IOException If the file cannot be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        Lock writeLock = lock.writeLock();
+        writeLock.lock();
+        try {
+            file.close();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private static void createPrivateFile(Path path) throws IOException {
+        try {
+            Files.createFile(path, PosixFilePermissions.asFileAttribute(
+                    EnumSet.of(PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE)));
+        } catch (FileAlreadyExistsException e) {
+            // an existing store is opened as it is
+        } catch (UnsupportedOperationException e) {
+            // no POSIX permissions, the file is created with the default permissions when it is mapped
+        }
+    }
+
+    private void loadRpIds() {
+        int rpCount = file.getInt(H_RP_COUNT);
+        for (int rp = 0; rp < rpCount; rp++) {
+            long entry = rpEntry(rp);
+            byte[] bytes = new byte[file.get(entry) & 0xFF];
+            file.get(entry + 1, bytes, bytes.length);
+            String rpId = new String(bytes, StandardCharsets.UTF_8).intern();
+            rpIndexes.put(rpId, rp);
+            rpIds.put(rp, rpId);
+        }
+    }
+
+    private int rpIndex(String rpId, boolean create) {
+        Integer rp = rpIndexes.get(rpId);
+        if (rp != null) {
+            return rp;
+        }
+        if (!create) {
+            return -1;
+        }
+        byte[] bytes = rpId.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_RP_ID_LENGTH) {
+            throw new IllegalArgumentException("RP ID is too long");
+        }
+        int rpCount = file.getInt(H_RP_COUNT);
+        if (rpCount == rpCapacity) {
+            throw new IllegalStateException("Credential store cannot hold any more RP IDs");
+        }
+        long entry = rpEntry(rpCount);
+        file.put(entry, (byte) bytes.length);
+        file.put(entry + 1, bytes, bytes.length);
+        file.putInt(entry + RP_HEAD, 0);
+        file.putInt(entry + RP_SIZE, 0);
+        file.putInt(H_RP_COUNT, rpCount + 1);
+        String interned = rpId.intern();
+        rpIndexes.put(interned, rpCount);
+        rpIds.put(rpCount, interned);
+        return rpCount;
+    }
+
+    private int allocate() {
+        int free = file.getInt(H_FREE_HEAD);
+        if (free != 0) {
+            file.putInt(H_FREE_HEAD, file.getInt(record(free - 1) + R_NEXT));
+            return free - 1;
+        }
+        int recordCount = file.getInt(H_RECORD_COUNT);
+        if (recordCount == recordCapacity) {
+            throw new IllegalStateException("Credential store is full");
+        }
+        file.putInt(H_RECORD_COUNT, recordCount + 1);
+        return recordCount;
+    }
+
+    // removes the record from the id index and its RP's list and puts it on the free list.
+    // The user index entry is left to the caller.
+    private void remove(int record) {
+        long r = record(record);
+        byte[] id = new byte[file.get(r + R_ID_LENGTH) & 0xFF];
+        file.get(r + R_ID, id, id.length);
+        int idSlot = findIdSlot(id);
+        file.putInt(idTable + idSlot * 4L, TOMBSTONE);
+        file.putInt(H_TOMBSTONES, file.getInt(H_TOMBSTONES) + 1);
+        sourceCache.set(record & sourceCacheMask, null);
+
+        long rpEntry = rpEntry(file.getShort(r + R_RP) & 0xFFFF);
+        int next = file.getInt(r + R_NEXT);
+        int previous = file.getInt(r + R_PREVIOUS);
+        if (previous != 0) {
+            file.putInt(record(previous - 1) + R_NEXT, next);
+        } else {
+            file.putInt(rpEntry + RP_HEAD, next);
+        }
+        file.putInt(rpEntry + RP_SIZE, file.getInt(rpEntry + RP_SIZE) - 1);
+        if (next != 0) {
+            file.putInt(record(next - 1) + R_PREVIOUS, previous);
+        }
+
+        file.put(r + R_FLAGS, (byte) 0);
+        file.putInt(r + R_NEXT, file.getInt(H_FREE_HEAD));
+        file.putInt(H_FREE_HEAD, record + 1);
+        file.putInt(H_SIZE, file.getInt(H_SIZE) - 1);
+    }
+
+    private int findRecord(byte[] id) {
+        int slot = findIdSlot(id);
+        return slot < 0 ? -1 : file.getInt(idTable + slot * 4L) - 1;
+    }
+
+    private int findIdSlot(byte[] id) {
+        int index = hash(id, 0) & tableMask;
+        for (int probes = 0; probes <= tableMask; probes++) {
+            int value = file.getInt(idTable + index * 4L);
+            if (value == 0) {
+                return -1;
+            }
+            if (value != TOMBSTONE) {
+                long r = record(value - 1);
+                if (idEquals(r, id)) {
+                    return index;
+                }
+            }
+            index = (index + 1) & tableMask;
+        }
+        return -1;
+    }
+
+    private void insertId(byte[] id, int record) {
+        int index = hash(id, 0) & tableMask;
+        int value;
+        while ((value = file.getInt(idTable + index * 4L)) != 0 && value != TOMBSTONE) {
+            index = (index + 1) & tableMask;
+        }
+        if (value == TOMBSTONE) {
+            file.putInt(H_TOMBSTONES, file.getInt(H_TOMBSTONES) - 1);
+        }
+        file.putInt(idTable + index * 4L, record + 1);
+    }
+
+    // tombstones of replaced credentials make lookups of unknown IDs probe further and further,
+    // so the ID index is rebuilt from the live records once a quarter of it is tombstones
+    private void rehashIds() {
+        file.fill(idTable, (tableMask + 1) * 4L);
+        file.putInt(H_TOMBSTONES, 0);
+        int recordCount = file.getInt(H_RECORD_COUNT);
+        byte[] id = new byte[MAX_ID_LENGTH];
+        for (int record = 0; record < recordCount; record++) {
+            long r = record(record);
+            if ((file.get(r + R_FLAGS) & FLAG_LIVE) != 0) {
+                int length = file.get(r + R_ID_LENGTH) & 0xFF;
+                file.get(r + R_ID, id, length);
+                insertId(Arrays.copyOf(id, length), record);
+            }
+        }
+    }
+
+    private int findUserSlot(int rp, byte[] userHandle) {
+        int index = hash(userHandle, rp) & tableMask;
+        for (int probes = 0; probes <= tableMask; probes++) {
+            int value = file.getInt(userTable + index * 4L);
+            if (value == 0) {
+                return -1;
+            }
+            long r = record(value - 1);
+            if ((file.getShort(r + R_RP) & 0xFFFF) == rp && userHandleEquals(r, userHandle)) {
+                return index;
+            }
+            index = (index + 1) & tableMask;
+        }
+        return -1;
+    }
+
+    private void insertUser(int rp, byte[] userHandle, int record) {
+        int index = hash(userHandle, rp) & tableMask;
+        while (file.getInt(userTable + index * 4L) != 0) {
+            index = (index + 1) & tableMask;
+        }
+        file.putInt(userTable + index * 4L, record + 1);
+    }
+
+    private boolean userHandleEquals(long r, byte[] userHandle) {
+        boolean hasUserHandle = (file.get(r + R_FLAGS) & FLAG_USER_HANDLE) != 0;
+        if (userHandle == null || !hasUserHandle) {
+            return userHandle == null && !hasUserHandle;
+        }
+        return (file.get(r + R_USER_HANDLE_LENGTH) & 0xFF) == userHandle.length
+                && file.contentEquals(r + R_USER_HANDLE, userHandle);
+    }
+
+    // must be called with the lock held
+    private PublicKeyCredentialSource source(int record) {
+        int slot = record & sourceCacheMask;
+        CachedSource cached = sourceCache.get(slot);
+        if (cached != null && cached.record == record) {
+            return cached.source;
+        }
+        PublicKeyCredentialSource source = toSource(record);
+        sourceCache.set(slot, new CachedSource(record, source));
+        return source;
+    }
+
+    // returns the source in the record if the record is still live (and belongs to the RP, unless rp is -1)
+    private PublicKeyCredentialSource liveSource(int record, int rp) {
+        Lock readLock = lock.readLock();
+        readLock.lock();
+        try {
+            long r = record(record);
+            if ((file.get(r + R_FLAGS) & FLAG_LIVE) == 0 || (rp >= 0 && (file.getShort(r + R_RP) & 0xFFFF) != rp)) {
+                return null;
+            }
+            return source(record);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    private PublicKeyCredentialSource toSource(int record) {
+        long r = record(record);
+        byte[] id = new byte[file.get(r + R_ID_LENGTH) & 0xFF];
+        file.get(r + R_ID, id, id.length);
+        ByteArray userHandle = null;
+        if ((file.get(r + R_FLAGS) & FLAG_USER_HANDLE) != 0) {
+            byte[] bytes = new byte[file.get(r + R_USER_HANDLE_LENGTH) & 0xFF];
+            file.get(r + R_USER_HANDLE, bytes, bytes.length);
+            userHandle = new ByteArray(bytes);
+        }
+        byte[] key = new byte[KEY_LENGTH];
+        file.get(r + R_KEY, key, KEY_LENGTH);
+        AlgorithmID algorithm = file.get(r + R_ALGORITHM) == ALG_ES256 ? AlgorithmID.ECDSA_256 : AlgorithmID.EDDSA;
+        PublicKeyCredentialSource source = new CompactPublicKeyCredentialSource(PublicKeyCredentialType.PUBLIC_KEY,
+                algorithm, key, rpIds.get(file.getShort(r + R_RP) & 0xFFFF), userHandle);
+        source.setId(new ByteArray(id));
+        return source;
+    }
+
+    private static final class CachedSource {
+        private final int record;
+        private final PublicKeyCredentialSource source;
+
+        private CachedSource(int record, PublicKeyCredentialSource source) {
+            this.record = record;
+            this.source = source;
+        }
+    }
+
+    // the credentials of one RP, decoded while iterating
+    private final class RpView extends AbstractSet<PublicKeyCredentialSource> {
+        private final int rp;
+
+        private RpView(int rp) {
+            this.rp = rp;
+        }
+
+        @Override
+        public Iterator<PublicKeyCredentialSource> iterator() {
+            return new RpIterator(rp);
+        }
+
+        @Override
+        public int size() {
+            Lock readLock = lock.readLock();
+            readLock.lock();
+            try {
+                return file.getInt(rpEntry(rp) + RP_SIZE);
+            } finally {
+                readLock.unlock();
+            }
+        }
+
+        @Override
+        public boolean isEmpty() {
+            Lock readLock = lock.readLock();
+            readLock.lock();
+            try {
+                return file.getInt(rpEntry(rp) + RP_HEAD) == 0;
+            } finally {
+                readLock.unlock();
+            }
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            if (!(o instanceof PublicKeyCredentialSource) || ((PublicKeyCredentialSource) o).getId() == null) {
+                return false;
+            }
+            Lock readLock = lock.readLock();
+            readLock.lock();
+            try {
+                int record = findRecord(((PublicKeyCredentialSource) o).getId().getBytes());
+                return record >= 0 && (file.getShort(record(record) + R_RP) & 0xFFFF) == rp;
+            } finally {
+                readLock.unlock();
+            }
+        }
+    }
+
+    // walks the list of an RP lazily. New records are only ever linked at the head of the list, so the records after
+    // the last returned one are still the ones to return, as long as that record still holds the same credential
+    private final class RpIterator implements Iterator<PublicKeyCredentialSource> {
+        private final int rp;
+        // the IDs of the returned credentials, to skip them if the list has to be walked from the head again
+        private final List<byte[]> returned = new ArrayList<>();
+        private int current = -1;
+        private int expectedModifications;
+        private PublicKeyCredentialSource next;
+        private boolean exhausted;
+
+        private RpIterator(int rp) {
+            this.rp = rp;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next == null && !exhausted) {
+                next = advance();
+                exhausted = next == null;
+            }
+            return next != null;
+        }
+
+        @Override
+        public PublicKeyCredentialSource next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            PublicKeyCredentialSource source = next;
+            next = null;
+            return source;
+        }
+
+        private PublicKeyCredentialSource advance() {
+            Lock readLock = lock.readLock();
+            readLock.lock();
+            try {
+                int candidate;
+                boolean restarted = false;
+                if (current < 0) {
+                    candidate = file.getInt(rpEntry(rp) + RP_HEAD);
+                } else if (modifications == expectedModifications || holdsLastReturned(record(current))) {
+                    candidate = file.getInt(record(current) + R_NEXT);
+                } else {
+                    // the last returned credential has been replaced, its place in the list is lost
+                    candidate = file.getInt(rpEntry(rp) + RP_HEAD);
+                    restarted = true;
+                }
+                expectedModifications = modifications;
+                for (; candidate != 0; candidate = file.getInt(record(candidate - 1) + R_NEXT)) {
+                    if (!restarted || !wasReturned(record(candidate - 1))) {
+                        current = candidate - 1;
+                        PublicKeyCredentialSource source = source(current);
+                        returned.add(source.getId().getBytes());
+                        return source;
+                    }
+                }
+                return null;
+            } finally {
+                readLock.unlock();
+            }
+        }
+
+        private boolean holdsLastReturned(long r) {
+            return (file.get(r + R_FLAGS) & FLAG_LIVE) != 0 && (file.getShort(r + R_RP) & 0xFFFF) == rp
+                    && idEquals(r, returned.get(returned.size() - 1));
+        }
+
+        private boolean wasReturned(long r) {
+            for (byte[] id : returned) {
+                if (idEquals(r, id)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private boolean idEquals(long r, byte[] id) {
+        return (file.get(r + R_ID_LENGTH) & 0xFF) == id.length && file.contentEquals(r + R_ID, id);
+    }
+
+    private long rpEntry(int rp) {
+        return HEADER_SIZE + (long) rp * RP_ENTRY_SIZE;
+    }
+
+    private long record(int record) {
+        return records + (long) record * RECORD_SIZE;
+    }
+
+    private static long fileSize(int recordCapacity, int rpCapacity) {
+        return HEADER_SIZE + (long) rpCapacity * RP_ENTRY_SIZE
+                + 2L * tableSize(recordCapacity) * 4
+                + (long) recordCapacity * RECORD_SIZE;
+    }
+
+    private static int tableSize(int recordCapacity) {
+        int size = 16;
+        while (size < recordCapacity * 2L) {
+            size <<= 1;
+        }
+        return size;
+    }
+
+    private static int hash(byte[] bytes, int seed) {
+        int h = 31 + seed;
+        if (bytes != null) {
+            for (byte b : bytes) {
+                h = 31 * h + b;
+            }
+        }
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        return h;
+    }
+}
@@ -0,0 +1,142 @@
+package de.adesso.softauthn.store;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * A file that is memory-mapped in chunks, so that it can be larger than a single {@link MappedByteBuffer} allows.
+ * <p>Positions are absolute offsets in the file. Ints and shorts must be aligned to their size,
+ * so that they never cross a chunk boundary.
+ */
+final class MappedFile implements Closeable {
+
+    private static final int CHUNK_SHIFT = 30;
+    private static final long CHUNK_SIZE = 1L << CHUNK_SHIFT;
+    private static final long CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer[] chunks;
+
+    MappedFile(Path path, long minimumSize) throws IOException {
+        this.channel = FileChannel.open(path,
+                StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+        try {
+            if (channel.size() < minimumSize) {
+                // extend the file, the new contents are zeroes
+                channel.write(ByteBuffer.wrap(new byte[1]), minimumSize - 1);
+            }
+            long size = channel.size();
+            int chunkCount = (int) ((size + CHUNK_SIZE - 1) >>> CHUNK_SHIFT);
+            this.chunks = new MappedByteBuffer[chunkCount];
+            for (int i = 0; i < chunkCount; i++) {
+                long position = (long) i << CHUNK_SHIFT;
+                chunks[i] = channel.map(FileChannel.MapMode.READ_WRITE, position, Math.min(CHUNK_SIZE, size - position));
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    byte get(long position) {
+        return chunk(position).get(offset(position));
+    }
+
+    void put(long position, byte value) {
+        chunk(position).put(offset(position), value);
+    }
+
+    short getShort(long position) {
+        return chunk(position).getShort(offset(position));
+    }
+
+    void putShort(long position, short value) {
+        chunk(position).putShort(offset(position), value);
+    }
+
+    int getInt(long position) {
+        return chunk(position).getInt(offset(position));
+    }
+
+    void putInt(long position, int value) {
+        chunk(position).putInt(offset(position), value);
+    }
+
+    void get(long position, byte[] target, int length) {
+        // a range may span two chunks, copy the part in each chunk at once
+        int done = 0;
+        while (done < length) {
+            ByteBuffer chunk = slice(position + done);
+            int n = Math.min(length - done, chunk.remaining());
+            chunk.get(target, done, n);
+            done += n;
+        }
+    }
+
+    void put(long position, byte[] source, int length) {
+        int done = 0;
+        while (done < length) {
+            ByteBuffer chunk = slice(position + done);
+            int n = Math.min(length - done, chunk.remaining());
+            chunk.put(source, done, n);
+            done += n;
+        }
+    }
+
+    void fill(long position, long length) {
+        byte[] zeroes = new byte[(int) Math.min(length, 1 << 16)];
+        for (long done = 0; done < length; done += zeroes.length) {
+            put(position + done, zeroes, (int) Math.min(zeroes.length, length - done));
+        }
+    }
+
+    boolean contentEquals(long position, byte[] bytes) {
+        MappedByteBuffer chunk = chunk(position);
+        int offset = offset(position);
+        if (offset + bytes.length > chunk.limit()) {
+            // spans two chunks, rare enough to copy
+            byte[] content = new byte[bytes.length];
+            get(position, content, content.length);
+            return Arrays.equals(content, bytes);
+        }
+        for (int i = 0; i < bytes.length; i++) {
+            if (chunk.get(offset + i) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    void force() {
+        for (MappedByteBuffer chunk : chunks) {
+            chunk.force();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        force();
+        channel.close();
+    }
+
+    // a buffer positioned at the given offset, without changing the position of the shared chunk
+    private ByteBuffer slice(long position) {
+        ByteBuffer buffer = chunk(position).duplicate();
+        buffer.position(offset(position));
+        return buffer;
+    }
+
+    private MappedByteBuffer chunk(long position) {
+        return chunks[(int) (position >>> CHUNK_SHIFT)];
+    }
+
+    private static int offset(long position) {
+        return (int) (position & CHUNK_MASK);
+    }
+}
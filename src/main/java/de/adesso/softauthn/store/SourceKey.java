@@ -0,0 +1,35 @@
+package de.adesso.softauthn.store;
+
+import com.yubico.webauthn.data.ByteArray;
+
+import java.util.Objects;
+
+/**
+ * Key for the (RP ID, user handle) index of the credential stores in this package.
+ */
+final class SourceKey {
+    private final String rpId;
+    private final ByteArray userHandle;
+
+    SourceKey(String rpId, ByteArray userHandle) {
+        this.rpId = rpId;
+        this.userHandle = userHandle;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof SourceKey)) {
+            return false;
+        }
+        SourceKey other = (SourceKey) o;
+        return Objects.equals(rpId, other.rpId) && Objects.equals(userHandle, other.userHandle);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(rpId, userHandle);
+    }
+}
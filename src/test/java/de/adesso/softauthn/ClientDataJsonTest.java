@@ -0,0 +1,93 @@
+package de.adesso.softauthn;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.jupiter.api.Test;
+
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+/**
+ * Checks that {@link ClientDataJson} writes exactly the bytes that Jackson writes for the same client data,
+ * which is what it replaced in {@link CredentialsContainer}.
+ */
+class ClientDataJsonTest {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @Test
+    void plainValues() throws Exception {
+        assertSameAsJackson("webauthn.create", "dGVzdC1jaGFsbGVuZ2U", "https://example.com", false);
+        assertSameAsJackson("webauthn.get", "", "https://example.com:8443", true);
+    }
+
+    @Test
+    void quotesAndBackslashes() throws Exception {
+        assertSameAsJackson("\"quoted\"", "back\\slash", "https://\"\\\".example", false);
+    }
+
+    @Test
+    void controlCharacters() throws Exception {
+        StringBuilder controls = new StringBuilder();
+        for (char c = 0; c < 0x20; c++) {
+            controls.append(c);
+        }
+        controls.append('\u007F');
+        assertSameAsJackson(controls.toString(), "\b\t\n\f\r", "https://example.com/\u0000", true);
+    }
+
+    @Test
+    void nonAsciiCharacters() throws Exception {
+        // two and three byte UTF-8 sequences and a supplementary character (a surrogate pair)
+        assertSameAsJackson("grüße", "€中\uFFFD", "https://bücher.example/😀", false);
+    }
+
+    @Test
+    void loneSurrogates() throws Exception {
+        assertSameAsJackson("\uD800", "x\uDFFFy", "https://example.com/\uDC00\uD83D", true);
+    }
+
+    @Test
+    void randomStrings() throws Exception {
+        Random random = new Random(42);
+        // mostly characters that need special handling
+        List<Character> interesting = Arrays.asList('"', '\\', '\u0000', '\u001F', '\u007F', '\u0080', '\u07FF',
+                '\u0800', '\uD7FF', '\uD800', '\uDBFF', '\uDC00', '\uDFFF', '\uE000', '\uFFFF', 'a');
+        for (int i = 0; i < 1000; i++) {
+            String[] values = new String[3];
+            for (int v = 0; v < values.length; v++) {
+                StringBuilder value = new StringBuilder();
+                int length = random.nextInt(20);
+                for (int c = 0; c < length; c++) {
+                    value.append(random.nextBoolean()
+                            ? interesting.get(random.nextInt(interesting.size()))
+                            : (char) random.nextInt(Character.MAX_VALUE + 1));
+                }
+                values[v] = value.toString();
+            }
+            assertSameAsJackson(values[0], values[1], values[2], random.nextBoolean());
+        }
+    }
+
+    private void assertSameAsJackson(String type, String challenge, String origin, boolean crossOrigin) throws Exception {
+        ObjectNode clientData = mapper.createObjectNode()
+                .put("type", type)
+                .put("challenge", challenge)
+                .put("origin", origin)
+                .put("crossOrigin", crossOrigin);
+        byte[] expected = mapper.writeValueAsBytes(clientData);
+
+        ClientDataJson json = ClientDataJson.acquire();
+        try {
+            json.write(type, challenge, ClientDataJson.member("origin", origin), crossOrigin);
+            assertArrayEquals(expected, json.toByteArray());
+            assertArrayEquals(MessageDigest.getInstance("SHA-256").digest(expected), json.hash());
+        } finally {
+            ClientDataJson.release(json);
+        }
+    }
+}
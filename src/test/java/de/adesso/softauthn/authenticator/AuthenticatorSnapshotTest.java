@@ -0,0 +1,215 @@
+package de.adesso.softauthn.authenticator;
+
+import COSE.AlgorithmID;
+import COSE.OneKey;
+import com.yubico.webauthn.data.ByteArray;
+import com.yubico.webauthn.data.PublicKeyCredentialType;
+import de.adesso.softauthn.CompactPublicKeyCredentialSource;
+import de.adesso.softauthn.PublicKeyCredentialSource;
+import de.adesso.softauthn.counter.AtomicGlobalSignatureCounter;
+import de.adesso.softauthn.counter.CompactPerCredentialSignatureCounter;
+import de.adesso.softauthn.counter.ConcurrentPerCredentialSignatureCounter;
+import de.adesso.softauthn.counter.GlobalSignatureCounter;
+import de.adesso.softauthn.counter.NoSignatureCounter;
+import de.adesso.softauthn.counter.PerCredentialSignatureCounter;
+import de.adesso.softauthn.counter.SignatureCounter;
+import de.adesso.softauthn.counter.SynchronizedSignatureCounter;
+import de.adesso.softauthn.store.CredentialStore;
+import de.adesso.softauthn.store.InMemoryCredentialStore;
+import de.adesso.softauthn.store.MappedCredentialStore;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AuthenticatorSnapshotTest {
+
+    private static final String RP_ID = "example.com";
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void fullSourcesKeepTheirPublicKey() throws Exception {
+        InMemoryCredentialStore store = new InMemoryCredentialStore();
+        OneKey key = OneKey.generateKey(AlgorithmID.ECDSA_256);
+        PublicKeyCredentialSource source = new PublicKeyCredentialSource(
+                PublicKeyCredentialType.PUBLIC_KEY, key, RP_ID, userHandle(1));
+        source.setId(id(1));
+        store.put(source);
+        Path snapshot = snapshot(store, new PerCredentialSignatureCounter());
+
+        for (boolean compact : new boolean[]{false, true}) {
+            InMemoryCredentialStore restored = new InMemoryCredentialStore();
+            restore(snapshot, restored, new PerCredentialSignatureCounter(), compact);
+            PublicKeyCredentialSource restoredSource = restored.findById(id(1)).get();
+            assertFalse(restoredSource instanceof CompactPublicKeyCredentialSource);
+            assertEquals(RP_ID, restoredSource.getRpId());
+            assertEquals(userHandle(1), restoredSource.getUserHandle());
+            assertArrayEquals(key.EncodeToBytes(), restoredSource.getKey().EncodeToBytes());
+        }
+    }
+
+    @Test
+    void compactSourcesStayCompact() throws Exception {
+        InMemoryCredentialStore store = new InMemoryCredentialStore();
+        store.put(compactSource(1, AlgorithmID.ECDSA_256));
+        store.put(compactSource(2, AlgorithmID.EDDSA));
+        Path snapshot = snapshot(store, new PerCredentialSignatureCounter());
+
+        for (boolean compact : new boolean[]{false, true}) {
+            InMemoryCredentialStore restored = new InMemoryCredentialStore();
+            restore(snapshot, restored, new PerCredentialSignatureCounter(), compact);
+            assertEquals(2, restored.size());
+            for (int i = 1; i <= 2; i++) {
+                CompactPublicKeyCredentialSource original = (CompactPublicKeyCredentialSource) store.findById(id(i)).get();
+                CompactPublicKeyCredentialSource restoredSource =
+                        (CompactPublicKeyCredentialSource) restored.findById(id(i)).get();
+                assertEquals(original.getAlgorithm(), restoredSource.getAlgorithm());
+                assertEquals(RP_ID, restoredSource.getRpId());
+                assertEquals(original.getUserHandle(), restoredSource.getUserHandle());
+                assertArrayEquals(original.getPrivateKeyBytes(), restoredSource.getPrivateKeyBytes());
+            }
+        }
+    }
+
+    @Test
+    void mappedStoreAndCountsCanBeRestoredIntoANewFile() throws Exception {
+        Path snapshot;
+        try (MappedCredentialStore store = MappedCredentialStore.open(directory.resolve("store"), 16)) {
+            SignatureCounter counter = store.signatureCounter(new PerCredentialSignatureCounter());
+            for (int i = 1; i <= 3; i++) {
+                store.put(compactSource(i, AlgorithmID.ECDSA_256));
+                counter.initialize(id(i));
+                for (int j = 0; j < i; j++) {
+                    counter.increment(id(i));
+                }
+            }
+            // a server-side credential, its count is kept by the fallback
+            counter.initialize(id(4));
+            counter.increment(id(4));
+            snapshot = snapshot(store, counter);
+        }
+
+        try (MappedCredentialStore store = MappedCredentialStore.open(directory.resolve("restored"), 16)) {
+            SignatureCounter counter = store.signatureCounter(new PerCredentialSignatureCounter());
+            restore(snapshot, store, counter, false);
+            assertEquals(3, store.size());
+            for (int i = 1; i <= 3; i++) {
+                assertTrue(store.findById(id(i)).isPresent());
+                assertEquals(i + 1, counter.increment(id(i)));
+            }
+            assertEquals(2, counter.increment(id(4)));
+        }
+
+        // the counter state holds the counts of the stored credentials and the fallback state
+        assertThrows(UncheckedIOException.class, () -> restore(
+                snapshot, new InMemoryCredentialStore(), new PerCredentialSignatureCounter(), false));
+    }
+
+    @Test
+    void everyCounterRestoresItsOwnState() throws Exception {
+        List<Supplier<SignatureCounter>> perCredential = Arrays.asList(
+                PerCredentialSignatureCounter::new,
+                ConcurrentPerCredentialSignatureCounter::new,
+                CompactPerCredentialSignatureCounter::new,
+                () -> new SynchronizedSignatureCounter(new PerCredentialSignatureCounter()));
+        // per-credential counters all write the same format
+        for (Supplier<SignatureCounter> writer : perCredential) {
+            SignatureCounter counter = writer.get();
+            counter.initialize(id(1));
+            counter.increment(id(1));
+            counter.increment(id(1));
+            Path snapshot = snapshot(new InMemoryCredentialStore(), counter);
+            for (Supplier<SignatureCounter> reader : perCredential) {
+                SignatureCounter restored = reader.get();
+                restore(snapshot, new InMemoryCredentialStore(), restored, false);
+                assertEquals(3, restored.increment(id(1)));
+            }
+        }
+
+        List<Supplier<SignatureCounter>> global = Arrays.asList(
+                GlobalSignatureCounter::new, AtomicGlobalSignatureCounter::new);
+        for (Supplier<SignatureCounter> writer : global) {
+            SignatureCounter counter = writer.get();
+            counter.increment(id(1));
+            counter.increment(id(2));
+            Path snapshot = snapshot(new InMemoryCredentialStore(), counter);
+            for (Supplier<SignatureCounter> reader : global) {
+                SignatureCounter restored = reader.get();
+                restore(snapshot, new InMemoryCredentialStore(), restored, false);
+                assertEquals(3, restored.increment(id(3)));
+            }
+        }
+
+        Path snapshot = snapshot(new InMemoryCredentialStore(), new NoSignatureCounter());
+        SignatureCounter restored = new NoSignatureCounter();
+        restore(snapshot, new InMemoryCredentialStore(), restored, false);
+        assertEquals(0, restored.increment(id(1)));
+    }
+
+    @Test
+    void countersOfAnotherFormatAreRejectedBeforeAnythingIsRestored() throws Exception {
+        InMemoryCredentialStore store = new InMemoryCredentialStore();
+        store.put(compactSource(1, AlgorithmID.ECDSA_256));
+        PerCredentialSignatureCounter counter = new PerCredentialSignatureCounter();
+        counter.initialize(id(1));
+        Path snapshot = snapshot(store, counter);
+
+        InMemoryCredentialStore restored = new InMemoryCredentialStore();
+        UncheckedIOException e = assertThrows(UncheckedIOException.class,
+                () -> restore(snapshot, restored, new GlobalSignatureCounter(), false));
+        assertTrue(e.getMessage().contains("'per-credential'"), e.getMessage());
+        assertTrue(e.getMessage().contains("'global'"), e.getMessage());
+        assertEquals(0, restored.size());
+    }
+
+    private Path snapshot(CredentialStore store, SignatureCounter counter) throws Exception {
+        Path file = directory.resolve("snapshot-" + System.nanoTime());
+        WebAuthnAuthenticator.builder()
+                .credentialStore(store)
+                .signatureCounter(counter)
+                .build()
+                .writeSnapshot(file);
+        return file;
+    }
+
+    private static void restore(
+            Path snapshot, CredentialStore store, SignatureCounter counter, boolean compactCredentialSources
+    ) throws Exception {
+        WebAuthnAuthenticator.builder()
+                .credentialStore(store)
+                .signatureCounter(counter)
+                .compactCredentialSources(compactCredentialSources)
+                .restoreSnapshot(snapshot)
+                .build();
+    }
+
+    private static PublicKeyCredentialSource compactSource(int id, AlgorithmID algorithm) {
+        byte[] key = new byte[32];
+        ByteBuffer.wrap(key).putInt(28, id);
+        CompactPublicKeyCredentialSource source = new CompactPublicKeyCredentialSource(
+                PublicKeyCredentialType.PUBLIC_KEY, algorithm, key, RP_ID, userHandle(id));
+        source.setId(id(id));
+        return source;
+    }
+
+    private static ByteArray id(int id) {
+        return new ByteArray(ByteBuffer.allocate(16).putInt(id).array());
+    }
+
+    private static ByteArray userHandle(int user) {
+        return new ByteArray(ByteBuffer.allocate(4).putInt(user).array());
+    }
+}
@@ -0,0 +1,180 @@
+package de.adesso.softauthn.authenticator;
+
+import com.yubico.webauthn.data.ByteArray;
+import com.yubico.webauthn.data.COSEAlgorithmIdentifier;
+import com.yubico.webauthn.data.PublicKeyCredentialDescriptor;
+import com.yubico.webauthn.data.PublicKeyCredentialParameters;
+import com.yubico.webauthn.data.RelyingPartyIdentity;
+import com.yubico.webauthn.data.UserIdentity;
+import de.adesso.softauthn.AuthenticatorAssertionData;
+import de.adesso.softauthn.PublicKeyCredentialSource;
+import de.adesso.softauthn.counter.CompactPerCredentialSignatureCounter;
+import de.adesso.softauthn.counter.ConcurrentPerCredentialSignatureCounter;
+import de.adesso.softauthn.counter.SignatureCounter;
+import de.adesso.softauthn.store.ConcurrentCredentialStore;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Stress test for {@link WebAuthnAuthenticatorBuilder#concurrent(boolean) concurrent} authenticators: several threads
+ * register and re-register resident credentials for a small set of users and create assertions with them at the
+ * same time, both with an allow list and discoverable (without one).
+ * <p>Afterwards, every credential must have seen distinct signature counts that increase in the order each thread
+ * observed them, and the store's indexes must agree on exactly one credential per user.
+ */
+@Timeout(120)
+class ConcurrentAuthenticatorStressTest {
+
+    private static final int THREADS = 8;
+    private static final int USERS = 32;
+    private static final int OPERATIONS_PER_THREAD = 400;
+
+    private static final RelyingPartyIdentity RP = RelyingPartyIdentity.builder()
+            .id("example.com")
+            .name("Example")
+            .build();
+    private static final List<PublicKeyCredentialParameters> PARAMETERS = Collections.singletonList(
+            PublicKeyCredentialParameters.builder().alg(COSEAlgorithmIdentifier.ES256).build());
+
+    @Test
+    void lockFreeCounter() throws Exception {
+        stress(new ConcurrentPerCredentialSignatureCounter());
+    }
+
+    @Test
+    void synchronizedCompactCounter() throws Exception {
+        // not a ConcurrentSignatureCounter, so the authenticator wraps it in a SynchronizedSignatureCounter
+        stress(new CompactPerCredentialSignatureCounter());
+    }
+
+    private void stress(SignatureCounter counter) throws Exception {
+        ConcurrentCredentialStore store = new ConcurrentCredentialStore();
+        // the credential each thread selected last, a discoverable assertion may pick any of the RP's credentials
+        ThreadLocal<PublicKeyCredentialSource> selected = new ThreadLocal<>();
+        WebAuthnAuthenticator authenticator = WebAuthnAuthenticator.builder()
+                .concurrent(true)
+                .credentialStore(store)
+                .signatureCounter(counter)
+                .credentialSelection(sources -> {
+                    List<PublicKeyCredentialSource> options = new ArrayList<>(sources);
+                    PublicKeyCredentialSource source = options.get(ThreadLocalRandom.current().nextInt(options.size()));
+                    selected.set(source);
+                    return source;
+                })
+                .build();
+        List<UserIdentity> users = new ArrayList<>(USERS);
+        // the latest credential id per user, as far as the threads know
+        Map<Integer, ByteArray> credentialIds = new ConcurrentHashMap<>();
+        for (int i = 0; i < USERS; i++) {
+            users.add(user(i));
+            credentialIds.put(i, register(authenticator, users.get(i)));
+        }
+        // credential id -> counts observed by all threads
+        Map<ByteArray, ConcurrentLinkedQueue<Integer>> observed = new ConcurrentHashMap<>();
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> results = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            results.add(executor.submit(() -> {
+                // counts seen by this thread, which must only increase
+                Map<ByteArray, Integer> lastSeen = new HashMap<>();
+                start.await();
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < OPERATIONS_PER_THREAD; i++) {
+                    int user = random.nextInt(USERS);
+                    int operation = random.nextInt(10);
+                    if (operation == 0) {
+                        credentialIds.put(user, register(authenticator, users.get(user)));
+                        continue;
+                    }
+                    // half of the assertions are discoverable and may select a credential that was just registered
+                    boolean discoverable = operation > 5;
+                    ByteArray credentialId = credentialIds.get(user);
+                    List<PublicKeyCredentialDescriptor> allowList = discoverable ? null
+                            : Collections.singletonList(PublicKeyCredentialDescriptor.builder().id(credentialId).build());
+                    selected.remove();
+                    AuthenticatorAssertionData assertion;
+                    try {
+                        assertion = authenticator.getAssertion(RP.getId(), new byte[32], allowList, false, null);
+                    } catch (NoSuchElementException | IllegalStateException e) {
+                        // replaced by another thread between reading the id and asserting (or incrementing)
+                        ByteArray failedId = selected.get() != null ? selected.get().getId() : credentialId;
+                        assertFalse(store.findById(failedId).isPresent(),
+                                "assertion failed for a credential that is still stored: " + e);
+                        continue;
+                    }
+                    if (discoverable) {
+                        credentialId = selected.get().getId();
+                    }
+                    assertEquals(credentialId, assertion.getCredentialId());
+                    int count = ByteBuffer.wrap(assertion.getAuthenticatorData().getBytes(), 33, 4).getInt();
+                    Integer previous = lastSeen.put(credentialId, count);
+                    assertTrue(previous == null || count > previous,
+                            "signature count went from " + previous + " to " + count);
+                    observed.computeIfAbsent(credentialId, id -> new ConcurrentLinkedQueue<>()).add(count);
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        try {
+            for (Future<?> result : results) {
+                result.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        for (Map.Entry<ByteArray, ConcurrentLinkedQueue<Integer>> entry : observed.entrySet()) {
+            Set<Integer> distinct = new HashSet<>(entry.getValue());
+            assertEquals(entry.getValue().size(), distinct.size(),
+                    "the same signature count was handed out twice for " + entry.getKey());
+        }
+
+        assertEquals(USERS, store.size());
+        Set<PublicKeyCredentialSource> partition = store.findByRpId(RP.getId());
+        assertEquals(USERS, partition.size());
+        for (int i = 0; i < USERS; i++) {
+            Optional<PublicKeyCredentialSource> source = store.find(RP.getId(), users.get(i).getId());
+            assertTrue(source.isPresent(), "user " + i + " lost its credential");
+            assertEquals(source, store.findById(source.get().getId()));
+            assertTrue(partition.contains(source.get()));
+        }
+    }
+
+    private static ByteArray register(WebAuthnAuthenticator authenticator, UserIdentity user) {
+        return authenticator.makeAttestationObject(new byte[32], RP, user, true, false, PARAMETERS,
+                Collections.emptySet(), false, null).getCredentialId();
+    }
+
+    private static UserIdentity user(int index) {
+        return UserIdentity.builder()
+                .name("user" + index)
+                .displayName("User " + index)
+                .id(new ByteArray(ByteBuffer.allocate(4).putInt(index).array()))
+                .build();
+    }
+}
@@ -0,0 +1,100 @@
+package de.adesso.softauthn.authenticator;
+
+import COSE.AlgorithmID;
+import COSE.OneKey;
+import com.yubico.webauthn.data.ByteArray;
+import com.yubico.webauthn.data.COSEAlgorithmIdentifier;
+import com.yubico.webauthn.data.PublicKeyCredentialParameters;
+import com.yubico.webauthn.data.PublicKeyCredentialType;
+import com.yubico.webauthn.data.RelyingPartyIdentity;
+import com.yubico.webauthn.data.UserIdentity;
+import de.adesso.softauthn.PublicKeyCredentialSource;
+import de.adesso.softauthn.counter.PerCredentialSignatureCounter;
+import de.adesso.softauthn.store.InMemoryCredentialStore;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+/**
+ * Soak test for re-registering the same user over and over: the resident store and the signature counter must
+ * replace the previous credential instead of accumulating one entry per registration.
+ */
+class ResidentCredentialReplacementTest {
+
+    private static final RelyingPartyIdentity RP = RelyingPartyIdentity.builder()
+            .id("example.com")
+            .name("Example")
+            .build();
+    private static final UserIdentity USER = UserIdentity.builder()
+            .name("user")
+            .displayName("User")
+            .id(new ByteArray(new byte[]{1, 2, 3, 4}))
+            .build();
+
+    @Test
+    void storeKeepsOneSourcePerUserAcrossAMillionReplacements() throws Exception {
+        InMemoryCredentialStore store = new InMemoryCredentialStore();
+        OneKey key = OneKey.generateKey(AlgorithmID.ECDSA_256);
+        PublicKeyCredentialSource latest = null;
+        for (int i = 0; i < 1_000_000; i++) {
+            PublicKeyCredentialSource source = new PublicKeyCredentialSource(
+                    PublicKeyCredentialType.PUBLIC_KEY, key, RP.getId(), USER.getId());
+            source.setId(new ByteArray(ByteBuffer.allocate(8).putLong(i).array()));
+            Optional<PublicKeyCredentialSource> replaced = store.put(source);
+            assertEquals(latest == null, !replaced.isPresent());
+            latest = source;
+        }
+        assertEquals(1, store.size());
+        assertEquals(1, store.findByRpId(RP.getId()).size());
+        assertEquals(Optional.of(latest), store.find(RP.getId(), USER.getId()));
+        assertEquals(Optional.of(latest), store.findById(latest.getId()));
+        assertFalse(store.findById(new ByteArray(ByteBuffer.allocate(8).putLong(0).array())).isPresent());
+    }
+
+    @Test
+    void authenticatorDiscardsCountersOfReplacedCredentials() {
+        InMemoryCredentialStore store = new InMemoryCredentialStore();
+        CountingSignatureCounter counter = new CountingSignatureCounter();
+        WebAuthnAuthenticator authenticator = WebAuthnAuthenticator.builder()
+                .credentialStore(store)
+                .signatureCounter(counter)
+                .build();
+        List<PublicKeyCredentialParameters> parameters = Collections.singletonList(
+                PublicKeyCredentialParameters.builder().alg(COSEAlgorithmIdentifier.ES256).build());
+        for (int i = 0; i < 10_000; i++) {
+            authenticator.makeCredential(new byte[32], RP, USER, true, false, parameters,
+                    Collections.emptySet(), false, null);
+        }
+        assertEquals(1, store.size());
+        ByteArray lastId = store.find(RP.getId(), USER.getId()).map(PublicKeyCredentialSource::getId).orElse(null);
+        assertEquals(Collections.singleton(lastId), counter.counted);
+    }
+
+    /**
+     * Keeps track of the credential IDs that the counter holds a count for.
+     */
+    private static final class CountingSignatureCounter extends PerCredentialSignatureCounter {
+
+        private final Set<ByteArray> counted = new HashSet<>();
+
+        @Override
+        public int initialize(ByteArray credentialId) {
+            counted.add(credentialId);
+            return super.initialize(credentialId);
+        }
+
+        @Override
+        public void discard(ByteArray credentialId) {
+            counted.remove(credentialId);
+            super.discard(credentialId);
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package de.adesso.softauthn.store;
+
+import COSE.AlgorithmID;
+import com.yubico.webauthn.data.ByteArray;
+import com.yubico.webauthn.data.PublicKeyCredentialType;
+import de.adesso.softauthn.CompactPublicKeyCredentialSource;
+import de.adesso.softauthn.PublicKeyCredentialSource;
+import de.adesso.softauthn.counter.ConcurrentPerCredentialSignatureCounter;
+import de.adesso.softauthn.counter.ConcurrentSignatureCounter;
+import de.adesso.softauthn.counter.PerCredentialSignatureCounter;
+import de.adesso.softauthn.counter.SignatureCounter;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MappedCredentialStoreTest {
+
+    // offset of the tombstone count in the file header
+    private static final int H_TOMBSTONES = 32;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void reopeningKeepsCredentialsAndCounts() throws Exception {
+        Path path = directory.resolve("store");
+        try (MappedCredentialStore store = MappedCredentialStore.open(path, 16)) {
+            store.put(source("a.example", 1, 1));
+            store.put(source("a.example", 2, 2));
+            store.put(source("b.example", 1, 3));
+            SignatureCounter counter = store.signatureCounter(new PerCredentialSignatureCounter());
+            counter.increment(id(1));
+            counter.increment(id(1));
+        }
+        long size = Files.size(path);
+
+        // the capacity of an existing store is kept
+        try (MappedCredentialStore store = MappedCredentialStore.open(path, 1)) {
+            assertEquals(size, Files.size(path));
+            assertEquals(3, store.size());
+            CompactPublicKeyCredentialSource source = (CompactPublicKeyCredentialSource) store.findById(id(2)).get();
+            assertEquals("a.example", source.getRpId());
+            assertEquals(userHandle(2), source.getUserHandle());
+            assertEquals(AlgorithmID.ECDSA_256, source.getAlgorithm());
+            assertArrayEquals(key(2), source.getPrivateKeyBytes());
+            assertEquals(id(3), store.find("b.example", userHandle(1)).map(PublicKeyCredentialSource::getId).get());
+            assertEquals(2, store.findByRpId("a.example").size());
+            assertEquals(3, store.signatureCounter(new PerCredentialSignatureCounter()).increment(id(1)));
+            for (int i = 4; i < 17; i++) {
+                store.put(source("c.example", i, i));
+            }
+            assertEquals(16, store.size());
+        }
+    }
+
+    @Test
+    void replacingAResidentCredentialReusesItsRecord() throws Exception {
+        Path path = directory.resolve("store");
+        try (MappedCredentialStore store = MappedCredentialStore.open(path, 2)) {
+            store.put(source("example.com", 1, 1));
+            store.put(source("example.com", 2, 2));
+            long size = Files.size(path);
+
+            Optional<PublicKeyCredentialSource> replaced = store.put(source("example.com", 1, 3));
+            assertEquals(id(1), replaced.map(PublicKeyCredentialSource::getId).get());
+            assertFalse(store.findById(id(1)).isPresent());
+            assertEquals(id(3), store.find("example.com", userHandle(1)).map(PublicKeyCredentialSource::getId).get());
+            assertEquals(2, store.size());
+            assertEquals(2, store.findByRpId("example.com").size());
+
+            // the record of the replaced credential is reused, the store is full but never grows
+            for (int i = 4; i < 10_000; i++) {
+                store.put(source("example.com", 1 + i % 2, i));
+            }
+            assertEquals(2, store.size());
+            assertEquals(size, Files.size(path));
+            assertTrue(store.findById(id(9_999)).isPresent());
+            assertTrue(store.findById(id(9_998)).isPresent());
+            assertFalse(store.findById(id(9_997)).isPresent());
+        }
+    }
+
+    @Test
+    void tombstonesOfReplacedCredentialsAreRehashedAway() throws Exception {
+        Path path = directory.resolve("store");
+        // 16 credentials get an ID table of 32 slots
+        try (MappedCredentialStore store = MappedCredentialStore.open(path, 16);
+             MappedFile header = new MappedFile(path, 0)) {
+            for (int i = 0; i < 16; i++) {
+                store.put(source("example.com", i, i));
+            }
+            int maxTombstones = 0;
+            for (int i = 16; i < 10_000; i++) {
+                store.put(source("example.com", i % 16, i));
+                maxTombstones = Math.max(maxTombstones, header.getInt(H_TOMBSTONES));
+            }
+            assertTrue(maxTombstones <= 32 / 4, "tombstones: " + maxTombstones);
+            for (int i = 0; i < 16; i++) {
+                assertTrue(store.findById(id(10_000 - 16 + i)).isPresent());
+            }
+            assertFalse(store.findById(id(0)).isPresent());
+            assertFalse(store.findById(id(-1)).isPresent());
+        }
+    }
+
+    @Test
+    void throwsWhenTheStoreIsFull() throws Exception {
+        try (MappedCredentialStore store = MappedCredentialStore.open(directory.resolve("store"), 2, 1)) {
+            store.put(source("example.com", 1, 1));
+            store.put(source("example.com", 2, 2));
+            IllegalStateException full = assertThrows(IllegalStateException.class,
+                    () -> store.put(source("example.com", 3, 3)));
+            assertEquals("Credential store is full", full.getMessage());
+            IllegalStateException rpFull = assertThrows(IllegalStateException.class,
+                    () -> store.put(source("other.example", 1, 4)));
+            assertEquals("Credential store cannot hold any more RP IDs", rpFull.getMessage());
+
+            // failed puts leave the store as it was
+            assertEquals(2, store.size());
+            assertFalse(store.findById(id(3)).isPresent());
+            assertTrue(store.findByRpId("other.example").isEmpty());
+            assertTrue(store.put(source("example.com", 2, 5)).isPresent());
+        }
+    }
+
+    @Test
+    void decodedSourcesAreCached() throws Exception {
+        Path path = directory.resolve("store");
+        PublicKeyCredentialSource cached;
+        try (MappedCredentialStore store = MappedCredentialStore.open(path, 16)) {
+            store.put(source("example.com", 1, 1));
+            cached = store.findById(id(1)).get();
+            assertSame(cached, store.findById(id(1)).get());
+            assertSame(cached, store.find("example.com", userHandle(1)).get());
+            assertSame(cached, store.findByRpId("example.com").iterator().next());
+
+            store.put(source("example.com", 1, 2));
+            PublicKeyCredentialSource replacement = store.findById(id(2)).get();
+            assertNotSame(cached, replacement);
+            assertSame(replacement, store.find("example.com", userHandle(1)).get());
+            cached = replacement;
+        }
+        try (MappedCredentialStore store = MappedCredentialStore.open(path, 16)) {
+            PublicKeyCredentialSource reopened = store.findById(id(2)).get();
+            assertNotSame(cached, reopened);
+            assertEquals(cached.getUserHandle(), reopened.getUserHandle());
+        }
+    }
+
+    @Test
+    void credentialsOfAnRpAreAViewKeptUpToDate() throws Exception {
+        try (MappedCredentialStore store = MappedCredentialStore.open(directory.resolve("store"), 16)) {
+            for (int i = 1; i <= 3; i++) {
+                store.put(source("example.com", i, i));
+            }
+            store.put(source("other.example", 1, 4));
+            Set<PublicKeyCredentialSource> credentials = store.findByRpId("example.com");
+            assertEquals(3, credentials.size());
+            assertEquals(Arrays.asList(id(3), id(2), id(1)), ids(credentials.iterator()));
+
+            store.put(source("example.com", 4, 5));
+            assertEquals(4, credentials.size());
+            assertTrue(credentials.contains(store.findById(id(5)).get()));
+            assertFalse(store.findByRpId("unknown.example").iterator().hasNext());
+        }
+    }
+
+    @Test
+    void iteratorsSkipReplacedCredentialsAndNeverRepeatOne() throws Exception {
+        try (MappedCredentialStore store = MappedCredentialStore.open(directory.resolve("store"), 16)) {
+            for (int i = 1; i <= 3; i++) {
+                store.put(source("example.com", i, i));
+            }
+            // a credential that has not been returned yet is replaced
+            Iterator<PublicKeyCredentialSource> iterator = store.findByRpId("example.com").iterator();
+            assertEquals(id(3), iterator.next().getId());
+            store.put(source("example.com", 1, 4));
+            assertEquals(Arrays.asList(id(2)), ids(iterator));
+
+            // the credential returned last is replaced
+            iterator = store.findByRpId("example.com").iterator();
+            assertEquals(id(4), iterator.next().getId());
+            store.put(source("example.com", 1, 5));
+            List<ByteArray> rest = ids(iterator);
+            assertFalse(rest.contains(id(4)));
+            assertTrue(rest.containsAll(Arrays.asList(id(3), id(2))));
+            assertEquals(3, store.findByRpId("example.com").size());
+        }
+    }
+
+    @Test
+    void counterIsConcurrentIfItsFallbackIs() throws Exception {
+        try (MappedCredentialStore store = MappedCredentialStore.open(directory.resolve("store"), 16)) {
+            store.put(source("example.com", 1, 1));
+            SignatureCounter concurrent = store.signatureCounter(new ConcurrentPerCredentialSignatureCounter());
+            assertTrue(concurrent instanceof ConcurrentSignatureCounter);
+            assertFalse(store.signatureCounter(new PerCredentialSignatureCounter())
+                    instanceof ConcurrentSignatureCounter);
+
+            assertEquals(0, concurrent.initialize(id(1)));
+            assertEquals(1, concurrent.increment(id(1)));
+            // unknown credentials are counted by the fallback
+            assertEquals(0, concurrent.initialize(id(2)));
+            assertEquals(1, concurrent.increment(id(2)));
+            assertEquals(2, concurrent.increment(id(1)));
+        }
+    }
+
+    private static List<ByteArray> ids(Iterator<PublicKeyCredentialSource> iterator) {
+        List<ByteArray> ids = new ArrayList<>();
+        iterator.forEachRemaining(source -> ids.add(source.getId()));
+        return ids;
+    }
+
+    private static PublicKeyCredentialSource source(String rpId, int user, int id) {
+        CompactPublicKeyCredentialSource source = new CompactPublicKeyCredentialSource(
+                PublicKeyCredentialType.PUBLIC_KEY, AlgorithmID.ECDSA_256, key(id), rpId, userHandle(user));
+        source.setId(id(id));
+        return source;
+    }
+
+    private static ByteArray id(int id) {
+        return new ByteArray(ByteBuffer.allocate(16).putInt(id).array());
+    }
+
+    private static ByteArray userHandle(int user) {
+        return new ByteArray(ByteBuffer.allocate(4).putInt(user).array());
+    }
+
+    private static byte[] key(int id) {
+        byte[] key = new byte[32];
+        ByteBuffer.wrap(key).putInt(28, id);
+        return key;
+    }
+}
@@ -0,0 +1,69 @@
+package de.adesso.softauthn.store;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MappedFileTest {
+
+    private static final long CHUNK_SIZE = 1L << 30;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void extendsTheFileWithZeroesAndKeepsWritesAcrossReopening() throws Exception {
+        Path path = directory.resolve("file");
+        try (MappedFile file = new MappedFile(path, 128)) {
+            assertEquals(128, Files.size(path));
+            assertEquals(0, file.getInt(124));
+            file.put(0, (byte) 7);
+            file.putShort(2, (short) -2);
+            file.putInt(4, 0x12345678);
+            file.put(8, new byte[]{1, 2, 3, 4, 5}, 5);
+        }
+        try (MappedFile file = new MappedFile(path, 64)) {
+            assertEquals(128, Files.size(path));
+            assertEquals(7, file.get(0));
+            assertEquals(-2, file.getShort(2));
+            assertEquals(0x12345678, file.getInt(4));
+            byte[] bytes = new byte[5];
+            file.get(8, bytes, bytes.length);
+            assertArrayEquals(new byte[]{1, 2, 3, 4, 5}, bytes);
+            assertTrue(file.contentEquals(8, new byte[]{1, 2, 3}));
+            assertFalse(file.contentEquals(8, new byte[]{1, 2, 4}));
+
+            file.fill(4, 8);
+            assertEquals(0, file.getInt(4));
+            assertTrue(file.contentEquals(8, new byte[]{0, 0, 0, 0, 5}));
+        }
+    }
+
+    @Test
+    void rangesMaySpanTwoChunks() throws Exception {
+        // the file is sparse, only the pages around the chunk boundary are ever touched
+        try (MappedFile file = new MappedFile(directory.resolve("file"), CHUNK_SIZE + 64)) {
+            long position = CHUNK_SIZE - 3;
+            byte[] bytes = {1, 2, 3, 4, 5, 6};
+            file.put(position, bytes, bytes.length);
+            assertEquals(3, file.get(CHUNK_SIZE - 1));
+            assertEquals(4, file.get(CHUNK_SIZE));
+
+            byte[] read = new byte[bytes.length];
+            file.get(position, read, read.length);
+            assertArrayEquals(bytes, read);
+            assertTrue(file.contentEquals(position, bytes));
+            assertFalse(file.contentEquals(position, new byte[]{1, 2, 3, 4, 5, 7}));
+
+            file.fill(position + 1, 4);
+            assertTrue(file.contentEquals(position, new byte[]{1, 0, 0, 0, 0, 6}));
+        }
+    }
+}